@@ -29,12 +29,11 @@
 // Generate input values
 package de.hub.se.jqf.cluster.junit;
 
-import com.pholser.junit.quickcheck.generator.GenerationStatus;
 import com.pholser.junit.quickcheck.generator.Generator;
 import com.pholser.junit.quickcheck.internal.ParameterTypeContext;
 import com.pholser.junit.quickcheck.internal.generator.GeneratorRepository;
-import com.pholser.junit.quickcheck.random.SourceOfRandomness;
-import de.hub.se.jqf.cluster.tracing.TraceSavingGuidance;
+import de.hub.se.jqf.cluster.tracing.ChoiceBuffer;
+import de.hub.se.jqf.cluster.tracing.ChoiceObserver;
 import de.hub.se.jqf.cluster.tracing.TracingSourceOfRandomness;
 import edu.berkeley.cs.jqf.fuzz.guidance.*;
 import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
@@ -48,12 +47,12 @@ import org.junit.runners.model.TestClass;
 import ru.vyarus.java.generics.resolver.GenericsResolver;
 import ru.vyarus.java.generics.resolver.context.MethodGenericsContext;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static edu.berkeley.cs.jqf.fuzz.guidance.Result.*;
 
@@ -72,6 +71,7 @@ public class TracingFuzzStatement extends Statement {
     private final List<Class<?>> expectedExceptions;
     private final List<Throwable> failures = new ArrayList<>();
     private final Guidance guidance;
+    private final ChoiceBuffer choiceBuffer = new ChoiceBuffer();
 
     public TracingFuzzStatement(FrameworkMethod method, TestClass testClass,
                          GeneratorRepository generatorRepository, Guidance fuzzGuidance) {
@@ -93,10 +93,19 @@ public class TracingFuzzStatement extends Statement {
     @Override
     public void evaluate() throws Throwable {
         // Construct generators for each parameter
-        List<Generator<?>> generators = Arrays.stream(method.getMethod().getParameters())
-                .map(this::createParameterTypeContext)
-                .map(this::produceGenerator)
-                .collect(Collectors.toList());
+        Parameter[] parameters = method.getMethod().getParameters();
+        Generator<?>[] generators = new Generator<?>[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            generators[i] = produceGenerator(createParameterTypeContext(parameters[i]));
+        }
+
+        // Create the generation objects once; each trial resets them to its input
+        StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(new byte[0]), Long.BYTES);
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomFile, choiceBuffer);
+        ChoiceObserver observer = guidance instanceof ChoiceObserver ? (ChoiceObserver) guidance : null;
+        random.setObserver(observer);
+        NonTrackingGenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+        TrialRunner trialRunner = new TrialRunner(testClass.getJavaClass(), method, null);
 
         // Keep fuzzing until no more input or I/O error with guidance
         try {
@@ -112,19 +121,21 @@ public class TracingFuzzStatement extends Statement {
                     try {
 
                         // Generate input values
-                        StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
-                        SourceOfRandomness random = new TracingSourceOfRandomness(randomFile);
-                        GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
-                        args = generators.stream()
-                                .map(g -> g.generate(random, genStatus))
-                                .toArray();
+                        randomFile.reset(guidance.getInput());
+                        random.reset();
+                        genStatus.reset();
+                        args = new Object[generators.length];
+                        for (int i = 0; i < generators.length; i++) {
+                            args[i] = generators[i].generate(random, genStatus);
+                        }
 
                         // Let guidance observe the generated input args
                         guidance.observeGeneratedArgs(args);
 
-                        // Set choices for current input
-                        TracingSourceOfRandomness rdm = (TracingSourceOfRandomness) random;
-                        ((TraceSavingGuidance) guidance).setCurrentChoiceSequences(rdm.getChoiceTypes(), rdm.getChoiceValues());
+                        // Let the observer see the choices of the current input
+                        if (observer != null) {
+                            observer.onGenerationEnd(random.getChoices());
+                        }
                     } catch (IllegalStateException e) {
                         if (e.getCause() instanceof EOFException) {
                             // This happens when we reach EOF before reading all the random values.
@@ -148,7 +159,7 @@ public class TracingFuzzStatement extends Statement {
                     }
 
                     // Attempt to run the trial
-                    new TrialRunner(testClass.getJavaClass(), method, args).run();
+                    trialRunner.run(args);
 
                     // If we reached here, then the trial must be a success
                     result = SUCCESS;
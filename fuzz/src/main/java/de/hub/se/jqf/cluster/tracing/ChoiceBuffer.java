@@ -0,0 +1,181 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, growable buffer of random choices.
+ *
+ * <p>Choices are stored in parallel primitive arrays, so recording a
+ * choice does not allocate unless the buffer has to grow. The buffer is
+ * meant to be {@linkplain #clear() cleared} and reused between trials.</p>
+ *
+ * <p>The type and value fingerprints are rolled forward on every
+ * {@link #add(byte, long, int, int, int)}, so they cost a couple of multiplications
+ * per choice.</p>
+ */
+public class ChoiceBuffer implements ChoiceSequence {
+
+    /** The initial number of choices to allocate space for. */
+    protected static final int INITIAL_CAPACITY = 256;
+
+    protected byte[] types;
+
+    protected long[] values;
+
+    protected int[] offsets;
+
+    protected int[] lengths;
+
+    protected int[] bounds;
+
+    protected int size;
+
+    /** The seed of both rolling fingerprints (i.e. the fingerprint of an empty sequence). */
+    protected static final long FINGERPRINT_SEED = 0x6A09E667F3BCC909L;
+
+    protected long typeFingerprint;
+
+    protected long valueFingerprint;
+
+    public ChoiceBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ChoiceBuffer(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        this.types = new byte[capacity];
+        this.values = new long[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.bounds = new int[capacity];
+        clear();
+    }
+
+    /**
+     * Records a choice whose position in the input is unknown.
+     *
+     * @param type the {@link ChoiceType} code of the choice
+     * @param value the value of the choice
+     */
+    public void add(byte type, long value) {
+        add(type, value, -1, 0, 0);
+    }
+
+    /**
+     * Records a choice.
+     *
+     * @param type the {@link ChoiceType} code of the choice
+     * @param value the value of the choice
+     * @param offset the offset of the first input byte read for the choice
+     * @param length the number of input bytes read for the choice
+     * @param bound the exclusive upper bound of the value, or 0 if unknown
+     */
+    public void add(byte type, long value, int offset, int length, int bound) {
+        if (size == types.length) {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            bounds = Arrays.copyOf(bounds, capacity);
+        }
+        types[size] = type;
+        values[size] = value;
+        offsets[size] = offset;
+        lengths[size] = length;
+        bounds[size] = bound;
+        size++;
+
+        // Roll the fingerprints forward; mixing after each step makes them order-sensitive
+        typeFingerprint = Hashing.mix64(typeFingerprint ^ (type + 1));
+        valueFingerprint = Hashing.mix64(valueFingerprint ^ (value * 0x9E3779B97F4A7C15L + type));
+    }
+
+    /**
+     * Returns a copy of this buffer trimmed to its size.
+     *
+     * <p>Unlike the buffer itself, the copy remains valid after the buffer
+     * is reused for the next trial.</p>
+     *
+     * @return a copy of the recorded choices
+     */
+    @Override
+    public ChoiceBuffer copy() {
+        ChoiceBuffer copy = new ChoiceBuffer(size);
+        System.arraycopy(types, 0, copy.types, 0, size);
+        System.arraycopy(values, 0, copy.values, 0, size);
+        System.arraycopy(offsets, 0, copy.offsets, 0, size);
+        System.arraycopy(lengths, 0, copy.lengths, 0, size);
+        System.arraycopy(bounds, 0, copy.bounds, 0, size);
+        copy.size = size;
+        copy.typeFingerprint = typeFingerprint;
+        copy.valueFingerprint = valueFingerprint;
+        return copy;
+    }
+
+    /**
+     * Removes all choices, keeping the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+        typeFingerprint = FINGERPRINT_SEED;
+        valueFingerprint = FINGERPRINT_SEED;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte getType(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return types[i];
+    }
+
+    @Override
+    public long getValue(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return values[i];
+    }
+
+    @Override
+    public int getOffset(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return offsets[i];
+    }
+
+    @Override
+    public int getLength(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return lengths[i];
+    }
+
+    @Override
+    public int getBound(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return bounds[i];
+    }
+
+    @Override
+    public long getTypeFingerprint() {
+        return typeFingerprint;
+    }
+
+    @Override
+    public long getValueFingerprint() {
+        return valueFingerprint;
+    }
+}
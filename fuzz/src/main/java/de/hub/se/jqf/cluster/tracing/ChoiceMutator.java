@@ -0,0 +1,106 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.Random;
+
+/**
+ * Mutates the bytes of a linear input at the boundaries of the choices that
+ * were made while generating it.
+ *
+ * <p>Each mutation rewrites exactly the bytes that one choice consumed, so
+ * the bytes read by later choices stay aligned with them. The new bytes
+ * are picked according to the type of the choice:</p>
+ * <ul>
+ *     <li>a {@link ChoiceType#BOOL} is flipped;</li>
+ *     <li>a choice with a known bound (e.g. a {@link ChoiceType#CHOOSE}
+ *         index) is set to a different value within its bound;</li>
+ *     <li>other numeric choices are nudged by a small amount, or
+ *         occasionally re-drawn at random.</li>
+ * </ul>
+ */
+public class ChoiceMutator {
+
+    /** The largest amount by which a numeric choice is nudged. */
+    public static final int MAX_NUDGE = 16;
+
+    /** How often a numeric choice is re-drawn instead of nudged. */
+    public static final double RANDOM_PROBABILITY = 0.25;
+
+    /** How many choices to try before giving up on finding one to mutate. */
+    private static final int MAX_ATTEMPTS = 8;
+
+    private ChoiceMutator() {}
+
+    /**
+     * Applies one mutation to a randomly selected choice.
+     *
+     * @param bytes the input bytes to mutate in place
+     * @param choices the choices made while generating from {@code bytes}
+     * @param random a pseudo-random number generator
+     * @return whether a choice was mutated; this is false if no choice
+     *         with a known position within {@code bytes} was found
+     */
+    public static boolean mutate(byte[] bytes, ChoiceSequence choices, Random random) {
+        if (choices.size() == 0) {
+            return false;
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (mutate(bytes, choices, random.nextInt(choices.size()), random)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies one mutation to a given choice.
+     *
+     * @param bytes the input bytes to mutate in place
+     * @param choices the choices made while generating from {@code bytes}
+     * @param i the index of the choice to mutate
+     * @param random a pseudo-random number generator
+     * @return whether the choice was mutated; this is false if its
+     *         position within {@code bytes} is not known
+     */
+    public static boolean mutate(byte[] bytes, ChoiceSequence choices, int i, Random random) {
+        int offset = choices.getOffset(i);
+        int length = Math.min(choices.getLength(i), Long.BYTES);
+        if (offset < 0 || length <= 0 || offset + length > bytes.length) {
+            return false;
+        }
+
+        if (choices.getType(i) == ChoiceType.BOOL) {
+            // Booleans are the lowest bit of a single byte
+            bytes[offset] ^= 1;
+        } else if (choices.getBound(i) > 1) {
+            // Bounded values are the remainder of a non-negative integer
+            int bound = choices.getBound(i);
+            long value = (choices.getValue(i) + 1 + random.nextInt(bound - 1)) % bound;
+            write(bytes, offset, length, value);
+        } else if (random.nextDouble() < RANDOM_PROBABILITY) {
+            for (int j = offset; j < offset + length; j++) {
+                bytes[j] = (byte) random.nextInt(256);
+            }
+        } else {
+            int delta = 1 + random.nextInt(MAX_NUDGE);
+            long raw = read(bytes, offset, length);
+            write(bytes, offset, length, random.nextBoolean() ? raw + delta : raw - delta);
+        }
+        return true;
+    }
+
+    /** Reads a little-endian integer, as {@code StreamBackedRandom} does. */
+    private static long read(byte[] bytes, int offset, int length) {
+        long raw = 0;
+        for (int j = length - 1; j >= 0; j--) {
+            raw = (raw << 8) | (bytes[offset + j] & 0xFF);
+        }
+        return raw;
+    }
+
+    /** Writes the lowest {@code length} bytes of a value in little-endian order. */
+    private static void write(byte[] bytes, int offset, int length, long value) {
+        for (int j = 0; j < length; j++) {
+            bytes[offset + j] = (byte) (value >>> (8 * j));
+        }
+    }
+}
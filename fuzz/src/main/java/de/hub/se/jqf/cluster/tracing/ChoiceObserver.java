@@ -0,0 +1,43 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
+
+/**
+ * A guidance that observes the choices that generators make.
+ *
+ * <p>When the guidance of a fuzzing run implements this interface, the
+ * fuzz statement records choices with a {@link TracingSourceOfRandomness},
+ * which calls {@link #onChoice(byte, long, int)} as each choice is made,
+ * and {@link #onGenerationEnd(ChoiceSequence)} once all arguments of a
+ * trial have been generated. Nothing is copied for either callback: the
+ * choices are passed as primitives, and the sequence is a view of a buffer
+ * that is reused for the next trial. If generation fails, e.g. because the
+ * input ran out, {@link #onGenerationEnd(ChoiceSequence)} is not called for
+ * that trial.</p>
+ *
+ * <p>Both callbacks do nothing by default, so that observers can implement
+ * only the one they need.</p>
+ */
+public interface ChoiceObserver extends Guidance {
+
+    /**
+     * Handles a choice as it is made.
+     *
+     * @param typeCode the {@link ChoiceType} code of the choice
+     * @param value the chosen value (see {@link ChoiceSequence#getValue(int)})
+     * @param byteOffset the offset in the input of the first byte read for the choice
+     */
+    default void onChoice(byte typeCode, long value, int byteOffset) {
+
+    }
+
+    /**
+     * Handles the end of generating the arguments of a trial.
+     *
+     * @param choices a view of all choices made for the trial, which is
+     *                only valid until the next input is generated
+     */
+    default void onGenerationEnd(ChoiceSequence choices) {
+
+    }
+}
@@ -0,0 +1,96 @@
+package de.hub.se.jqf.cluster.tracing;
+
+/**
+ * A prefix tree over choice type sequences, as seen by the guidance.
+ *
+ * <p>All statistics are defined over the uncompressed tree, which has one
+ * node per distinct prefix (plus the root), regardless of how an
+ * implementation represents it.</p>
+ *
+ * @see ChoiceSequenceTree
+ * @see RadixChoiceSequenceTree
+ * @see ConcurrentChoiceSequenceTree
+ */
+public interface ChoicePrefixTree {
+
+    /**
+     * Inserts the types of a recorded choice sequence.
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @return an implementation-specific ID of the node at which the sequence ends
+     */
+    int insert(ChoiceSequence choices);
+
+    /** Returns the number of distinct inserted sequences. */
+    int getUniquePaths();
+
+    /** Returns the number of end-of-sequence nodes without children. */
+    int getNumLeafs();
+
+    /** Returns the number of nodes, including the root. */
+    int size();
+
+    /**
+     * Returns the average degree of the nodes that have more than one child.
+     *
+     * @return the average branching degree, or zero if no node branches
+     */
+    double branchDegree();
+
+    /** Returns the number of nodes that have more than one child. */
+    int getNumBranchingNodes();
+
+    /** Returns the maximum depth of any node, i.e. the length of the longest choice sequence. */
+    int getMaxDepth();
+
+    /**
+     * Returns the number of nodes at a given depth.
+     *
+     * @param d the depth
+     * @return the number of nodes at depth {@code d}
+     */
+    int getNumNodesAtDepth(int d);
+
+    /**
+     * Samples the node creation rate since the previous sample.
+     *
+     * @param nowMillis the current time in milliseconds
+     * @return the number of nodes created per second since the previous sample
+     */
+    double sampleNewNodesPerSecond(long nowMillis);
+
+    /**
+     * Returns how many inserted sequences passed through the deepest node
+     * on the path of a choice sequence that exists in the tree.
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @return the visit count, or zero if not even the first choice has a node
+     */
+    int getPathVisits(ChoiceSequence choices);
+
+    /**
+     * Returns the degrees of the nodes along the path of a choice sequence,
+     * as far as the path exists in the tree.
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @param degrees the array to write the number of children of the node
+     *                of the i-th choice into, at least as long as {@code choices}
+     * @return the number of choices for which a node exists
+     */
+    int findPathDegrees(ChoiceSequence choices, int[] degrees);
+
+    /**
+     * Returns this tree in the uncompressed representation, e.g. for saving.
+     *
+     * @return this tree, or an uncompressed copy of it
+     */
+    ChoiceSequenceTree toChoiceSequenceTree();
+
+    /**
+     * Returns a copy of this tree that later insertions do not change,
+     * e.g. for saving it on another thread.
+     *
+     * @return a copy in this tree's representation, or an uncompressed one
+     */
+    ChoicePrefixTree copy();
+}
@@ -1,25 +1,50 @@
 package de.hub.se.jqf.cluster.tracing;
 
-import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Records the random choice methods that generators call, as observed
+ * through instrumentation.
+ *
+ * <p>Each call site is classified only once: the result is cached in a
+ * table indexed by the instruction id (IID) of the call, so that handling
+ * a call event is a single array lookup.</p>
+ */
 public class ChoiceRecorder implements TraceEventVisitor {
+
+    /** The names recorded for each kind of choice method. */
+    private static final String[] CHOICE_NAMES = {"INT", "DOUBLE", "BOOLEAN", "CHAR", "CHOOSE"};
+
+    /** Marks a call site that has not been classified yet. */
+    private static final byte UNCLASSIFIED = 0;
+
+    /** Marks a call site of a method that is not a choice method. */
+    private static final byte NO_CHOICE = 1;
+
+    /** Marks a call site of a generator's {@code generate} method. */
+    private static final byte GENERATE = 2;
+
+    /** Choice method kinds are stored as {@code CHOICE_OFFSET + index into CHOICE_NAMES}. */
+    private static final byte CHOICE_OFFSET = 3;
+
     private ArrayList<String> randomChoices;
-    private ArrayList<Integer> currentChoices;
     private boolean generatorEntered;
     private Pattern choiceMethodPattern;
 
+    /** The kind of method invoked at each call site, indexed by IID. */
+    private byte[] kindByIid = new byte[0];
+
     public ChoiceRecorder() {
         randomChoices = new ArrayList<String>();
-        currentChoices = new ArrayList<Integer>();
 
         // TODO: Should we also match parameter values, e.g., nextInt(int,int)
         choiceMethodPattern = Pattern.compile("Generator#(?<methodName>[a-zA-Z]+)\\("); // attempt to retrieve the method identifier
@@ -31,45 +56,59 @@ public class ChoiceRecorder implements TraceEventVisitor {
 
     @Override
     public void visitCallEvent(CallEvent c) {
+        int iid = c.getIid();
+        if (iid >= kindByIid.length) {
+            kindByIid = Arrays.copyOf(kindByIid, Math.max(iid + 1, kindByIid.length * 2));
+        }
+        byte kind = kindByIid[iid];
+        if (kind == UNCLASSIFIED) {
+            kind = classify(c.getInvokedMethodName());
+            kindByIid[iid] = kind;
+        }
 
         // Ensure we only record choices within the "generate" method of the generator
         if (!generatorEntered) {
-            if (c.getInvokedMethodName().contains("Generator#generate")) {
+            if (kind == GENERATE) {
                 generatorEntered = true;
-            }
-
-            if (!generatorEntered) {
+            } else {
                 return;
             }
         }
 
-        // Now we can attempt to identify the called random choice method
-        // E.g.: CalendarGenerator#nextInt(Lcom/pholser/junit/quickcheck/random/SourceOfRandomness;I)I
-        String m = c.getInvokedMethodName(); // The complete method description
+        if (kind >= CHOICE_OFFSET) {
+            randomChoices.add(CHOICE_NAMES[kind - CHOICE_OFFSET]);
+        }
+    }
+
+    /**
+     * Identifies the called random choice method.
+     *
+     * @param m the complete method description, e.g.
+     *          {@code CalendarGenerator#nextInt(Lcom/pholser/junit/quickcheck/random/SourceOfRandomness;I)I}
+     * @return the kind of the method
+     */
+    private byte classify(String m) {
+        if (m.contains("Generator#generate")) {
+            return GENERATE;
+        }
         Matcher choiceMethodMatcher = choiceMethodPattern.matcher(m);
         if (choiceMethodMatcher.find()) {
-            String invokedMethod = choiceMethodMatcher.group("methodName");
-
-            switch (invokedMethod) {
+            switch (choiceMethodMatcher.group("methodName")) {
                 case "nextInt":
-                    randomChoices.add("INT");
-                    break;
+                    return CHOICE_OFFSET;
                 case "nextDouble":
-                    randomChoices.add("DOUBLE");
-                    break;
+                    return CHOICE_OFFSET + 1;
                 case "nextBoolean":
-                    randomChoices.add("BOOLEAN");
-                    break;
+                    return CHOICE_OFFSET + 2;
                 case "nextChar":
-                    randomChoices.add("CHAR");
-                    break;
+                    return CHOICE_OFFSET + 3;
                 case "choose":
-                    randomChoices.add("CHOOSE");
-                    break;
+                    return CHOICE_OFFSET + 4;
                 default:
                     break;
             }
         }
+        return NO_CHOICE;
     }
 
     public void stopRecording() {
@@ -0,0 +1,96 @@
+package de.hub.se.jqf.cluster.tracing;
+
+/**
+ * A read-only view of the random choices made while generating an input.
+ *
+ * <p>Each choice has a {@link ChoiceType} code and a value: the generated
+ * number for numeric choices, 0 or 1 for booleans, and the chosen index
+ * for {@link ChoiceType#CHOOSE}.</p>
+ *
+ * <p>Choices may also record where they were read from the input, i.e.
+ * the range of bytes consumed from the {@code StreamBackedRandom}, so that
+ * mutations can be aligned to choice boundaries.</p>
+ *
+ * <p>Fingerprints are maintained incrementally as choices are made, so
+ * that sequences can be deduplicated without building keys per trial.</p>
+ *
+ * <p>Views handed out during fuzzing are backed by buffers that are reused
+ * across trials, so they are only valid until the next input is generated.</p>
+ */
+public interface ChoiceSequence {
+
+    /**
+     * Returns the number of choices.
+     *
+     * @return the number of choices
+     */
+    int size();
+
+    /**
+     * Returns the type of a choice.
+     *
+     * @param i the index of the choice
+     * @return the {@link ChoiceType} code of the choice
+     */
+    byte getType(int i);
+
+    /**
+     * Returns the value of a choice.
+     *
+     * @param i the index of the choice
+     * @return the value of the choice
+     */
+    long getValue(int i);
+
+    /**
+     * Returns the offset of the first input byte read for a choice.
+     *
+     * @param i the index of the choice
+     * @return the byte offset, or -1 if unknown
+     */
+    int getOffset(int i);
+
+    /**
+     * Returns the number of input bytes read for a choice.
+     *
+     * @param i the index of the choice
+     * @return the number of bytes read
+     */
+    int getLength(int i);
+
+    /**
+     * Returns the exclusive upper bound of the value of a choice.
+     *
+     * <p>The bound is known for {@link ChoiceType#CHOOSE} (the number of
+     * items), {@link ChoiceType#BOOL} (2) and bounded int choices.</p>
+     *
+     * @param i the index of the choice
+     * @return the bound, or 0 if unknown
+     */
+    int getBound(int i);
+
+    /**
+     * Returns a 64-bit fingerprint of the sequence of choice types.
+     *
+     * <p>Two sequences with the same types in the same order have the
+     * same type fingerprint, regardless of the values chosen.</p>
+     *
+     * @return the type fingerprint
+     */
+    long getTypeFingerprint();
+
+    /**
+     * Returns a 64-bit fingerprint of the sequence of (type, value) pairs.
+     *
+     * @return the value fingerprint
+     */
+    long getValueFingerprint();
+
+    /**
+     * Returns a copy of this sequence that stays valid after the next input
+     * is generated.
+     *
+     * @return an immutable copy of the choices
+     */
+    ChoiceSequence copy();
+}
@@ -0,0 +1,198 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.LongIntHashMap;
+import edu.berkeley.cs.jqf.fuzz.util.MinHash;
+
+/**
+ * Clusters choice sequences online by the similarity of their choices.
+ *
+ * <p>Each choice is reduced to its type and the {@link ChoiceValueSketches#bucket(long)
+ * bucket} of its value, and a sequence is represented by the set of its
+ * shingles, i.e. of its runs of {@link #SHINGLE_SIZE} consecutive reduced
+ * choices. The {@link MinHash} signature of that set is split into
+ * {@link #NUM_BANDS} bands, and a sequence joins the first cluster that it
+ * shares a whole band with (locality-sensitive hashing). Sequences whose
+ * shingles have a Jaccard similarity of s thus share a band with a
+ * probability of 1 - (1 - s<sup>r</sup>)<sup>b</sup>, for b bands of r rows.</p>
+ *
+ * <p>The band keys of a cluster are those of the sequence that created it,
+ * which is the cluster's representative; clusters are never merged or
+ * split. Once {@code maxClusters} clusters exist, sequences that match
+ * none of them are only counted as unclustered. Memory is therefore bounded
+ * by the number of clusters, and adding a sequence costs one hash per
+ * choice plus {@link #NUM_BANDS} table lookups, however many sequences
+ * were added before.</p>
+ */
+public class ChoiceSequenceClusterer {
+
+    /** The number of bins of each signature. */
+    public static final int SIGNATURE_SIZE = 32;
+
+    /** The number of bands that signatures are split into. */
+    public static final int NUM_BANDS = 8;
+
+    /** The number of bins per band. */
+    public static final int ROWS_PER_BAND = SIGNATURE_SIZE / NUM_BANDS;
+
+    /** The number of consecutive choices per shingle. */
+    public static final int SHINGLE_SIZE = 3;
+
+    /** The cluster ID returned for sequences that could not be clustered. */
+    public static final int UNCLUSTERED = -1;
+
+    /** The seed of the MinHash function. */
+    protected static final long SEED = 0x6a09e667f3bcc909L;
+
+    protected final MinHash minHash = new MinHash(SIGNATURE_SIZE, SEED);
+
+    /** The signature of the sequence being added, reused between sequences. */
+    protected final long[] signature = minHash.newSignature();
+
+    /** The reduced choices of the current shingle, as a ring buffer. */
+    protected final long[] shingle = new long[SHINGLE_SIZE];
+
+    /** The cluster ID of each band key, for the band keys of each cluster's representative. */
+    protected final LongIntHashMap clusterOfBand = new LongIntHashMap(1024);
+
+    /** The maximum number of clusters. */
+    protected final int maxClusters;
+
+    /** The number of sequences in each cluster. */
+    protected int[] clusterSizes = new int[64];
+
+    protected int numClusters;
+
+    protected int largestClusterSize;
+
+    /** The number of sequences added. */
+    protected long numSequences;
+
+    /** The number of sequences that matched no cluster after the maximum number of clusters was reached. */
+    protected long numUnclustered;
+
+    /** Whether the last call to {@link #add(ChoiceSequence)} created a new cluster. */
+    protected boolean newCluster;
+
+    /**
+     * Creates a clusterer.
+     *
+     * @param maxClusters the maximum number of clusters to create
+     */
+    public ChoiceSequenceClusterer(int maxClusters) {
+        if (maxClusters <= 0) {
+            throw new IllegalArgumentException("Maximum number of clusters must be positive: " + maxClusters);
+        }
+        this.maxClusters = maxClusters;
+    }
+
+    /**
+     * Adds a sequence to the cluster that it is most likely similar to,
+     * creating a new cluster if there is none.
+     *
+     * @param choices the choices to cluster
+     * @return the ID of the sequence's cluster, or {@link #UNCLUSTERED}
+     * @see #wasNewCluster()
+     */
+    public int add(ChoiceSequence choices) {
+        computeSignature(choices);
+        numSequences++;
+        newCluster = false;
+
+        for (int band = 0; band < NUM_BANDS; band++) {
+            int cluster = clusterOfBand.get(bandKey(band), UNCLUSTERED);
+            if (cluster != UNCLUSTERED) {
+                if (++clusterSizes[cluster] > largestClusterSize) {
+                    largestClusterSize = clusterSizes[cluster];
+                }
+                return cluster;
+            }
+        }
+
+        if (numClusters == maxClusters) {
+            numUnclustered++;
+            return UNCLUSTERED;
+        }
+        int cluster = numClusters++;
+        if (cluster == clusterSizes.length) {
+            int[] newSizes = new int[Math.min(2 * clusterSizes.length, maxClusters)];
+            System.arraycopy(clusterSizes, 0, newSizes, 0, cluster);
+            clusterSizes = newSizes;
+        }
+        clusterSizes[cluster] = 1;
+        largestClusterSize = Math.max(largestClusterSize, 1);
+        for (int band = 0; band < NUM_BANDS; band++) {
+            clusterOfBand.putIfAbsent(bandKey(band), cluster, UNCLUSTERED);
+        }
+        newCluster = true;
+        return cluster;
+    }
+
+    /** Computes the densified signature of the shingles of some choices into {@link #signature}. */
+    protected void computeSignature(ChoiceSequence choices) {
+        minHash.clear(signature);
+        int size = choices.size();
+        for (int i = 0; i < size; i++) {
+            long element = Hashing.mix64(choices.getType(i) * ChoiceValueSketches.NUM_BUCKETS
+                    + ChoiceValueSketches.bucket(choices.getValue(i)));
+            shingle[i % SHINGLE_SIZE] = element;
+            // Sequences shorter than a shingle are a single shorter shingle
+            if (i + 1 >= SHINGLE_SIZE || i + 1 == size) {
+                int start = Math.max(0, i + 1 - SHINGLE_SIZE);
+                long h = 0;
+                for (int j = start; j <= i; j++) {
+                    h = Hashing.mix64(h + shingle[j % SHINGLE_SIZE]);
+                }
+                minHash.add(signature, h);
+            }
+        }
+        minHash.densify(signature);
+    }
+
+    /** Returns the key of a band of {@link #signature}, which also depends on the band's index. */
+    protected long bandKey(int band) {
+        long h = band;
+        for (int row = band * ROWS_PER_BAND; row < (band + 1) * ROWS_PER_BAND; row++) {
+            h = Hashing.mix64(h + signature[row]);
+        }
+        return h;
+    }
+
+    /** Returns whether the last call to {@link #add(ChoiceSequence)} created a new cluster. */
+    public boolean wasNewCluster() {
+        return newCluster;
+    }
+
+    /** Returns the number of clusters. */
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    /**
+     * Returns the number of sequences in a cluster.
+     *
+     * @param cluster a cluster ID
+     * @return the number of sequences added to it, including its representative
+     */
+    public int getClusterSize(int cluster) {
+        if (cluster < 0 || cluster >= numClusters) {
+            throw new IndexOutOfBoundsException("No such cluster: " + cluster);
+        }
+        return clusterSizes[cluster];
+    }
+
+    /** Returns the number of sequences in the largest cluster. */
+    public int getLargestClusterSize() {
+        return largestClusterSize;
+    }
+
+    /** Returns the number of sequences added. */
+    public long getNumSequences() {
+        return numSequences;
+    }
+
+    /** Returns the number of sequences that matched no cluster once no more clusters could be created. */
+    public long getNumUnclustered() {
+        return numUnclustered;
+    }
+}
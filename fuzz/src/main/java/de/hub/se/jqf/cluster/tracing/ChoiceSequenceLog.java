@@ -0,0 +1,467 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.LongIntHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only binary log of the choice sequences of all executions.
+ *
+ * <p>Each record holds the result of an execution, its coverage delta and
+ * its choices. Type sequences are interned: a record only refers to the ID
+ * of its type sequence, whose types are written once, the first time it is
+ * seen. Records are collected into blocks of about {@link #BLOCK_SIZE}
+ * bytes before being written, and the log ends with an index of the record
+ * blocks, so that readers can seek to a record (see
+ * {@link ChoiceSequenceLogReader}). The layout is:</p>
+ * <pre>
+ *     int     MAGIC
+ *     blocks, each of which is:
+ *         byte    kind ({@link #TYPE_BLOCK}, {@link #RECORD_BLOCK} or {@link #INDEX_BLOCK})
+ *         int     payload length
+ *         int     number of type sequences, records, or record blocks
+ *         payload
+ *     long    offset of the index block
+ *     int     INDEX_MAGIC
+ * </pre>
+ *
+ * <p>A type block defines the next type sequence IDs, each as a varint
+ * length followed by one {@link ChoiceType} code per choice. The index
+ * block holds the file offset and first record number of each record
+ * block, as varlong deltas. A record is:</p>
+ * <pre>
+ *     varint  type sequence ID
+ *     byte    result ordinal | (layout bit &lt;&lt; 2) | (raw bit &lt;&lt; 3)
+ *     varint  zig-zag coverage delta
+ *     if the layout bit is set, for each choice:
+ *         varint  zig-zag gap between the end of the previous choice and this one
+ *         varint  number of input bytes read for this choice
+ *     if the raw bit is set:
+ *         one bit per choice telling whether its input bytes are stored
+ *     for each choice:
+ *         varlong zig-zag delta of the value
+ *         the input bytes read for it, if stored
+ *         the input bytes skipped before it (i.e. a positive gap)
+ * </pre>
+ *
+ * <p>Values and layouts are encoded relative to the previous record with
+ * the same type sequence in the same block, so that blocks can be decoded
+ * independently. The layout (where in the input each choice was read) is
+ * only written when it changes. The input bytes of a choice are only stored
+ * when they cannot be derived from its value, i.e. when they differ from
+ * the little-endian encoding of the value, e.g. for choices in
+ * a range that does not start at zero. Hence, the input bytes that the
+ * generator read can be reconstructed from every record, which
+ * {@link ChoiceSequenceReplay} uses to create inputs for {@code ReproDriver}.</p>
+ */
+public class ChoiceSequenceLog implements Closeable {
+
+    /** The magic number at the start of choice sequence logs ("CSL1"). */
+    public static final int MAGIC = 0x43534C31;
+
+    /** The magic number at the end of logs that were closed properly ("CSLI"). */
+    public static final int INDEX_MAGIC = 0x43534C49;
+
+    public static final byte TYPE_BLOCK = 'T';
+
+    public static final byte RECORD_BLOCK = 'R';
+
+    public static final byte INDEX_BLOCK = 'I';
+
+    /** The size of the header of each block. */
+    public static final int BLOCK_HEADER_SIZE = 1 + 2 * Integer.BYTES;
+
+    /** The payload size after which a block of records is written. */
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    protected static final int LAYOUT_BIT = 1 << 2;
+
+    protected static final int RAW_BIT = 1 << 3;
+
+    /** The encoding state of a type sequence, relative to which its next record is written. */
+    private static final class TypeSequenceState {
+        /** The block in which the state was last updated, so that it can be reset lazily. */
+        long block = -1;
+        final byte[] types;
+        final int[] gaps;
+        final int[] lengths;
+        final long[] values;
+
+        TypeSequenceState(ChoiceSequence choices) {
+            int size = choices.size();
+            this.types = new byte[size];
+            for (int i = 0; i < size; i++) {
+                types[i] = choices.getType(i);
+            }
+            this.gaps = new int[size];
+            this.lengths = new int[size];
+            this.values = new long[size];
+        }
+
+        /** Returns whether some choices have exactly the types of this type sequence. */
+        boolean hasTypesOf(ChoiceSequence choices) {
+            if (choices.size() != types.length) {
+                return false;
+            }
+            for (int i = 0; i < types.length; i++) {
+                if (choices.getType(i) != types[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    protected final FileChannel channel;
+
+    /**
+     * The IDs of type sequences, keyed by type fingerprint, or by a rehash
+     * of it for sequences whose fingerprint collides with another one's.
+     */
+    protected final LongIntHashMap typeSequenceIds = new LongIntHashMap(1024);
+
+    /** The encoding state of each type sequence, indexed by ID. */
+    private final List<TypeSequenceState> typeSequenceStates = new ArrayList<>();
+
+    /** The type sequences that have not been written yet. */
+    private ByteBuffer pendingTypes = ByteBuffer.allocate(1024);
+
+    private int numPendingTypes;
+
+    /** The records of the current block. */
+    private ByteBuffer records = ByteBuffer.allocate(2 * BLOCK_SIZE);
+
+    private int numBlockRecords;
+
+    private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+
+    /** The number of record blocks written so far, which identifies the current block. */
+    private long numRecordBlocks;
+
+    /** The file offsets of all record blocks written so far. */
+    private long[] blockOffsets = new long[64];
+
+    /** The number of the first record of each record block written so far. */
+    private long[] blockFirstRecords = new long[64];
+
+    private long numRecords;
+
+    /** The number of bytes written to the file so far. */
+    private long position;
+
+    private boolean closed;
+
+    /**
+     * Creates an empty log, replacing any existing file.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file could not be created
+     */
+    public ChoiceSequenceLog(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        magic.putInt(MAGIC);
+        magic.flip();
+        write(magic);
+    }
+
+    /**
+     * Appends the record of an execution.
+     *
+     * @param choices the choices made while generating the input
+     * @param result the result of the execution
+     * @param coverageDelta the number of branches that the execution newly covered
+     * @param input the bytes of the input, or {@code null} if unknown,
+     *              in which case the bytes of each choice are assumed to
+     *              be derivable from its value, and skipped bytes are
+     *              written as zeros
+     * @param inputLength the number of bytes of {@code input} that belong
+     *                    to the input
+     * @return the number of the record
+     * @throws IOException if a block could not be written
+     */
+    public long append(ChoiceSequence choices, Result result, int coverageDelta, byte[] input, int inputLength) throws IOException {
+        if (closed) {
+            throw new IOException("Choice sequence log is closed");
+        }
+        int size = choices.size();
+        int id = internTypeSequence(choices);
+
+        // Make room first, since starting a new block resets the encoding state
+        long maxSize = 3L * VarInts.MAX_VARINT_SIZE + (size + 7) / 8;
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            int offset = choices.getOffset(i);
+            int length = choices.getLength(i);
+            if (offset < 0 || length < 0) {
+                // Choices of unknown position take up no space in the layout
+                offset = end;
+                length = 0;
+            }
+            maxSize += VarInts.MAX_VARLONG_SIZE + 2 * VarInts.MAX_VARINT_SIZE + length + Math.max(offset - end, 0);
+            end = offset + length;
+        }
+        ensureRecordSpace(maxSize);
+
+        TypeSequenceState state = typeSequenceStates.get(id);
+        if (state.block != numRecordBlocks) {
+            // The first record of a type sequence in a block is encoded from scratch
+            state.block = numRecordBlocks;
+            Arrays.fill(state.gaps, 0);
+            Arrays.fill(state.lengths, -1);
+            Arrays.fill(state.values, 0);
+        }
+
+        boolean layoutChanged = false;
+        boolean anyRaw = false;
+        end = 0;
+        for (int i = 0; i < size; i++) {
+            int offset = choices.getOffset(i);
+            int length = choices.getLength(i);
+            if (offset < 0 || length < 0) {
+                offset = end;
+                length = 0;
+            }
+            if (offset - end != state.gaps[i] || length != state.lengths[i]) {
+                layoutChanged = true;
+            }
+            anyRaw |= isRaw(choices.getValue(i), input, inputLength, offset, length);
+            end = offset + length;
+        }
+
+        ByteBuffer buf = records;
+        VarInts.putVarInt(buf, id);
+        buf.put((byte) (result.ordinal() | (layoutChanged ? LAYOUT_BIT : 0) | (anyRaw ? RAW_BIT : 0)));
+        VarInts.putVarInt(buf, (int) VarInts.zigZag(coverageDelta));
+
+        if (layoutChanged) {
+            end = 0;
+            for (int i = 0; i < size; i++) {
+                int offset = choices.getOffset(i);
+                int length = choices.getLength(i);
+                if (offset < 0 || length < 0) {
+                    offset = end;
+                    length = 0;
+                }
+                state.gaps[i] = offset - end;
+                state.lengths[i] = length;
+                VarInts.putVarInt(buf, (int) VarInts.zigZag(state.gaps[i]));
+                VarInts.putVarInt(buf, length);
+                end = offset + length;
+            }
+        }
+
+        int rawFlags = buf.position();
+        if (anyRaw) {
+            for (int i = 0; i < (size + 7) / 8; i++) {
+                buf.put((byte) 0);
+            }
+        }
+
+        end = 0;
+        for (int i = 0; i < size; i++) {
+            long value = choices.getValue(i);
+            VarInts.putVarLong(buf, VarInts.zigZag(value - state.values[i]));
+            state.values[i] = value;
+
+            int offset = end + state.gaps[i];
+            int length = state.lengths[i];
+            if (anyRaw && isRaw(value, input, inputLength, offset, length)) {
+                buf.put(rawFlags + i / 8, (byte) (buf.get(rawFlags + i / 8) | (1 << (i % 8))));
+                putInputBytes(buf, input, inputLength, offset, length);
+            }
+            if (offset > end) {
+                putInputBytes(buf, input, inputLength, end, offset - end);
+            }
+            end = offset + length;
+        }
+
+        numBlockRecords++;
+        long record = numRecords++;
+        if (records.position() >= BLOCK_SIZE) {
+            flush();
+        }
+        return record;
+    }
+
+    /** Returns the ID of the type sequence of some choices, queuing its definition if it is new. */
+    private int internTypeSequence(ChoiceSequence choices) {
+        int nextId = typeSequenceIds.size();
+        long key = choices.getTypeFingerprint();
+        int id;
+        while ((id = typeSequenceIds.putIfAbsent(key, nextId, -1)) >= 0) {
+            if (typeSequenceStates.get(id).hasTypesOf(choices)) {
+                return id;
+            }
+            // A different sequence with the same key, so probe another key
+            key = Hashing.mix64(key + 1);
+        }
+        int size = choices.size();
+        pendingTypes = ensureCapacity(pendingTypes, VarInts.MAX_VARINT_SIZE + size);
+        VarInts.putVarInt(pendingTypes, size);
+        for (int i = 0; i < size; i++) {
+            pendingTypes.put(choices.getType(i));
+        }
+        numPendingTypes++;
+        typeSequenceStates.add(new TypeSequenceState(choices));
+        return nextId;
+    }
+
+    /** Returns whether the input bytes of a choice differ from the little-endian encoding of its value. */
+    private static boolean isRaw(long value, byte[] input, int inputLength, int offset, int length) {
+        if (length == 0) {
+            return false;
+        }
+        if (input == null || offset + length > inputLength) {
+            return false; // Unknown bytes are assumed to be derivable
+        }
+        for (int j = 0; j < length; j++) {
+            if ((input[offset + j] & 0xFF) != canonicalByte(value, j)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the j-th byte of the little-endian encoding of a value, from
+     * which a choice with that value is read back.
+     *
+     * @param value the value of a choice
+     * @param j the index of the byte
+     * @return the byte (0-255)
+     */
+    public static int canonicalByte(long value, int j) {
+        if (j >= Long.BYTES) {
+            return value < 0 ? 0xFF : 0;
+        }
+        return (int) (value >>> (8 * j)) & 0xFF;
+    }
+
+    private static void putInputBytes(ByteBuffer buf, byte[] input, int inputLength, int offset, int length) {
+        for (int j = offset; j < offset + length; j++) {
+            buf.put(input != null && j < inputLength ? input[j] : 0);
+        }
+    }
+
+    /** Makes room for a record of up to a given size in the current block. */
+    private void ensureRecordSpace(long maxSize) throws IOException {
+        if (maxSize > Integer.MAX_VALUE / 2) {
+            throw new IOException("Choice sequence too long to log: " + maxSize + " bytes");
+        }
+        if (records.remaining() < maxSize && numBlockRecords > 0) {
+            flush();
+        }
+        records = ensureCapacity(records, (int) maxSize);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buf, int extra) {
+        if (buf.remaining() >= extra) {
+            return buf;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + extra));
+        buf.flip();
+        grown.put(buf);
+        return grown;
+    }
+
+    /**
+     * Writes the records collected so far as a block, preceded by the
+     * definitions of any new type sequences.
+     *
+     * @throws IOException if the block could not be written
+     */
+    public void flush() throws IOException {
+        if (numPendingTypes > 0) {
+            writeBlock(TYPE_BLOCK, numPendingTypes, pendingTypes);
+            numPendingTypes = 0;
+        }
+        if (numBlockRecords > 0) {
+            if (numRecordBlocks == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+                blockFirstRecords = Arrays.copyOf(blockFirstRecords, blockFirstRecords.length * 2);
+            }
+            blockOffsets[(int) numRecordBlocks] = position;
+            blockFirstRecords[(int) numRecordBlocks] = numRecords - numBlockRecords;
+            numRecordBlocks++;
+            writeBlock(RECORD_BLOCK, numBlockRecords, records);
+            numBlockRecords = 0;
+        }
+    }
+
+    /** Writes a block and clears its payload buffer. */
+    private void writeBlock(byte kind, int count, ByteBuffer payload) throws IOException {
+        payload.flip();
+        header.clear();
+        header.put(kind).putInt(payload.remaining()).putInt(count);
+        header.flip();
+        write(header);
+        write(payload);
+        payload.clear();
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf);
+        }
+    }
+
+    /**
+     * Writes all pending records and the index, and closes the file.
+     *
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            ByteBuffer index = ByteBuffer.allocate((int) numRecordBlocks * 2 * VarInts.MAX_VARLONG_SIZE + 1);
+            long lastOffset = 0;
+            long lastFirstRecord = 0;
+            for (int b = 0; b < numRecordBlocks; b++) {
+                VarInts.putVarLong(index, blockOffsets[b] - lastOffset);
+                VarInts.putVarLong(index, blockFirstRecords[b] - lastFirstRecord);
+                lastOffset = blockOffsets[b];
+                lastFirstRecord = blockFirstRecords[b];
+            }
+            long indexOffset = position;
+            writeBlock(INDEX_BLOCK, (int) numRecordBlocks, index);
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            trailer.putLong(indexOffset).putInt(INDEX_MAGIC);
+            trailer.flip();
+            write(trailer);
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /** Returns the number of records appended so far. */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /** Returns the number of distinct type sequences appended so far. */
+    public int getNumTypeSequences() {
+        return typeSequenceIds.size();
+    }
+
+    /** Returns the number of bytes written to the file so far (excluding the current block). */
+    public long getBytesWritten() {
+        return position;
+    }
+}
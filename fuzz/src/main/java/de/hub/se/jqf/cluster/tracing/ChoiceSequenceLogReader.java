@@ -0,0 +1,411 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams the records of a {@link ChoiceSequenceLog}.
+ *
+ * <p>The reader loads one block at a time, so it needs no more memory than
+ * a block and the type sequences, regardless of the size of the log. Logs
+ * that were not closed (e.g. because the fuzzer was killed) can be read up
+ * to their last complete block, but without an index they cannot be
+ * {@linkplain #seek(long) seeked}.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ *     try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(file)) {
+ *         while (reader.next()) {
+ *             ChoiceSequence choices = reader.getChoices();
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ */
+public class ChoiceSequenceLogReader implements Closeable {
+
+    private static final Result[] RESULTS = Result.values();
+
+    protected final FileChannel channel;
+
+    protected final long fileSize;
+
+    /** The types of each type sequence defined so far, indexed by ID. */
+    protected final List<byte[]> typeSequences = new ArrayList<>();
+
+    /** The file offset of each record block, or null if the log has no index. */
+    protected long[] blockOffsets;
+
+    /** The number of the first record of each record block, or null if the log has no index. */
+    protected long[] blockFirstRecords;
+
+    /** The number of records in the log, or -1 if the log has no index. */
+    protected long numRecords = -1;
+
+    /** The offset of the next block to read. */
+    private long nextBlockOffset = Integer.BYTES;
+
+    /** The offset up to which type blocks have been loaded. */
+    private long typesLoadedUntil = Integer.BYTES;
+
+    private final ByteBuffer header = ByteBuffer.allocate(ChoiceSequenceLog.BLOCK_HEADER_SIZE);
+
+    /** The payload of the current record block. */
+    private ByteBuffer block = ByteBuffer.allocate(2 * ChoiceSequenceLog.BLOCK_SIZE);
+
+    private int remainingBlockRecords;
+
+    /** The number of record blocks loaded so far, which tells stale encoding states apart. */
+    private long blockNumber = -1;
+
+    /** The encoding state of each type sequence: gaps, lengths, values and the block they belong to. */
+    private final List<int[]> gaps = new ArrayList<>();
+    private final List<int[]> lengths = new ArrayList<>();
+    private final List<long[]> values = new ArrayList<>();
+    private long[] stateBlocks = new long[64];
+
+    private long recordNumber = -1;
+
+    private int typeSequenceId;
+
+    private Result result;
+
+    private int coverageDelta;
+
+    private final ChoiceBuffer choices = new ChoiceBuffer();
+
+    private byte[] input = new byte[256];
+
+    private int inputLength;
+
+    /**
+     * Opens a log for reading.
+     *
+     * @param file the log file
+     * @throws IOException if the file could not be opened or is not a log
+     */
+    public ChoiceSequenceLogReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(magic, 0) || magic.getInt(0) != ChoiceSequenceLog.MAGIC) {
+            channel.close();
+            throw new IOException("Not a choice sequence log: " + file);
+        }
+        readIndex();
+    }
+
+    /** Loads the index of record blocks, if the log was closed properly. */
+    private void readIndex() throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        if (fileSize < Integer.BYTES + trailer.capacity() || !readFully(trailer, fileSize - trailer.capacity())
+                || trailer.getInt(Long.BYTES) != ChoiceSequenceLog.INDEX_MAGIC) {
+            return;
+        }
+        long indexOffset = trailer.getLong(0);
+        if (!readHeader(indexOffset) || header.get(0) != ChoiceSequenceLog.INDEX_BLOCK) {
+            throw new IOException("Malformed choice sequence log index");
+        }
+        ByteBuffer index = ByteBuffer.allocate(header.getInt(1));
+        if (!readFully(index, indexOffset + ChoiceSequenceLog.BLOCK_HEADER_SIZE)) {
+            throw new IOException("Truncated choice sequence log index");
+        }
+        index.flip();
+        int numBlocks = header.getInt(1 + Integer.BYTES);
+        blockOffsets = new long[numBlocks];
+        blockFirstRecords = new long[numBlocks];
+        long offset = 0;
+        long firstRecord = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            offset += VarInts.getVarLong(index);
+            firstRecord += VarInts.getVarLong(index);
+            blockOffsets[b] = offset;
+            blockFirstRecords[b] = firstRecord;
+        }
+        numRecords = 0;
+        if (numBlocks > 0 && readHeader(blockOffsets[numBlocks - 1])) {
+            numRecords = blockFirstRecords[numBlocks - 1] + header.getInt(1 + Integer.BYTES);
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return whether there is a next record; this is false at the end of
+     *         the log and at a truncated block
+     * @throws IOException if the log could not be read or is malformed
+     */
+    public boolean next() throws IOException {
+        while (remainingBlockRecords == 0) {
+            if (!nextRecordBlock()) {
+                return false;
+            }
+        }
+        try {
+            decodeRecord();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed record " + (recordNumber + 1), e);
+        }
+        remainingBlockRecords--;
+        recordNumber++;
+        return true;
+    }
+
+    /**
+     * Positions the reader such that the next call to {@link #next()}
+     * returns a given record.
+     *
+     * @param record the number of the record
+     * @throws IOException if the log has no index or could not be read
+     */
+    public void seek(long record) throws IOException {
+        if (blockOffsets == null) {
+            throw new IOException("Choice sequence log has no index (was it closed?)");
+        }
+        int b = Arrays.binarySearch(blockFirstRecords, record);
+        if (b < 0) {
+            b = -b - 2;
+        }
+        if (b < 0 || record >= getNumRecords()) {
+            throw new IOException("No such record: " + record);
+        }
+        // Decode the records before the wanted one in its block, since values are delta-encoded
+        nextBlockOffset = blockOffsets[b];
+        remainingBlockRecords = 0;
+        if (!nextRecordBlock()) {
+            throw new IOException("Truncated choice sequence log");
+        }
+        recordNumber = blockFirstRecords[b] - 1;
+        while (recordNumber < record - 1) {
+            next();
+        }
+    }
+
+    /** Reads blocks until the next record block, loading type blocks on the way. */
+    private boolean nextRecordBlock() throws IOException {
+        // Type sequences may have been defined before a block that was seeked to
+        loadTypesUntil(nextBlockOffset);
+        while (readHeader(nextBlockOffset)) {
+            byte kind = header.get(0);
+            int length = header.getInt(1);
+            int count = header.getInt(1 + Integer.BYTES);
+            long payloadOffset = nextBlockOffset + ChoiceSequenceLog.BLOCK_HEADER_SIZE;
+            if (kind == ChoiceSequenceLog.INDEX_BLOCK || payloadOffset + length > fileSize) {
+                return false;
+            }
+            nextBlockOffset = payloadOffset + length;
+            if (kind == ChoiceSequenceLog.TYPE_BLOCK) {
+                if (payloadOffset >= typesLoadedUntil) {
+                    readTypeBlock(payloadOffset, length, count);
+                    typesLoadedUntil = nextBlockOffset;
+                }
+            } else if (kind == ChoiceSequenceLog.RECORD_BLOCK) {
+                if (block.capacity() < length) {
+                    block = ByteBuffer.allocate(length);
+                }
+                block.clear().limit(length);
+                if (!readFully(block, payloadOffset)) {
+                    return false;
+                }
+                block.flip();
+                remainingBlockRecords = count;
+                blockNumber++;
+                return true;
+            } else {
+                throw new IOException("Unknown block kind: " + kind);
+            }
+        }
+        return false;
+    }
+
+    /** Loads all type blocks before a given offset that have not been loaded yet. */
+    private void loadTypesUntil(long offset) throws IOException {
+        long position = typesLoadedUntil;
+        while (position < offset && readHeader(position)) {
+            int length = header.getInt(1);
+            long payloadOffset = position + ChoiceSequenceLog.BLOCK_HEADER_SIZE;
+            if (header.get(0) == ChoiceSequenceLog.TYPE_BLOCK) {
+                readTypeBlock(payloadOffset, length, header.getInt(1 + Integer.BYTES));
+            }
+            position = payloadOffset + length;
+        }
+        typesLoadedUntil = Math.max(typesLoadedUntil, position);
+    }
+
+    private void readTypeBlock(long payloadOffset, int length, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        if (!readFully(buf, payloadOffset)) {
+            throw new IOException("Truncated type block at " + payloadOffset);
+        }
+        buf.flip();
+        for (int n = 0; n < count; n++) {
+            byte[] types = new byte[VarInts.getVarInt(buf)];
+            buf.get(types);
+            typeSequences.add(types);
+            gaps.add(new int[types.length]);
+            lengths.add(new int[types.length]);
+            values.add(new long[types.length]);
+        }
+        if (stateBlocks.length < typeSequences.size()) {
+            int oldLength = stateBlocks.length;
+            stateBlocks = Arrays.copyOf(stateBlocks, Math.max(typeSequences.size(), 2 * oldLength));
+            Arrays.fill(stateBlocks, oldLength, stateBlocks.length, -1);
+        }
+    }
+
+    private void decodeRecord() {
+        ByteBuffer buf = block;
+        int id = VarInts.getVarInt(buf);
+        int tag = buf.get() & 0xFF;
+        typeSequenceId = id;
+        result = RESULTS[tag & 0x3];
+        coverageDelta = (int) VarInts.unZigZag(VarInts.getVarInt(buf) & 0xFFFFFFFFL);
+
+        byte[] types = typeSequences.get(id);
+        int[] gaps = this.gaps.get(id);
+        int[] lengths = this.lengths.get(id);
+        long[] values = this.values.get(id);
+        int size = types.length;
+        if (stateBlocks[id] != blockNumber) {
+            stateBlocks[id] = blockNumber;
+            Arrays.fill(gaps, 0);
+            Arrays.fill(lengths, -1);
+            Arrays.fill(values, 0);
+        }
+
+        if ((tag & ChoiceSequenceLog.LAYOUT_BIT) != 0) {
+            for (int i = 0; i < size; i++) {
+                gaps[i] = (int) VarInts.unZigZag(VarInts.getVarInt(buf) & 0xFFFFFFFFL);
+                lengths[i] = VarInts.getVarInt(buf);
+            }
+        }
+
+        int rawFlags = -1;
+        if ((tag & ChoiceSequenceLog.RAW_BIT) != 0) {
+            rawFlags = buf.position();
+            buf.position(rawFlags + (size + 7) / 8);
+        }
+
+        choices.clear();
+        inputLength = 0;
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            long value = values[i] + VarInts.unZigZag(VarInts.getVarLong(buf));
+            values[i] = value;
+            int offset = end + gaps[i];
+            int length = lengths[i];
+            ensureInput(Math.max(end, offset + length));
+            if (rawFlags >= 0 && (buf.get(rawFlags + i / 8) & (1 << (i % 8))) != 0) {
+                buf.get(input, offset, length);
+            } else {
+                for (int j = 0; j < length; j++) {
+                    input[offset + j] = (byte) ChoiceSequenceLog.canonicalByte(value, j);
+                }
+            }
+            if (offset > end) {
+                buf.get(input, end, offset - end);
+            }
+            choices.add(types[i], value, offset, length, 0);
+            end = offset + length;
+            inputLength = Math.max(inputLength, end);
+        }
+    }
+
+    private void ensureInput(int length) {
+        if (input.length < length) {
+            input = Arrays.copyOf(input, Math.max(length, 2 * input.length));
+        }
+    }
+
+    /** Reads the header of the block at an offset, returning false if it is beyond the end. */
+    private boolean readHeader(long offset) throws IOException {
+        header.clear();
+        return offset + header.capacity() <= fileSize && readFully(header, offset);
+    }
+
+    /** Reads until a buffer is full, returning false at the end of the file. */
+    private boolean readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, offset);
+            if (n < 0) {
+                return false;
+            }
+            offset += n;
+        }
+        return true;
+    }
+
+    /** Returns the number of the current record. */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    /** Returns the number of records in the log, or -1 if the log has no index. */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /** Returns the ID of the type sequence of the current record. */
+    public int getTypeSequenceId() {
+        return typeSequenceId;
+    }
+
+    /**
+     * Returns the types of a type sequence that has been read so far.
+     *
+     * @param id the type sequence ID
+     * @return the {@link ChoiceType} codes of the sequence (not to be modified)
+     */
+    public byte[] getTypeSequence(int id) {
+        return typeSequences.get(id);
+    }
+
+    /** Returns the result of the execution of the current record. */
+    public Result getResult() {
+        return result;
+    }
+
+    /** Returns the number of branches that the execution of the current record newly covered. */
+    public int getCoverageDelta() {
+        return coverageDelta;
+    }
+
+    /**
+     * Returns the choices of the current record.
+     *
+     * <p>The offsets and lengths refer to {@link #getInput()}. Bounds are
+     * not logged and are always zero.</p>
+     *
+     * @return the choices, which are only valid until the next record is read
+     */
+    public ChoiceSequence getChoices() {
+        return choices;
+    }
+
+    /**
+     * Returns the input bytes from which the choices of the current record
+     * were generated.
+     *
+     * <p>This covers the bytes up to the end of the last choice; bytes that
+     * the generator read afterwards without making a choice are not logged.</p>
+     *
+     * @return a new array holding the input bytes
+     */
+    public byte[] getInput() {
+        return Arrays.copyOf(input, inputLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
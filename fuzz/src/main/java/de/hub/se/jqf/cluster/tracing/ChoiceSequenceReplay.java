@@ -0,0 +1,43 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Converts records of a {@link ChoiceSequenceLog} back into input files.
+ *
+ * <p>Usage: {@code ChoiceSequenceReplay LOG_FILE OUT_DIR RECORD...}. For
+ * each record number, the input bytes from which its choices were
+ * generated are written to {@code OUT_DIR/record_RECORD}, which can be run
+ * with {@code ReproDriver} (e.g. via {@code bin/jqf-repro}) to replay the
+ * execution.</p>
+ */
+public class ChoiceSequenceReplay {
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: java " + ChoiceSequenceReplay.class.getName() + " LOG_FILE OUT_DIR RECORD...");
+            System.exit(1);
+        }
+
+        File logFile = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        outputDirectory.mkdirs();
+
+        try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(logFile)) {
+            for (int i = 2; i < args.length; i++) {
+                long record = Long.parseLong(args[i]);
+                reader.seek(record);
+                reader.next();
+                File inputFile = new File(outputDirectory, "record_" + record);
+                Files.write(inputFile.toPath(), reader.getInput());
+                System.out.println(inputFile + ": " + reader.getResult() + ", " + reader.getChoices().size()
+                        + " choices, " + reader.getInput().length + " bytes");
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Replaying records failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
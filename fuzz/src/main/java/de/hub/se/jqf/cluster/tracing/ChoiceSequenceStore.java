@@ -0,0 +1,159 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.LongIntHashMap;
+
+/**
+ * A fingerprint-indexed store of unique choice sequences.
+ *
+ * <p>Type sequences are identified by {@link ChoiceSequence#getTypeFingerprint()}
+ * and assigned consecutive IDs in the order in which they are first seen.
+ * Value sequences are identified by {@link ChoiceSequence#getValueFingerprint()}
+ * and only counted. Since both fingerprints are maintained while the
+ * choices are made, adding a sequence costs two hash table lookups.</p>
+ *
+ * <p>Fingerprints are 64-bit hashes, so distinct sequences may collide
+ * with negligible probability (roughly n<sup>2</sup>/2<sup>65</sup> for n
+ * sequences).</p>
+ *
+ * <p>Almost every execution has a new value sequence, so value sequences
+ * are only counted exactly until a fixed number of them has been seen.
+ * Later ones are counted in a count-min sketch of fixed size, which never
+ * underestimates counts. A value sequence is then reported as new if its
+ * estimated count is zero, so the number of unique value sequences is a
+ * lower bound from that point on.</p>
+ */
+public class ChoiceSequenceStore {
+
+    /** The default number of value sequences to count exactly. */
+    public static final int DEFAULT_MAX_EXACT_VALUE_SEQUENCES = 1 << 20;
+
+    /** The number of rows of the count-min sketch, each with its own hash function. */
+    private static final int SKETCH_DEPTH = 4;
+
+    /** The number of counters per row of the count-min sketch. */
+    private static final int SKETCH_WIDTH = 1 << 16;
+
+    /** The IDs of unique type sequences, keyed by type fingerprint. */
+    protected final LongIntHashMap typeSequenceIds = new LongIntHashMap(1024);
+
+    /** The number of times each unique value sequence was seen, keyed by value fingerprint. */
+    protected final LongIntHashMap valueSequenceCounts = new LongIntHashMap(1024);
+
+    /** The number of value sequences to keep in {@link #valueSequenceCounts}. */
+    protected final int maxExactValueSequences;
+
+    /** Counts of the value sequences seen after {@link #valueSequenceCounts} filled up, or null before. */
+    protected int[] valueSequenceSketch;
+
+    /** The number of unique value sequences counted in {@link #valueSequenceSketch}. */
+    protected int numSketchedValueSequences;
+
+    /** Whether the last call to {@link #addTypeSequence(ChoiceSequence)} assigned a new ID. */
+    protected boolean newTypeSequence;
+
+    /** Creates a store that counts up to {@link #DEFAULT_MAX_EXACT_VALUE_SEQUENCES} value sequences exactly. */
+    public ChoiceSequenceStore() {
+        this(DEFAULT_MAX_EXACT_VALUE_SEQUENCES);
+    }
+
+    /**
+     * Creates a store with bounded memory for value sequences.
+     *
+     * @param maxExactValueSequences the number of value sequences to count
+     *                               exactly before counting in a sketch
+     */
+    public ChoiceSequenceStore(int maxExactValueSequences) {
+        this.maxExactValueSequences = maxExactValueSequences;
+    }
+
+    /**
+     * Returns the ID of the type sequence of some choices, assigning a new
+     * ID if this type sequence has not been seen before.
+     *
+     * @param choices the choices to look up
+     * @return the type sequence ID
+     * @see #wasNewTypeSequence()
+     */
+    public int addTypeSequence(ChoiceSequence choices) {
+        int nextId = typeSequenceIds.size();
+        int id = typeSequenceIds.putIfAbsent(choices.getTypeFingerprint(), nextId, -1);
+        newTypeSequence = id < 0;
+        return newTypeSequence ? nextId : id;
+    }
+
+    /**
+     * Returns whether the most recent call to {@link #addTypeSequence(ChoiceSequence)}
+     * saw a type sequence for the first time.
+     *
+     * @return whether the last added type sequence was new
+     */
+    public boolean wasNewTypeSequence() {
+        return newTypeSequence;
+    }
+
+    /**
+     * Records the value sequence of some choices.
+     *
+     * @param choices the choices to record
+     * @return {@code true} if this value sequence has not been seen before
+     */
+    public boolean addValueSequence(ChoiceSequence choices) {
+        long fingerprint = choices.getValueFingerprint();
+        if (valueSequenceCounts.size() < maxExactValueSequences || valueSequenceCounts.get(fingerprint, 0) > 0) {
+            return valueSequenceCounts.addTo(fingerprint, 1) == 1;
+        }
+        if (valueSequenceSketch == null) {
+            valueSequenceSketch = new int[SKETCH_DEPTH * SKETCH_WIDTH];
+        }
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int cell = sketchCell(fingerprint, row);
+            if (valueSequenceSketch[cell] < Integer.MAX_VALUE) {
+                valueSequenceSketch[cell]++;
+            }
+            min = Math.min(min, valueSequenceSketch[cell]);
+        }
+        boolean isNew = min == 1;
+        if (isNew) {
+            numSketchedValueSequences++;
+        }
+        return isNew;
+    }
+
+    /** Returns the index of the counter of a fingerprint in a row of the sketch. */
+    private static int sketchCell(long fingerprint, int row) {
+        long hash = Hashing.mix64(fingerprint + row * 0x9E3779B97F4A7C15L);
+        return row * SKETCH_WIDTH + (int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(SKETCH_WIDTH)));
+    }
+
+    /**
+     * Returns the number of times a value sequence has been recorded.
+     *
+     * @param choices the choices to look up
+     * @return the number of times their value sequence was recorded, or
+     *         an overestimate if it was counted in the sketch
+     */
+    public int getValueSequenceCount(ChoiceSequence choices) {
+        long fingerprint = choices.getValueFingerprint();
+        int count = valueSequenceCounts.get(fingerprint, 0);
+        if (count > 0 || valueSequenceSketch == null) {
+            return count;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            min = Math.min(min, valueSequenceSketch[sketchCell(fingerprint, row)]);
+        }
+        return min;
+    }
+
+    /** Returns the number of unique type sequences. */
+    public int getNumUniqueTypeSequences() {
+        return typeSequenceIds.size();
+    }
+
+    /** Returns the number of unique value sequences, which is a lower bound once they are sketched. */
+    public int getNumUniqueValueSequences() {
+        return valueSequenceCounts.size() + numSketchedValueSequences;
+    }
+}
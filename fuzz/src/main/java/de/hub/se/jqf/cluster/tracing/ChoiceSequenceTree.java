@@ -2,223 +2,689 @@ package de.hub.se.jqf.cluster.tracing;
 
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
-public class ChoiceSequenceTree {
+/**
+ * A prefix tree over choice type sequences.
+ *
+ * <p>To keep the memory footprint small on long fuzzing campaigns, nodes
+ * are not represented as objects. Instead, a node is an integer ID that
+ * indexes into a set of parallel primitive arrays (parent, depth, type code,
+ * first child, next sibling), and the end-of-sequence markers are kept
+ * in a bit set. Choice types are interned to small integer codes, so
+ * looking up a child is a walk over the (usually very short) sibling
+ * list comparing bytes.</p>
+ *
+ * <p>The root node always has ID {@link #ROOT} and type code
+ * {@link #ROOT_TYPE}.</p>
+ *
+ * <p>All statistics (leaf count, branching degree, depth, ...) are
+ * maintained incrementally during {@link #insert(List)}, so querying
+ * them is O(1) regardless of the size of the tree.</p>
+ *
+ * <p>Each node also counts how many inserted sequences passed through it,
+ * which tells heavily explored prefixes apart from rarely seen ones.
+ * Visit counts are not part of the saved formats.</p>
+ */
+public class ChoiceSequenceTree implements ChoicePrefixTree {
 
-    protected Node root;
+    /** The ID of the root node. */
+    public static final int ROOT = 0;
+
+    /** The type code of the root node. */
+    public static final int ROOT_TYPE = 0;
+
+    /** The sentinel used for absent children and siblings. */
+    public static final int NONE = -1;
+
+    /** The maximum number of distinct choice types (codes are stored as bytes). */
+    protected static final int MAX_TYPES = 256;
+
+    /** The initial capacity of the node arrays. */
+    protected static final int INITIAL_CAPACITY = 1024;
+
+    /** The names of interned choice types, indexed by type code. */
+    protected ArrayList<String> typeNames;
+
+    /** The mapping from choice type names to type codes. */
+    protected Map<String, Integer> typeCodes;
+
+    /** The parent of each node (the root is its own parent). */
+    protected int[] parent;
+
+    /** The depth of each node. */
+    protected int[] depth;
+
+    /** The first child of each node, or {@link #NONE}. */
+    protected int[] firstChild;
+
+    /** The next sibling of each node, or {@link #NONE}. */
+    protected int[] nextSibling;
+
+    /** The interned choice type of each node. */
+    protected byte[] type;
+
+    /** The number of inserted sequences that passed through each node. */
+    protected int[] visits;
+
+    /** The nodes at which some inserted choice sequence ends. */
+    protected BitSet endOfSequence;
+
+    /** The number of nodes in the tree. */
+    protected int numNodes;
 
     protected int uniquePaths;
 
-    protected ArrayList<Node> allNodes;
+    /** The number of end-of-sequence nodes without children. */
+    protected int numLeafs;
+
+    /** The number of nodes with more than one child. */
+    protected int numBranchingNodes;
+
+    /** The sum of the degrees of all nodes with more than one child. */
+    protected long sumBranchingDegree;
+
+    /** The maximum depth of any node. */
+    protected int maxDepth;
+
+    /** The number of nodes at each depth. */
+    protected int[] nodesAtDepth;
+
+    /** The histograms of the values chosen at each node, or null if values are not counted. */
+    protected ChoiceValueSketches valueSketches;
+
+    /** The time (in ms) at which the node creation rate was last sampled. */
+    protected long lastRateSampleTime;
+
+    /** The number of nodes when the node creation rate was last sampled. */
+    protected int lastRateSampleSize;
+
+    /** The node creation rate at the last sample. */
+    protected double newNodesPerSecond;
 
     public ChoiceSequenceTree() {
+        this(INITIAL_CAPACITY);
+    }
 
-        this.root = new Node("ROOT", 0, 0);
-        this.allNodes = new ArrayList<Node>();
-        this.allNodes.add(this.root);
+    /**
+     * Creates an empty tree with room for the given number of nodes.
+     *
+     * @param initialCapacity the number of nodes to allocate space for
+     */
+    public ChoiceSequenceTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        this.parent = new int[capacity];
+        this.depth = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.type = new byte[capacity];
+        this.visits = new int[capacity];
+        this.endOfSequence = new BitSet();
+        this.nodesAtDepth = new int[16];
+
+        this.typeNames = new ArrayList<String>();
+        this.typeCodes = new HashMap<String, Integer>();
+        // Predefined types get the same codes as in ChoiceType
+        for (int code = 0; code < ChoiceType.count(); code++) {
+            internType(ChoiceType.name(code));
+        }
+
+        this.numNodes = 0;
+        newNode(ROOT, ROOT_TYPE, 0);
         this.uniquePaths = 0;
+        this.lastRateSampleTime = System.currentTimeMillis();
+        this.lastRateSampleSize = numNodes;
+    }
+
+    /**
+     * Returns the code of a choice type, interning it if it has not been seen before.
+     *
+     * @param typeName the choice type, e.g. "INT" or "CHOOSE"
+     * @return the type code
+     * @throws IllegalStateException if too many distinct types are interned
+     */
+    public int internType(String typeName) {
+        Integer code = typeCodes.get(typeName);
+        if (code == null) {
+            if (typeNames.size() >= MAX_TYPES) {
+                throw new IllegalStateException("Too many distinct choice types: " + typeName);
+            }
+            code = typeNames.size();
+            typeNames.add(typeName);
+            typeCodes.put(typeName, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the name of an interned choice type.
+     *
+     * @param typeCode the type code
+     * @return the choice type name
+     */
+    public String getTypeName(int typeCode) {
+        return typeNames.get(typeCode);
+    }
+
+    /**
+     * Returns the number of interned choice types (including the root type).
+     *
+     * @return the number of interned choice types
+     */
+    public int getNumTypes() {
+        return typeNames.size();
     }
 
 
     /** Inserting a choice sequence into the tree.
-     * @param choiceSequence
-     * @return
+     * @param choiceSequence the choice types, in the order they were made
+     * @return the node at which the sequence ends
      */
-    public void insert(ArrayList<String> choiceSequence) {
+    public int insert(List<String> choiceSequence) {
 
-        Node node = this.root;
+        int node = ROOT;
+        visits[ROOT]++;
 
         for (int i = 0; i < choiceSequence.size(); i++) {
+            node = getOrCreateChild(node, internType(choiceSequence.get(i)));
+            visits[node]++;
+        }
+        markEndOfSequence(node);
+        return node;
+    }
+
+    /**
+     * Inserts the types of a recorded choice sequence.
+     *
+     * <p>If {@linkplain #setValueSketches value sketches} are attached, the
+     * value of each choice is counted at its node.</p>
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @return the node at which the sequence ends
+     */
+    @Override
+    public int insert(ChoiceSequence choices) {
+        int node = ROOT;
+        visits[ROOT]++;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            node = getOrCreateChild(node, choices.getType(i));
+            visits[node]++;
+            if (valueSketches != null) {
+                valueSketches.add(node, choices.getValue(i));
+            }
+        }
+        markEndOfSequence(node);
+        return node;
+    }
+
+    /**
+     * Inserts a choice sequence given as interned type codes.
+     *
+     * @param typeCodes the type codes, as returned by {@link #internType(String)}
+     * @param length the number of leading codes that form the sequence
+     * @return the node at which the sequence ends
+     */
+    public int insert(int[] typeCodes, int length) {
+        int node = ROOT;
+        visits[ROOT]++;
+        for (int i = 0; i < length; i++) {
+            node = getOrCreateChild(node, typeCodes[i]);
+            visits[node]++;
+        }
+        markEndOfSequence(node);
+        return node;
+    }
+
+    /**
+     * Attaches histograms in which the values of inserted choices are counted.
+     *
+     * <p>Only values inserted afterwards through {@link #insert(ChoiceSequence)}
+     * are counted; merging trees does not merge their sketches.</p>
+     *
+     * @param valueSketches the sketches, or null to stop counting values
+     */
+    public void setValueSketches(ChoiceValueSketches valueSketches) {
+        this.valueSketches = valueSketches;
+    }
 
-            String choiceType = choiceSequence.get(i);
+    /**
+     * Returns the attached value histograms.
+     *
+     * @return the sketches, or null if values are not counted
+     */
+    public ChoiceValueSketches getValueSketches() {
+        return valueSketches;
+    }
+
+    /**
+     * Adds all choice sequences of another tree to this tree.
+     *
+     * <p>Types are matched by name and nodes by their path from the root.
+     * Afterwards, all statistics describe the union of both trees, and the
+     * visit counts of the other tree are added to the matching nodes.</p>
+     *
+     * @param other the tree to merge into this one
+     */
+    public void merge(ChoiceSequenceTree other) {
+        int[] typeMap = new int[other.getNumTypes()];
+        for (int code = 0; code < typeMap.length; code++) {
+            typeMap[code] = internType(other.getTypeName(code));
+        }
 
-            Node child = node.children.get(choiceType);
+        // Parents have lower IDs than their children, so one pass in ID order suffices
+        int[] nodeMap = new int[other.size()];
+        nodeMap[ROOT] = ROOT;
+        for (int node = 0; node < other.size(); node++) {
+            if (node != ROOT) {
+                nodeMap[node] = getOrCreateChild(nodeMap[other.parent[node]], typeMap[other.type[node] & 0xFF]);
+            }
+            visits[nodeMap[node]] += other.visits[node];
+            if (other.endOfSequence.get(node)) {
+                markEndOfSequence(nodeMap[node]);
+            }
+        }
+    }
 
-            if (child == null) {
-                child = node.setChild(choiceType, i);
+    /**
+     * Returns the nodes along the path of a choice sequence, as far as the
+     * path exists in the tree.
+     *
+     * <p>The node of the i-th choice is written to {@code path[i]}; the
+     * walk stops at the first choice without a matching node.</p>
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @param path the array to write node IDs into, at least as long as {@code choices}
+     * @return the number of choices for which a node exists
+     */
+    public int findPath(ChoiceSequence choices, int[] path) {
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            node = getChild(node, choices.getType(i));
+            if (node == NONE) {
+                return i;
             }
-            //checking if we are on the right track.
-            if (!child.type.equals(choiceType)) {
-                System.out.println("ERROR: BUILDING TREE FAILED!!");
+            path[i] = node;
+        }
+        return length;
+    }
+
+    @Override
+    public int getPathVisits(ChoiceSequence choices) {
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            int child = getChild(node, choices.getType(i));
+            if (child == NONE) {
+                break;
             }
             node = child;
         }
-        if (!node.is_end_of_choice_sequence) {
-            node.is_end_of_choice_sequence = true;
-            uniquePaths++;
+        return node == ROOT ? 0 : visits[node];
+    }
+
+    @Override
+    public int findPathDegrees(ChoiceSequence choices, int[] degrees) {
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            node = getChild(node, choices.getType(i));
+            if (node == NONE) {
+                return i;
+            }
+            degrees[i] = deg(node);
         }
+        return length;
     }
 
-    public String[][] adjMatrix() {
+    @Override
+    public ChoiceSequenceTree toChoiceSequenceTree() {
+        return this;
+    }
 
-        String[][] matrix = new String[allNodes.size()][allNodes.size()];
+    /**
+     * Returns a copy of this tree without its value sketches, e.g. for
+     * saving it while this tree keeps growing.
+     *
+     * @return a copy that shares no state with this tree
+     */
+    @Override
+    public ChoiceSequenceTree copy() {
+        ChoiceSequenceTree copy = new ChoiceSequenceTree(1);
+        copy.typeNames = new ArrayList<>(typeNames);
+        copy.typeCodes = new HashMap<>(typeCodes);
+        copy.parent = Arrays.copyOf(parent, numNodes);
+        copy.depth = Arrays.copyOf(depth, numNodes);
+        copy.firstChild = Arrays.copyOf(firstChild, numNodes);
+        copy.nextSibling = Arrays.copyOf(nextSibling, numNodes);
+        copy.type = Arrays.copyOf(type, numNodes);
+        copy.visits = Arrays.copyOf(visits, numNodes);
+        copy.endOfSequence = (BitSet) endOfSequence.clone();
+        copy.numNodes = numNodes;
+        copy.uniquePaths = uniquePaths;
+        copy.numLeafs = numLeafs;
+        copy.numBranchingNodes = numBranchingNodes;
+        copy.sumBranchingDegree = sumBranchingDegree;
+        copy.maxDepth = maxDepth;
+        copy.nodesAtDepth = nodesAtDepth.clone();
+        copy.lastRateSampleTime = lastRateSampleTime;
+        copy.lastRateSampleSize = lastRateSampleSize;
+        copy.newNodesPerSecond = newNodesPerSecond;
+        return copy;
+    }
 
-        for (int i = 0; i < allNodes.size(); i++) {
+    /** Marks a node as the end of a choice sequence. */
+    protected void markEndOfSequence(int node) {
+        if (!endOfSequence.get(node)) {
+            endOfSequence.set(node);
+            uniquePaths++;
+            if (firstChild[node] == NONE) {
+                numLeafs++;
+            }
+        }
+    }
 
-            Node node = allNodes.get(i);
-            for (String type : node.children.keySet()) {
+    /**
+     * Returns the child of a node with a given type, or {@link #NONE}.
+     *
+     * @param node the parent node
+     * @param typeCode the type code of the child
+     * @return the child node, or {@link #NONE} if there is no such child
+     */
+    public int getChild(int node, int typeCode) {
+        byte code = (byte) typeCode;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            if (type[child] == code) {
+                return child;
+            }
+        }
+        return NONE;
+    }
 
-                matrix[i][node.children.get(type).ID] = type;
+    /** Returns the child of a node with a given type, creating it if needed. */
+    protected int getOrCreateChild(int node, int typeCode) {
+        byte code = (byte) typeCode;
+        int last = NONE;
+        int deg = 0;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            if (type[child] == code) {
+                return child;
             }
+            last = child;
+            deg++;
         }
-        return matrix;
+
+        // Update statistics for the parent's change of degree
+        if (deg == 0) {
+            if (endOfSequence.get(node)) {
+                numLeafs--; // No longer a leaf
+            }
+        } else if (deg == 1) {
+            numBranchingNodes++;
+            sumBranchingDegree += 2;
+        } else {
+            sumBranchingDegree++;
+        }
+
+        // Append the new child, so that children stay in insertion order
+        int child = newNode(node, typeCode, depth[node] + 1);
+        if (last == NONE) {
+            firstChild[node] = child;
+        } else {
+            nextSibling[last] = child;
+        }
+        return child;
     }
 
-    public void save(File outputDirectory) {
+    /** Allocates a new node without linking it into its parent's child list. */
+    protected int newNode(int parentNode, int typeCode, int nodeDepth) {
+        if (numNodes == parent.length) {
+            grow();
+        }
+        int node = numNodes++;
+        parent[node] = parentNode;
+        depth[node] = nodeDepth;
+        type[node] = (byte) typeCode;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        visits[node] = 0;
+
+        if (nodeDepth >= nodesAtDepth.length) {
+            nodesAtDepth = Arrays.copyOf(nodesAtDepth, Math.max(nodeDepth + 1, nodesAtDepth.length * 2));
+        }
+        nodesAtDepth[nodeDepth]++;
+        if (nodeDepth > maxDepth) {
+            maxDepth = nodeDepth;
+        }
+        return node;
+    }
 
-        String csv = "Node,0,1,2,3,4\n";
+    /** Grows the node arrays geometrically. */
+    protected void grow() {
+        int capacity = parent.length + (parent.length >> 1) + 1;
+        parent = Arrays.copyOf(parent, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        type = Arrays.copyOf(type, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+    }
 
-        for (Node node : allNodes) {
+    public String[][] adjMatrix() {
 
-            String line = node.type;
-            int j = 0;
-            for (String type : node.children.keySet()) {
-                line = line + "," + node.children.get(type).ID;
-                j++;
-            }
-            while (j<5) {
-                line = line + "," + ".";
-                j++;
+        String[][] matrix = new String[numNodes][numNodes];
+
+        for (int i = 0; i < numNodes; i++) {
+            for (int child = firstChild[i]; child != NONE; child = nextSibling[child]) {
+                matrix[i][child] = getNodeType(child);
             }
-            csv = csv + line + "\n";
         }
+        return matrix;
+    }
+
+    /**
+     * Saves the adjacency list of this tree to "adjList.csv".
+     *
+     * @param outputDirectory the directory to save to
+     * @see ChoiceSequenceTreeIO#writeCsv(ChoiceSequenceTree, File)
+     */
+    public void save(File outputDirectory) {
 
         File adj = new File(outputDirectory, "adjList.csv");
-        try (PrintWriter out = new PrintWriter(adj)) {
-            out.println(csv);
+        try {
+            ChoiceSequenceTreeIO.writeCsv(this, adj);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.out.println("Saving adjacency list failed!");
         }
 
     }
 
-    public String print(){
+    /**
+     * Saves this tree in the compact binary format.
+     *
+     * @param file the file to save to
+     * @throws IOException if the file could not be written
+     * @see ChoiceSequenceTreeIO#write(ChoiceSequenceTree, File)
+     */
+    public void saveBinary(File file) throws IOException {
+        ChoiceSequenceTreeIO.write(this, file);
+    }
 
-        String list = "";
+    /**
+     * Loads a tree saved by {@link #saveBinary(File)}.
+     *
+     * @param file the file to load from
+     * @return the loaded tree
+     * @throws IOException if the file could not be read
+     */
+    public static ChoiceSequenceTree load(File file) throws IOException {
+        return ChoiceSequenceTreeIO.read(file);
+    }
 
-        for (int i = 0; i < allNodes.size(); i++) {
-            Node node = allNodes.get(i);
-            list = list + node.type + "\t:";
-            for (String type : node.children.keySet()) {
-                list = list + type + "." + node.children.get(type).ID + "\t";
+    public String print(){
+
+        StringBuilder list = new StringBuilder();
 
+        for (int i = 0; i < numNodes; i++) {
+            list.append(getNodeType(i)).append("\t:");
+            for (int child = firstChild[i]; child != NONE; child = nextSibling[child]) {
+                list.append(getNodeType(child)).append('.').append(child).append('\t');
             }
-            list = list + "\n";
+            list.append('\n');
         }
 
-        //System.out.println(list);
-        return list;
+        return list.toString();
 
     }
 
+    @Override
     public int getUniquePaths() {
         return uniquePaths;
     }
 
+    @Override
     public int getNumLeafs() {
-        int i = 0;
-        for (Node node : allNodes) {
-            if (node.is_end_of_choice_sequence && node.deg()==0) {
-                i++;
-            }
-        }
-        return i;
+        return numLeafs;
     }
 
+    @Override
     public int size() {
-        return allNodes.size();
-    }
-
-    public ArrayList<Node> getAllNodes() {
-        return allNodes;
+        return numNodes;
     }
 
+    /**
+     * Returns the average degree of the nodes that have more than one child.
+     *
+     * @return the average branching degree, or zero if no node branches
+     */
+    @Override
     public double branchDegree() {
-
-        int i = 0;
-        double deg = 0;
-        for (Node node : allNodes) {
-            if (node.deg() > 1) {
-                i++;
-                deg = deg + node.deg();
-            }
-
-        }
-
-        if (i>0) return deg/i;
+        if (numBranchingNodes > 0) return (double) sumBranchingDegree / numBranchingNodes;
         else return 0;
     }
 
+    /** Returns the number of nodes that have more than one child. */
+    @Override
+    public int getNumBranchingNodes() {
+        return numBranchingNodes;
+    }
 
+    /** Returns the maximum depth of any node, i.e. the length of the longest choice sequence. */
+    @Override
+    public int getMaxDepth() {
+        return maxDepth;
+    }
 
-    public class Node {
+    /**
+     * Returns the number of nodes at a given depth.
+     *
+     * @param d the depth
+     * @return the number of nodes at depth {@code d}
+     */
+    @Override
+    public int getNumNodesAtDepth(int d) {
+        return d < nodesAtDepth.length ? nodesAtDepth[d] : 0;
+    }
 
-        protected int ID;
-        protected int depth;
-        protected String type;
-        protected Map<String, Node> children;
-        protected Node parent;
-        protected boolean is_end_of_choice_sequence;
+    /**
+     * Returns a copy of the depth histogram, indexed by depth.
+     *
+     * @return an array of length {@code getMaxDepth() + 1}
+     */
+    public int[] getDepthHistogram() {
+        return Arrays.copyOf(nodesAtDepth, maxDepth + 1);
+    }
 
-        protected Node(String type, int ID, int depth) {
+    /**
+     * Samples the node creation rate since the previous sample.
+     *
+     * @param nowMillis the current time in milliseconds
+     * @return the number of nodes created per second since the previous sample
+     */
+    @Override
+    public double sampleNewNodesPerSecond(long nowMillis) {
+        long elapsed = nowMillis - lastRateSampleTime;
+        if (elapsed > 0) {
+            newNodesPerSecond = (numNodes - lastRateSampleSize) * 1000.0 / elapsed;
+            lastRateSampleTime = nowMillis;
+            lastRateSampleSize = numNodes;
+        }
+        return newNodesPerSecond;
+    }
 
-            this.ID = ID;
-            this.depth = depth;
-            this.type = type;
-            this.children = new HashMap<String, Node>();
-            this.parent = null;
-            this.is_end_of_choice_sequence = false;
+    /** Returns the node creation rate computed at the last call to {@link #sampleNewNodesPerSecond(long)}. */
+    public double getNewNodesPerSecond() {
+        return newNodesPerSecond;
+    }
 
+    /**
+     * Returns the number of children of a node.
+     *
+     * @param node the node ID
+     * @return the number of children
+     */
+    public int deg(int node) {
+        int d = 0;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            d++;
         }
-        protected Node(String type, int ID, int depth, Node parent) {
-            this(type, ID, depth);
-            this.parent = parent;
-        }
-
-        /** This method returns the child node of the given type.
-         *
-         * ONLY CALL IF CHILD OF TYPE DOESNT EXIST!!!
-         *
-         * @param type - the choice type
-         * @return Childnode node of the given type.
-         */
-        protected Node setChild(String type, int depth) {
+        return d;
+    }
 
-            Node node = new Node(type, allNodes.size(), depth,this);
-            this.children.put(type, node);
-            allNodes.add(node);
-            return node;
+    /**
+     * Returns the number of inserted sequences that passed through a node.
+     *
+     * <p>The count of the root is the total number of insertions.</p>
+     *
+     * @param node the node ID
+     * @return the visit count
+     */
+    public int getVisits(int node) {
+        return visits[node];
+    }
 
-        }
+    /** Returns the parent of a node (the root is its own parent). */
+    public int getParent(int node) {
+        return parent[node];
+    }
 
-        protected ArrayList<String> getChildren() {
+    /** Returns the depth of a node (the root has depth zero). */
+    public int getDepth(int node) {
+        return depth[node];
+    }
 
-            ArrayList<String> children = new ArrayList<String>();
-            for (int i = 0; i < this.children.size(); i++) {
-                children.add(this.children.get(i).type);
-            }
-            return children;
-        }
+    /** Returns the interned type code of a node. */
+    public int getNodeTypeCode(int node) {
+        return type[node] & 0xFF;
+    }
 
-        protected int deg() {
+    /** Returns the choice type name of a node. */
+    public String getNodeType(int node) {
+        return typeNames.get(type[node] & 0xFF);
+    }
 
-            return this.children.keySet().size();
-        }
+    /** Returns the first child of a node, or {@link #NONE}. */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
 
-        public Node getParent() {
+    /** Returns the next sibling of a node, or {@link #NONE}. */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
 
-            if (this.type.equals("ROOT")) {
-                return this;
-            }
-            else return this.parent;
-        }
+    /** Returns whether some inserted choice sequence ends at a node. */
+    public boolean isEndOfChoiceSequence(int node) {
+        return endOfSequence.get(node);
     }
 
-}
\ No newline at end of file
+}
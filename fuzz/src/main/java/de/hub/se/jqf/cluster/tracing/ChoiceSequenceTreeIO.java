@@ -0,0 +1,405 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes {@link ChoiceSequenceTree}s.
+ *
+ * <p>The binary format is streamed through a fixed-size buffer, so saving
+ * a tree never builds a second copy of it in memory. Its layout is:</p>
+ * <pre>
+ *     int     MAGIC
+ *     varint  number of types, followed by each type name
+ *             (varint length + UTF-8 bytes), in type-code order
+ *     varint  number of nodes
+ *     varint  (root type &lt;&lt; 1) | root end-of-sequence bit
+ *     for each non-root node, in ID order:
+ *         varint  node ID - parent ID
+ *         varint  (type code &lt;&lt; 1) | end-of-sequence bit
+ * </pre>
+ *
+ * <p>Since a child is always created after its parent, the parent delta is
+ * positive and usually small. Children are re-linked in ID order on reading,
+ * which is also the order in which they were originally created.</p>
+ *
+ * <p>A {@link RadixChoiceSequenceTree} is written in the same format,
+ * node by node, without expanding it into a {@link ChoiceSequenceTree}
+ * first.</p>
+ *
+ * <p>Trees saved by different fuzzing processes can be combined with
+ * {@link #merge(ChoiceSequenceTree, File)}, which streams over a file once
+ * and needs no more memory than the merged tree plus one int per node of
+ * the file being merged.</p>
+ */
+public class ChoiceSequenceTreeIO {
+
+    /** The magic number at the start of binary tree files ("CST1"). */
+    public static final int MAGIC = 0x43535431;
+
+    /** The size of the I/O buffer. */
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    private ChoiceSequenceTreeIO() {
+
+    }
+
+    /**
+     * Writes a tree in the binary format.
+     *
+     * @param tree the tree to write
+     * @param file the file to (over)write
+     * @throws IOException if the file could not be written
+     */
+    public static void write(ChoiceSequenceTree tree, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            int numNodes = tree.size();
+            putHeader(channel, buf, tree.typeNames, numNodes);
+            VarInts.putVarInt(buf, nodeTag(tree, ChoiceSequenceTree.ROOT));
+            for (int node = 1; node < numNodes; node++) {
+                ensure(channel, buf, 2 * VarInts.MAX_VARINT_SIZE);
+                VarInts.putVarInt(buf, node - tree.getParent(node));
+                VarInts.putVarInt(buf, nodeTag(tree, node));
+            }
+            drain(channel, buf);
+        }
+    }
+
+    /**
+     * Writes a radix tree in the binary format, numbering its nodes as
+     * {@link RadixChoiceSequenceTree#toChoiceSequenceTree()} does.
+     *
+     * @param tree the tree to write
+     * @param file the file to (over)write
+     * @throws IOException if the file could not be written
+     */
+    public static void write(RadixChoiceSequenceTree tree, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            putHeader(channel, buf, tree.typeNames, tree.size());
+            int root = RadixChoiceSequenceTree.ROOT;
+            VarInts.putVarInt(buf, (ChoiceSequenceTree.ROOT_TYPE << 1) | (tree.isEndOfChoiceSequence(root) ? 1 : 0));
+
+            // The ID of the last node of each run; parents are numbered before children
+            int[] lastNode = new int[tree.getNumRuns()];
+            lastNode[root] = ChoiceSequenceTree.ROOT;
+            int nextNode = ChoiceSequenceTree.ROOT + 1;
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                int run = queue.poll();
+                for (int child = tree.firstChild[run]; child != RadixChoiceSequenceTree.NONE; child = tree.nextSibling[child]) {
+                    int typeTag = (tree.type[child] & 0xFF) << 1;
+                    int length = tree.getRunLength(child);
+                    for (int k = 0; k < length; k++) {
+                        ensure(channel, buf, 2 * VarInts.MAX_VARINT_SIZE);
+                        VarInts.putVarInt(buf, k == 0 ? nextNode - lastNode[run] : 1);
+                        boolean end = k == length - 1 && tree.isEndOfChoiceSequence(child);
+                        VarInts.putVarInt(buf, typeTag | (end ? 1 : 0));
+                        nextNode++;
+                    }
+                    lastNode[child] = nextNode - 1;
+                    queue.add(child);
+                }
+            }
+            drain(channel, buf);
+        }
+    }
+
+    /** Writes the magic number, the type table and the number of nodes. */
+    private static void putHeader(FileChannel channel, ByteBuffer buf, List<String> typeNames, int numNodes) throws IOException {
+        buf.putInt(MAGIC);
+        VarInts.putVarInt(buf, typeNames.size());
+        for (String typeName : typeNames) {
+            byte[] name = typeName.getBytes(StandardCharsets.UTF_8);
+            ensure(channel, buf, VarInts.MAX_VARINT_SIZE + name.length);
+            VarInts.putVarInt(buf, name.length);
+            buf.put(name);
+        }
+        ensure(channel, buf, 2 * VarInts.MAX_VARINT_SIZE);
+        VarInts.putVarInt(buf, numNodes);
+    }
+
+    /**
+     * Writes a tree in the binary format such that readers of the file
+     * never see a partially written tree.
+     *
+     * <p>The tree is written to a hidden temporary file next to the target,
+     * which is then atomically renamed to the target. Radix trees are
+     * written without expanding them.</p>
+     *
+     * @param tree the tree to write
+     * @param file the file to replace
+     * @throws IOException if the file could not be written or renamed
+     */
+    public static void writeAtomically(ChoicePrefixTree tree, File file) throws IOException {
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+        if (tree instanceof RadixChoiceSequenceTree) {
+            write((RadixChoiceSequenceTree) tree, tmp);
+        } else {
+            write(tree.toChoiceSequenceTree(), tmp);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a tree in the binary format by memory-mapping the file.
+     *
+     * @param file the file to read
+     * @return the tree, with all statistics restored
+     * @throws IOException if the file could not be read or is malformed
+     */
+    public static ChoiceSequenceTree read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Tree file too large to map: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return read(buf);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed tree file: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Decodes a tree in the binary format from a buffer.
+     *
+     * @param buf the buffer, positioned at the magic number
+     * @return the decoded tree
+     * @throws IOException if the buffer does not contain a tree
+     */
+    public static ChoiceSequenceTree read(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("Not a choice sequence tree file");
+        }
+
+        int numTypes = checkCount(buf, VarInts.getVarInt(buf), 1, "types");
+        String[] typeNames = new String[numTypes];
+        for (int code = 0; code < numTypes; code++) {
+            byte[] name = new byte[checkCount(buf, VarInts.getVarInt(buf), 1, "type name bytes")];
+            buf.get(name);
+            typeNames[code] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        int numNodes = readNumNodes(buf);
+        ChoiceSequenceTree tree = new ChoiceSequenceTree(numNodes);
+        for (int code = 0; code < numTypes; code++) {
+            if (tree.internType(typeNames[code]) != code) {
+                throw new IOException("Inconsistent type table at " + typeNames[code]);
+            }
+        }
+
+        int rootTag = VarInts.getVarInt(buf);
+        if ((rootTag & 1) != 0) {
+            tree.markEndOfSequence(ChoiceSequenceTree.ROOT);
+        }
+        for (int node = 1; node < numNodes; node++) {
+            int parent = node - VarInts.getVarInt(buf);
+            int tag = VarInts.getVarInt(buf);
+            if (parent < 0 || parent >= node || (tag >>> 1) >= numTypes
+                    || tree.getOrCreateChild(parent, tag >>> 1) != node) {
+                throw new IOException("Malformed node record at node " + node);
+            }
+            if ((tag & 1) != 0) {
+                tree.markEndOfSequence(node);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Reads the number of nodes of a tree, checking that the rest of the
+     * buffer can hold that many node records, so that a corrupt header
+     * does not make readers allocate huge arrays.
+     */
+    private static int readNumNodes(ByteBuffer buf) throws IOException {
+        int numNodes = VarInts.getVarInt(buf);
+        if (numNodes < 1) {
+            throw new IOException("Malformed node count: " + numNodes);
+        }
+        // The root takes one varint and every other node two
+        if (buf.remaining() < 1 + 2L * (numNodes - 1)) {
+            throw new IOException("Truncated tree file: " + numNodes + " nodes in " + buf.remaining() + " bytes");
+        }
+        return numNodes;
+    }
+
+    /**
+     * Checks that the rest of a buffer can hold some number of items.
+     *
+     * @param buf the buffer
+     * @param count the number of items read from the buffer
+     * @param minBytes the fewest bytes each item takes
+     * @param what the items, for the error message
+     * @return {@code count}
+     * @throws IOException if {@code count} is negative or too large
+     */
+    private static int checkCount(ByteBuffer buf, int count, int minBytes, String what) throws IOException {
+        if (count < 0 || (long) count * minBytes > buf.remaining()) {
+            throw new IOException("Truncated tree file: " + count + " " + what + " in " + buf.remaining() + " bytes");
+        }
+        return count;
+    }
+
+    /**
+     * Merges trees in the binary format into a new tree.
+     *
+     * @param files the files to merge
+     * @return the union of all trees, with all statistics computed over the union
+     * @throws IOException if some file could not be read or is malformed
+     */
+    public static ChoiceSequenceTree merge(Collection<File> files) throws IOException {
+        ChoiceSequenceTree merged = new ChoiceSequenceTree();
+        for (File file : files) {
+            merge(merged, file);
+        }
+        return merged;
+    }
+
+    /**
+     * Merges a tree in the binary format into another tree, by memory-mapping the file.
+     *
+     * @param target the tree to add all sequences of the file to
+     * @param file the file to read
+     * @throws IOException if the file could not be read or is malformed
+     */
+    public static void merge(ChoiceSequenceTree target, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Tree file too large to map: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                merge(target, buf);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed tree file: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Merges a tree in the binary format into another tree in a single pass.
+     *
+     * <p>Types are matched by name and nodes by their path from the root,
+     * so the trees may have been built with different type codes and
+     * node IDs.</p>
+     *
+     * @param target the tree to add all sequences of the buffer to
+     * @param buf the buffer, positioned at the magic number
+     * @throws IOException if the buffer does not contain a tree
+     */
+    public static void merge(ChoiceSequenceTree target, ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("Not a choice sequence tree file");
+        }
+
+        int numTypes = checkCount(buf, VarInts.getVarInt(buf), 1, "types");
+        int[] typeMap = new int[numTypes];
+        for (int code = 0; code < numTypes; code++) {
+            byte[] name = new byte[checkCount(buf, VarInts.getVarInt(buf), 1, "type name bytes")];
+            buf.get(name);
+            typeMap[code] = target.internType(new String(name, StandardCharsets.UTF_8));
+        }
+
+        // The node of the target that each node of the buffer maps to
+        int numNodes = readNumNodes(buf);
+        int[] nodeMap = new int[numNodes];
+        nodeMap[ChoiceSequenceTree.ROOT] = ChoiceSequenceTree.ROOT;
+        if ((VarInts.getVarInt(buf) & 1) != 0) {
+            target.markEndOfSequence(ChoiceSequenceTree.ROOT);
+        }
+        for (int node = 1; node < numNodes; node++) {
+            int parent = node - VarInts.getVarInt(buf);
+            int tag = VarInts.getVarInt(buf);
+            if (parent < 0 || parent >= node || (tag >>> 1) >= numTypes) {
+                throw new IOException("Malformed node record at node " + node);
+            }
+            nodeMap[node] = target.getOrCreateChild(nodeMap[parent], typeMap[tag >>> 1]);
+            if ((tag & 1) != 0) {
+                target.markEndOfSequence(nodeMap[node]);
+            }
+        }
+    }
+
+    /**
+     * Writes the adjacency list of a tree as CSV.
+     *
+     * <p>Each row lists a node's type followed by the IDs of all its children.
+     * Rows are padded with "." up to at least five child columns, which is the
+     * layout expected by the plotting scripts.</p>
+     *
+     * @param tree the tree to write
+     * @param file the file to (over)write
+     * @throws IOException if the file could not be written
+     */
+    public static void writeCsv(ChoiceSequenceTree tree, File file) throws IOException {
+        int numNodes = tree.size();
+        int columns = 5;
+        for (int node = 0; node < numNodes; node++) {
+            columns = Math.max(columns, tree.deg(node));
+        }
+
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("Node");
+            for (int j = 0; j < columns; j++) {
+                out.write(',');
+                out.write(Integer.toString(j));
+            }
+            out.write('\n');
+
+            for (int node = 0; node < numNodes; node++) {
+                out.write(tree.getNodeType(node));
+                int j = 0;
+                for (int child = tree.getFirstChild(node); child != ChoiceSequenceTree.NONE;
+                     child = tree.getNextSibling(child)) {
+                    out.write(',');
+                    out.write(Integer.toString(child));
+                    j++;
+                }
+                while (j < columns) {
+                    out.write(",.");
+                    j++;
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    private static int nodeTag(ChoiceSequenceTree tree, int node) {
+        return (tree.getNodeTypeCode(node) << 1) | (tree.isEndOfChoiceSequence(node) ? 1 : 0);
+    }
+
+    /** Makes room for at least {@code bytes} bytes in the buffer. */
+    private static void ensure(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            drain(channel, buf);
+        }
+    }
+
+    /** Writes out and clears the buffer. */
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,67 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges the choice sequence trees saved by several fuzzing processes.
+ *
+ * <p>Usage: {@code ChoiceSequenceTreeMerger OUT_FILE TREE_FILE_OR_DIR...}.
+ * Directories (such as the shared directory that
+ * {@link TraceSavingGuidance} writes snapshots to) contribute every regular
+ * file that is not hidden, so that half-written temporary snapshots are
+ * skipped. The merged tree is saved to {@code OUT_FILE} in the binary
+ * format and its statistics are printed.</p>
+ */
+public class ChoiceSequenceTreeMerger {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java " + ChoiceSequenceTreeMerger.class.getName() + " OUT_FILE TREE_FILE_OR_DIR...");
+            System.exit(1);
+        }
+
+        File outputFile = new File(args[0]).getAbsoluteFile();
+        List<File> treeFiles = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            collectTreeFiles(new File(args[i]).getAbsoluteFile(), treeFiles);
+        }
+        // Do not merge the output into itself if it is in one of the directories
+        treeFiles.remove(outputFile);
+
+        try {
+            ChoiceSequenceTree merged = ChoiceSequenceTreeIO.merge(treeFiles);
+            ChoiceSequenceTreeIO.write(merged, outputFile);
+
+            System.out.println("Merged trees:   " + treeFiles.size());
+            System.out.println("Nodes:          " + merged.size());
+            System.out.println("Unique paths:   " + merged.getUniquePaths());
+            System.out.println("Leafs:          " + merged.getNumLeafs());
+            System.out.println("Branch degree:  " + merged.branchDegree());
+            System.out.println("Max depth:      " + merged.getMaxDepth());
+        } catch (IOException e) {
+            System.err.println("Merging trees failed: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static void collectTreeFiles(File file, List<File> treeFiles) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && !child.isHidden()) {
+                    treeFiles.add(child);
+                }
+            }
+        } else {
+            treeFiles.add(file);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.Arrays;
+
+/**
+ * Proposes smaller variants of an input at the boundaries of its choices.
+ *
+ * <p>Each pass proposes candidates in two phases. First, runs of
+ * consecutive choices are deleted along with the bytes they consumed,
+ * starting with runs of half the choices and halving the run length down
+ * to single choices (as in delta debugging). This removes e.g. list
+ * elements or the choices made under a {@link ChoiceType#CHOOSE}. Then,
+ * each choice is shrunk in place: first to zero, and if that is rejected,
+ * to half its value, for as long as halving is accepted. Lowering e.g. a
+ * list size makes the generator read fewer bytes.</p>
+ *
+ * <p>The caller runs each candidate and either {@link #accept accepts} it,
+ * which makes it the input to trim further, or simply asks for the next
+ * one. Passes are repeated until one accepts no candidate. A pass proposes
+ * about {@code 3n} candidates for {@code n} choices, plus the ones proposed
+ * again after an accepted candidate.</p>
+ */
+public class ChoiceTrimmer {
+
+    /** The bytes of the input being trimmed. */
+    protected byte[] bytes;
+
+    /** The choices made while generating from {@link #bytes}. */
+    protected ChoiceSequence choices;
+
+    /** The number of consecutive choices to delete, or 0 when shrinking values. */
+    protected int runLength;
+
+    /** The index of the next choice to delete or shrink. */
+    protected int position;
+
+    /** Whether the last candidate shrank its choice to zero, so that half its value is tried next. */
+    protected boolean triedZero;
+
+    /** Whether a candidate was accepted in the current pass. */
+    protected boolean acceptedInPass;
+
+    protected int numCandidates;
+
+    protected int numAccepted;
+
+    /**
+     * Creates a trimmer for an input.
+     *
+     * @param bytes the bytes of the input, which are kept and must not change
+     * @param choices the choices made while generating from {@code bytes},
+     *                which are kept and must not change
+     */
+    public ChoiceTrimmer(byte[] bytes, ChoiceSequence choices) {
+        this.bytes = bytes;
+        this.choices = choices;
+        startPass();
+    }
+
+    /** Starts a pass over all choices, beginning with the longest runs to delete. */
+    private void startPass() {
+        runLength = Math.max(1, Integer.highestOneBit(choices.size() / 2));
+        position = 0;
+        triedZero = false;
+        acceptedInPass = false;
+    }
+
+    /**
+     * Returns the next candidate.
+     *
+     * @return the bytes of a new candidate, or null if there are no more
+     */
+    public byte[] next() {
+        byte[] candidate = nextInPass();
+        if (candidate == null && acceptedInPass) {
+            startPass();
+            candidate = nextInPass();
+        }
+        if (candidate != null) {
+            numCandidates++;
+        }
+        return candidate;
+    }
+
+    /** Returns the next candidate of the current pass, or null at its end. */
+    private byte[] nextInPass() {
+        while (runLength > 0) {
+            if (position + runLength > choices.size()) {
+                runLength /= 2;
+                position = 0;
+                continue;
+            }
+            int start = position;
+            position += runLength;
+            byte[] candidate = delete(start, runLength);
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        while (position < choices.size()) {
+            byte[] candidate = shrink(position, triedZero);
+            if (triedZero || candidate == null) {
+                position++;
+                triedZero = false;
+            } else {
+                triedZero = true;
+            }
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes a candidate the input to trim further.
+     *
+     * <p>Trimming continues at the same position, which now holds the
+     * choices that followed the deleted ones, or the choice that was
+     * halved, to halve it again.</p>
+     *
+     * @param bytes the bytes of the accepted candidate, which are kept
+     *              and must not change
+     * @param choices the choices made while generating from {@code bytes},
+     *                which are kept and must not change
+     */
+    public void accept(byte[] bytes, ChoiceSequence choices) {
+        this.bytes = bytes;
+        this.choices = choices;
+        numAccepted++;
+        acceptedInPass = true;
+        if (runLength > 0) {
+            // Retry the run that now starts where the deleted one did
+            position = Math.max(0, position - runLength);
+        } else if (triedZero) {
+            // The choice is zero now, so there is nothing left to halve
+            position++;
+            triedZero = false;
+        } else {
+            // The choice was halved, so halve it again
+            position--;
+            triedZero = true;
+        }
+    }
+
+    /** Returns whether all candidates have been proposed, i.e. the last pass accepted none. */
+    public boolean isDone() {
+        return runLength == 0 && position >= choices.size() && !acceptedInPass;
+    }
+
+    /** Returns the bytes of the input as trimmed so far. */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /** Returns the number of candidates proposed. */
+    public int getNumCandidates() {
+        return numCandidates;
+    }
+
+    /** Returns the number of candidates accepted. */
+    public int getNumAccepted() {
+        return numAccepted;
+    }
+
+    /** Deletes the bytes consumed by some consecutive choices, or returns null if they are not known. */
+    private byte[] delete(int first, int count) {
+        int start = choices.getOffset(first);
+        int last = first + count - 1;
+        int end = choices.getOffset(last) + choices.getLength(last);
+        if (start < 0 || end <= start || end > bytes.length) {
+            return null;
+        }
+        byte[] candidate = new byte[bytes.length - (end - start)];
+        System.arraycopy(bytes, 0, candidate, 0, start);
+        System.arraycopy(bytes, end, candidate, start, bytes.length - end);
+        return candidate;
+    }
+
+    /**
+     * Writes zero or half the value of a choice into its bytes, or returns
+     * null if its bytes are not known or it is zero already.
+     */
+    private byte[] shrink(int i, boolean half) {
+        int offset = choices.getOffset(i);
+        int length = Math.min(choices.getLength(i), Long.BYTES);
+        if (offset < 0 || length <= 0 || offset + length > bytes.length) {
+            return null;
+        }
+        long raw = 0;
+        for (int j = length - 1; j >= 0; j--) {
+            raw = (raw << 8) | (bytes[offset + j] & 0xFF);
+        }
+        if (raw == 0) {
+            return null;
+        }
+        long value;
+        if (!half) {
+            value = 0;
+        } else if (choices.getBound(i) > 1) {
+            // Bounded values are the remainder of the raw bytes, so halve the value itself
+            value = choices.getValue(i) / 2;
+        } else {
+            value = raw >>> 1;
+        }
+        if (half && value == 0) {
+            return null; // Already tried
+        }
+        byte[] candidate = Arrays.copyOf(bytes, bytes.length);
+        for (int j = 0; j < length; j++) {
+            candidate[offset + j] = (byte) (value >>> (8 * j));
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,49 @@
+package de.hub.se.jqf.cluster.tracing;
+
+/**
+ * Byte codes for the kinds of random choices made by generators.
+ *
+ * <p>Code zero is reserved for the root of a {@link ChoiceSequenceTree},
+ * which interns the names of all codes in this order, so that the codes
+ * recorded by {@link TracingSourceOfRandomness} can be inserted into the
+ * tree directly.</p>
+ */
+public final class ChoiceType {
+
+    public static final byte ROOT = 0;
+    public static final byte BYTE = 1;
+    public static final byte SHORT = 2;
+    public static final byte CHAR = 3;
+    public static final byte INT = 4;
+    public static final byte BOOL = 5;
+    public static final byte LONG = 6;
+    public static final byte CHOOSE = 7;
+
+    /** The names of the choice types, indexed by code. */
+    private static final String[] NAMES = {
+            "ROOT", "BYTE", "SHORT", "CHAR", "INT", "BOOL", "LONG", "CHOOSE"
+    };
+
+    private ChoiceType() {
+
+    }
+
+    /**
+     * Returns the number of predefined choice types (including the root).
+     *
+     * @return the number of predefined choice types
+     */
+    public static int count() {
+        return NAMES.length;
+    }
+
+    /**
+     * Returns the name of a choice type.
+     *
+     * @param code the choice type code
+     * @return the name of the choice type, e.g. "INT"
+     */
+    public static String name(int code) {
+        return NAMES[code];
+    }
+}
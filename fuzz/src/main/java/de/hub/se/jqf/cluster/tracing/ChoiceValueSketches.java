@@ -0,0 +1,381 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.util.LongIntHashMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Fixed-bucket histograms of the values chosen at the nodes of a
+ * {@link ChoiceSequenceTree}.
+ *
+ * <p>The histogram of a node counts the values of the choices that led to
+ * it, in {@link #NUM_BUCKETS} buckets (see {@link #bucket(long)}): small
+ * non-negative values, such as {@link ChoiceType#CHOOSE} indices and
+ * booleans, are counted exactly, and larger magnitudes by their bit
+ * length. Each histogram takes {@link #BYTES_PER_NODE} bytes, and is only
+ * allocated once a value has been added to its node. Counts saturate at
+ * {@link Integer#MAX_VALUE}.</p>
+ *
+ * <p>When the histograms in memory would exceed the memory cap, they are
+ * added to a spill file, which holds the histogram of node {@code n} at
+ * offset {@code n * BYTES_PER_NODE}, and memory is cleared. Queries add
+ * up both, so they see every value added so far.</p>
+ */
+public class ChoiceValueSketches implements Closeable {
+
+    /** The magic number at the start of saved sketches ("CVS1"). */
+    public static final int MAGIC = 0x43565331;
+
+    /** The number of buckets of each histogram. */
+    public static final int NUM_BUCKETS = 16;
+
+    /** The number of values that are counted exactly, starting at zero. */
+    public static final int NUM_EXACT_BUCKETS = 8;
+
+    /** The size of one histogram in memory and in the spill file. */
+    public static final int BYTES_PER_NODE = NUM_BUCKETS * Integer.BYTES;
+
+    /** The maximum number of histograms held in memory. */
+    protected final int maxSlots;
+
+    /** The spill file, or null to never spill. */
+    protected final File spillFile;
+
+    /**
+     * The slot of each node's histogram in {@link #counts}. Only nodes in
+     * memory have an entry, so it holds at most {@link #maxSlots} entries.
+     */
+    protected final LongIntHashMap slotOfNode = new LongIntHashMap(64);
+
+    /** The node of each used slot. */
+    protected int[] nodeOfSlot = new int[64];
+
+    /** The histograms in memory, {@link #NUM_BUCKETS} counts per slot. */
+    protected int[] counts = new int[64 * NUM_BUCKETS];
+
+    protected int numSlots;
+
+    /** The nodes that have a histogram in the spill file. */
+    protected final BitSet spilledNodes = new BitSet();
+
+    protected FileChannel spillChannel;
+
+    /** The number of values added so far. */
+    protected long numValues;
+
+    /**
+     * Creates empty sketches that are only held in memory.
+     */
+    public ChoiceValueSketches() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates empty sketches with a memory cap.
+     *
+     * @param memoryCap the maximum number of bytes of histograms to hold in memory
+     * @param spillFile the file to spill histograms to when the cap is reached
+     *                  (replaced if it exists), or null to ignore the cap
+     */
+    public ChoiceValueSketches(long memoryCap, File spillFile) {
+        this.spillFile = spillFile;
+        this.maxSlots = spillFile == null ? Integer.MAX_VALUE / NUM_BUCKETS
+                : (int) Math.max(1, Math.min(memoryCap / BYTES_PER_NODE, Integer.MAX_VALUE / NUM_BUCKETS));
+    }
+
+    /**
+     * Returns the bucket that counts a value.
+     *
+     * <p>Buckets 0-7 count the values 0-7; buckets 8-11 count positive
+     * values of bit length 4, 5, 6, and more; buckets 12-15 count negative
+     * values of bit length 0 (i.e. -1), 1-3, 4-7, and more, where the bit
+     * length of a negative value is that of its complement.</p>
+     *
+     * @param value a choice value
+     * @return the bucket index
+     */
+    public static int bucket(long value) {
+        if (value >= 0) {
+            if (value < NUM_EXACT_BUCKETS) {
+                return (int) value;
+            }
+            int bitLength = 64 - Long.numberOfLeadingZeros(value);
+            return NUM_EXACT_BUCKETS + Math.min(bitLength - 4, 3);
+        }
+        int bitLength = 64 - Long.numberOfLeadingZeros(~value);
+        if (bitLength == 0) {
+            return 12;
+        }
+        return bitLength < 4 ? 13 : bitLength < 8 ? 14 : 15;
+    }
+
+    /**
+     * Returns a human-readable description of the values counted by a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the range of values, e.g. "[16, 31]"
+     */
+    public static String bucketLabel(int bucket) {
+        switch (bucket) {
+            case 8: return "[8, 15]";
+            case 9: return "[16, 31]";
+            case 10: return "[32, 63]";
+            case 11: return "[64, ...]";
+            case 12: return "-1";
+            case 13: return "[-8, -2]";
+            case 14: return "[-128, -9]";
+            case 15: return "[..., -129]";
+            default: return Integer.toString(bucket);
+        }
+    }
+
+    /**
+     * Counts a value chosen at a node.
+     *
+     * @param node the node of the choice
+     * @param value the value of the choice
+     * @throws UncheckedIOException if histograms had to be spilled and
+     *         could not be written
+     */
+    public void add(int node, long value) {
+        int slot = slotOfNode.get(node, -1);
+        if (slot < 0) {
+            slot = allocateSlot(node);
+        }
+        int i = slot * NUM_BUCKETS + bucket(value);
+        if (counts[i] != Integer.MAX_VALUE) {
+            counts[i]++; // Counts saturate rather than overflow
+        }
+        numValues++;
+    }
+
+    /** Allocates a histogram for a node, spilling all histograms if memory is full. */
+    private int allocateSlot(int node) {
+        if (numSlots == maxSlots) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (numSlots == nodeOfSlot.length) {
+            int capacity = (int) Math.min((long) nodeOfSlot.length * 2, maxSlots);
+            nodeOfSlot = Arrays.copyOf(nodeOfSlot, capacity);
+            counts = Arrays.copyOf(counts, capacity * NUM_BUCKETS);
+        }
+        int slot = numSlots++;
+        nodeOfSlot[slot] = node;
+        slotOfNode.put(node, slot);
+        return slot;
+    }
+
+    /**
+     * Adds all histograms in memory to the spill file and clears memory.
+     *
+     * @throws IOException if the spill file could not be written
+     */
+    public void spill() throws IOException {
+        if (spillFile == null || numSlots == 0) {
+            return;
+        }
+        if (spillChannel == null) {
+            spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // Visit nodes in order, so that the spill file is read and written sequentially
+        int[] nodes = Arrays.copyOf(nodeOfSlot, numSlots);
+        Arrays.sort(nodes);
+        ByteBuffer buf = ByteBuffer.allocate(BYTES_PER_NODE);
+        for (int node : nodes) {
+            int slot = slotOfNode.get(node, -1);
+            buf.clear();
+            if (spilledNodes.get(node)) {
+                readFully(buf, (long) node * BYTES_PER_NODE);
+            }
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                int spilled = spilledNodes.get(node) ? buf.getInt(b * Integer.BYTES) : 0;
+                buf.putInt(b * Integer.BYTES, saturatedAdd(spilled, counts[slot * NUM_BUCKETS + b]));
+            }
+            buf.clear();
+            while (buf.hasRemaining()) {
+                spillChannel.write(buf, (long) node * BYTES_PER_NODE + buf.position());
+            }
+            spilledNodes.set(node);
+        }
+        slotOfNode.clear();
+        Arrays.fill(counts, 0, numSlots * NUM_BUCKETS, 0);
+        numSlots = 0;
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        return (int) Math.min((long) a + b, Integer.MAX_VALUE);
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            if (spillChannel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Truncated spill file: " + spillFile);
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of the values chosen at a node.
+     *
+     * @param node a node of the tree
+     * @return the count of each bucket (all zero if no value was added)
+     * @throws IOException if the spill file could not be read
+     */
+    public int[] getHistogram(int node) throws IOException {
+        int[] histogram = new int[NUM_BUCKETS];
+        int slot = slotOfNode.get(node, -1);
+        if (slot >= 0) {
+            System.arraycopy(counts, slot * NUM_BUCKETS, histogram, 0, NUM_BUCKETS);
+        }
+        if (spilledNodes.get(node)) {
+            ByteBuffer buf = ByteBuffer.allocate(BYTES_PER_NODE);
+            readFully(buf, (long) node * BYTES_PER_NODE);
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                histogram[b] = saturatedAdd(histogram[b], buf.getInt(b * Integer.BYTES));
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the histogram of the values chosen at the end of a path.
+     *
+     * @param tree the tree whose nodes the sketches belong to
+     * @param prefix a choice sequence, of whose last choice to return the histogram
+     * @return the histogram, or null if the tree has no node for the prefix
+     * @throws IOException if the spill file could not be read
+     */
+    public int[] getHistogram(ChoiceSequenceTree tree, ChoiceSequence prefix) throws IOException {
+        int[] path = new int[prefix.size()];
+        if (prefix.size() == 0 || tree.findPath(prefix, path) < prefix.size()) {
+            return null;
+        }
+        return getHistogram(path[prefix.size() - 1]);
+    }
+
+    /** Returns whether some value was added at a node. */
+    public boolean hasHistogram(int node) {
+        return slotOfNode.containsKey(node) || spilledNodes.get(node);
+    }
+
+    /** Returns the number of values added so far. */
+    public long getNumValues() {
+        return numValues;
+    }
+
+    /**
+     * Saves all histograms, including spilled ones, to a file.
+     *
+     * <p>The file holds the magic number, the number of buckets and the
+     * number of histograms (as varints), followed by each histogram as the
+     * varint difference of its node to the previous one and its counts as
+     * varints.</p>
+     *
+     * @param file the file to (over)write
+     * @throws IOException if the file could not be written or the spill file read
+     */
+    public void save(File file) throws IOException {
+        int numNodes = 0;
+        int maxNode = spilledNodes.length();
+        for (int slot = 0; slot < numSlots; slot++) {
+            maxNode = Math.max(maxNode, nodeOfSlot[slot] + 1);
+        }
+        for (int node = 0; node < maxNode; node++) {
+            if (hasHistogram(node)) {
+                numNodes++;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            buf.putInt(MAGIC);
+            VarInts.putVarInt(buf, NUM_BUCKETS);
+            VarInts.putVarInt(buf, numNodes);
+            int lastNode = 0;
+            for (int node = 0; node < maxNode; node++) {
+                if (!hasHistogram(node)) {
+                    continue;
+                }
+                if (buf.remaining() < (NUM_BUCKETS + 1) * VarInts.MAX_VARINT_SIZE) {
+                    drain(channel, buf);
+                }
+                VarInts.putVarInt(buf, node - lastNode);
+                for (int count : getHistogram(node)) {
+                    VarInts.putVarInt(buf, count);
+                }
+                lastNode = node;
+            }
+            drain(channel, buf);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Loads histograms saved by {@link #save(File)} into memory.
+     *
+     * @param file the file to read
+     * @return sketches without a memory cap, to which more values can be added
+     * @throws IOException if the file could not be read or is malformed
+     */
+    public static ChoiceValueSketches load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || VarInts.getVarInt(buf) != NUM_BUCKETS) {
+                throw new IOException("Not a choice value sketch file: " + file);
+            }
+            ChoiceValueSketches sketches = new ChoiceValueSketches();
+            int numNodes = VarInts.getVarInt(buf);
+            int node = 0;
+            for (int n = 0; n < numNodes; n++) {
+                node += VarInts.getVarInt(buf);
+                int slot = sketches.allocateSlot(node);
+                for (int b = 0; b < NUM_BUCKETS; b++) {
+                    int count = VarInts.getVarInt(buf);
+                    sketches.counts[slot * NUM_BUCKETS + b] = count;
+                    sketches.numValues += count;
+                }
+            }
+            return sketches;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed choice value sketch file: " + file, e);
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file, if any.
+     *
+     * @throws IOException if the spill file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+            spilledNodes.clear();
+            spillFile.delete();
+        }
+    }
+}
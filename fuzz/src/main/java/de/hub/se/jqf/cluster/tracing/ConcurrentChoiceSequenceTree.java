@@ -0,0 +1,418 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A prefix tree over choice type sequences that several threads can insert
+ * into at the same time.
+ *
+ * <p>Insertion is lock-free. Node IDs are allocated from an atomic counter
+ * and a new child is installed by a compare-and-set on its parent's
+ * first-child link, so threads only contend when they add children to the
+ * same node at the same moment. A thread that loses such a race re-checks
+ * the children that were installed in the meantime, so no node gets two
+ * children of the same type. The node it allocated is then left unused.</p>
+ *
+ * <p>Nodes live in fixed-size chunks that are allocated on demand and never
+ * moved, so readers never see an array being grown. Readers may query the
+ * statistics and walk paths while writers insert. Each statistic is exact
+ * once all insertions have returned; while insertions are in flight, it
+ * reflects some recent state.</p>
+ *
+ * <p>The degree and the end-of-sequence flag of a node share one atomic
+ * word, so the leaf and branching statistics, which depend on both, are
+ * updated consistently when a node gains its first child at the same time
+ * as a sequence ends at it.</p>
+ */
+public class ConcurrentChoiceSequenceTree implements ChoicePrefixTree {
+
+    /** The ID of the root node. */
+    public static final int ROOT = 0;
+
+    /** The sentinel used for absent children and siblings. */
+    public static final int NONE = -1;
+
+    /** The log2 of the number of nodes per chunk. */
+    protected static final int CHUNK_BITS = 14;
+
+    protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** The maximum number of chunks, which bounds the number of nodes to 2^31. */
+    protected static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+    /** The bit of a node's state that marks the end of a choice sequence. */
+    private static final int END_OF_SEQUENCE = 1;
+
+    /** A block of nodes, stored in parallel arrays. */
+    protected static final class Chunk {
+        /** Written before a node is published, so plain arrays suffice. */
+        final int[] parent = new int[CHUNK_SIZE];
+        final int[] depth = new int[CHUNK_SIZE];
+        final byte[] type = new byte[CHUNK_SIZE];
+
+        final AtomicIntegerArray firstChild = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray nextSibling = new AtomicIntegerArray(CHUNK_SIZE);
+        /** The number of children times two, plus the {@link #END_OF_SEQUENCE} bit. */
+        final AtomicIntegerArray state = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicIntegerArray visits = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    protected final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    /** The next node ID to allocate (including IDs of nodes that lost a race). */
+    protected final AtomicInteger nextNodeId = new AtomicInteger();
+
+    /** The number of nodes in the tree. */
+    protected final AtomicInteger numNodes = new AtomicInteger();
+
+    protected final AtomicInteger uniquePaths = new AtomicInteger();
+
+    /** The number of end-of-sequence nodes without children. */
+    protected final AtomicInteger numLeafs = new AtomicInteger();
+
+    /** The number of nodes with more than one child. */
+    protected final AtomicInteger numBranchingNodes = new AtomicInteger();
+
+    /** The sum of the degrees of all nodes with more than one child. */
+    protected final LongAdder sumBranchingDegree = new LongAdder();
+
+    /** The maximum depth of any node. */
+    protected final AtomicInteger maxDepth = new AtomicInteger();
+
+    /** The number of nodes at each depth, in chunks like the nodes. */
+    protected final AtomicReferenceArray<AtomicIntegerArray> nodesAtDepth = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    /** The number of insertions, i.e. the visit count of the root (which every thread updates). */
+    protected final LongAdder rootVisits = new LongAdder();
+
+    /** The time (in ms) at which the node creation rate was last sampled. */
+    protected long lastRateSampleTime;
+
+    /** The number of nodes when the node creation rate was last sampled. */
+    protected int lastRateSampleSize;
+
+    /** The node creation rate at the last sample. */
+    protected double newNodesPerSecond;
+
+    public ConcurrentChoiceSequenceTree() {
+        int root = allocate(ROOT, ChoiceSequenceTree.ROOT_TYPE, 0);
+        assert root == ROOT;
+        numNodes.incrementAndGet();
+        countNodeAtDepth(0);
+        this.lastRateSampleTime = System.currentTimeMillis();
+        this.lastRateSampleSize = numNodes.get();
+    }
+
+    /**
+     * Inserts the types of a recorded choice sequence.
+     *
+     * <p>This method may be called by several threads at once.</p>
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @return the node at which the sequence ends
+     */
+    @Override
+    public int insert(ChoiceSequence choices) {
+        rootVisits.increment();
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            node = getOrCreateChild(node, choices.getType(i));
+            chunk(node).visits.incrementAndGet(node & CHUNK_MASK);
+        }
+        markEndOfSequence(node);
+        return node;
+    }
+
+    /**
+     * Returns the child of a node with a given type, or {@link #NONE}.
+     *
+     * @param node the parent node
+     * @param typeCode the type code of the child
+     * @return the child node, or {@link #NONE} if there is no such child
+     */
+    public int getChild(int node, int typeCode) {
+        return findChild(chunk(node).firstChild.get(node & CHUNK_MASK), NONE, (byte) typeCode);
+    }
+
+    /** Walks a sibling list from {@code from} up to (excluding) {@code until}, looking for a type. */
+    private int findChild(int from, int until, byte code) {
+        for (int child = from; child != until; child = chunk(child).nextSibling.get(child & CHUNK_MASK)) {
+            if (chunk(child).type[child & CHUNK_MASK] == code) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the child of a node with a given type, installing a new one if needed. */
+    protected int getOrCreateChild(int node, int typeCode) {
+        byte code = (byte) typeCode;
+        Chunk parentChunk = chunk(node);
+        int index = node & CHUNK_MASK;
+
+        int head = parentChunk.firstChild.get(index);
+        int child = findChild(head, NONE, code);
+        if (child != NONE) {
+            return child;
+        }
+
+        int created = allocate(node, typeCode, parentChunk.depth[index] + 1);
+        Chunk createdChunk = chunk(created);
+        while (true) {
+            // New children are prepended, so a failed CAS only has to check the new head(s)
+            createdChunk.nextSibling.set(created & CHUNK_MASK, head);
+            if (parentChunk.firstChild.compareAndSet(index, head, created)) {
+                onChildInstalled(node, created);
+                return created;
+            }
+            int newHead = parentChunk.firstChild.get(index);
+            child = findChild(newHead, head, code);
+            if (child != NONE) {
+                return child; // Another thread installed the same child first
+            }
+            head = newHead;
+        }
+    }
+
+    /** Allocates a node that is not yet linked into the tree. */
+    protected int allocate(int parentNode, int typeCode, int nodeDepth) {
+        int node = nextNodeId.getAndIncrement();
+        if (node < 0) {
+            throw new IllegalStateException("Too many nodes in choice sequence tree");
+        }
+        Chunk c = ensureChunk(node >>> CHUNK_BITS);
+        int index = node & CHUNK_MASK;
+        c.parent[index] = parentNode;
+        c.depth[index] = nodeDepth;
+        c.type[index] = (byte) typeCode;
+        c.firstChild.set(index, NONE);
+        c.nextSibling.set(index, NONE);
+        return node;
+    }
+
+    /** Updates the statistics after a child was linked to a node. */
+    private void onChildInstalled(int node, int child) {
+        numNodes.incrementAndGet();
+        int childDepth = chunk(child).depth[child & CHUNK_MASK];
+        countNodeAtDepth(childDepth);
+        maxDepth.accumulateAndGet(childDepth, Math::max);
+
+        Chunk c = chunk(node);
+        int index = node & CHUNK_MASK;
+        int old = c.state.getAndAdd(index, 2);
+        int deg = old >>> 1;
+        if (deg == 0) {
+            if ((old & END_OF_SEQUENCE) != 0) {
+                numLeafs.decrementAndGet(); // No longer a leaf
+            }
+        } else if (deg == 1) {
+            numBranchingNodes.incrementAndGet();
+            sumBranchingDegree.add(2);
+        } else {
+            sumBranchingDegree.increment();
+        }
+    }
+
+    /** Marks a node as the end of a choice sequence. */
+    protected void markEndOfSequence(int node) {
+        Chunk c = chunk(node);
+        int index = node & CHUNK_MASK;
+        int old;
+        do {
+            old = c.state.get(index);
+            if ((old & END_OF_SEQUENCE) != 0) {
+                return;
+            }
+        } while (!c.state.compareAndSet(index, old, old | END_OF_SEQUENCE));
+
+        uniquePaths.incrementAndGet();
+        if ((old >>> 1) == 0) {
+            numLeafs.incrementAndGet();
+        }
+    }
+
+    private void countNodeAtDepth(int d) {
+        AtomicIntegerArray counts = nodesAtDepth.get(d >>> CHUNK_BITS);
+        if (counts == null) {
+            nodesAtDepth.compareAndSet(d >>> CHUNK_BITS, null, new AtomicIntegerArray(CHUNK_SIZE));
+            counts = nodesAtDepth.get(d >>> CHUNK_BITS);
+        }
+        counts.incrementAndGet(d & CHUNK_MASK);
+    }
+
+    /** Returns the chunk with a given index, allocating it if needed. */
+    private Chunk ensureChunk(int chunkIndex) {
+        Chunk c = chunks.get(chunkIndex);
+        if (c == null) {
+            chunks.compareAndSet(chunkIndex, null, new Chunk());
+            c = chunks.get(chunkIndex);
+        }
+        return c;
+    }
+
+    /** Returns the chunk of an allocated node. */
+    protected Chunk chunk(int node) {
+        return chunks.get(node >>> CHUNK_BITS);
+    }
+
+    @Override
+    public int getPathVisits(ChoiceSequence choices) {
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            int child = getChild(node, choices.getType(i));
+            if (child == NONE) {
+                break;
+            }
+            node = child;
+        }
+        return node == ROOT ? 0 : getVisits(node);
+    }
+
+    @Override
+    public int findPathDegrees(ChoiceSequence choices, int[] degrees) {
+        int node = ROOT;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            node = getChild(node, choices.getType(i));
+            if (node == NONE) {
+                return i;
+            }
+            degrees[i] = deg(node);
+        }
+        return length;
+    }
+
+    /**
+     * Copies this tree into a {@link ChoiceSequenceTree}, e.g. for saving.
+     *
+     * <p>If other threads insert while copying, the copy contains some
+     * subset of their sequences.</p>
+     *
+     * @return an unsynchronized copy of this tree
+     */
+    @Override
+    public ChoiceSequenceTree copy() {
+        return toChoiceSequenceTree();
+    }
+
+    @Override
+    public ChoiceSequenceTree toChoiceSequenceTree() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree(numNodes.get());
+        ArrayDeque<int[]> queue = new ArrayDeque<>(); // Pairs of (node here, node in copy)
+        queue.add(new int[]{ROOT, ChoiceSequenceTree.ROOT});
+        tree.visits[ChoiceSequenceTree.ROOT] = (int) rootVisits.sum();
+        while (!queue.isEmpty()) {
+            int[] pair = queue.poll();
+            if (isEndOfChoiceSequence(pair[0])) {
+                tree.markEndOfSequence(pair[1]);
+            }
+            for (int child = getFirstChild(pair[0]); child != NONE; child = getNextSibling(child)) {
+                int copy = tree.getOrCreateChild(pair[1], getNodeTypeCode(child));
+                tree.visits[copy] = getVisits(child);
+                queue.add(new int[]{child, copy});
+            }
+        }
+        return tree;
+    }
+
+    @Override
+    public int getUniquePaths() {
+        return uniquePaths.get();
+    }
+
+    @Override
+    public int getNumLeafs() {
+        return numLeafs.get();
+    }
+
+    @Override
+    public int size() {
+        return numNodes.get();
+    }
+
+    @Override
+    public double branchDegree() {
+        int branching = numBranchingNodes.get();
+        if (branching > 0) return (double) sumBranchingDegree.sum() / branching;
+        else return 0;
+    }
+
+    @Override
+    public int getNumBranchingNodes() {
+        return numBranchingNodes.get();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public int getNumNodesAtDepth(int d) {
+        AtomicIntegerArray counts = nodesAtDepth.get(d >>> CHUNK_BITS);
+        return counts == null ? 0 : counts.get(d & CHUNK_MASK);
+    }
+
+    @Override
+    public synchronized double sampleNewNodesPerSecond(long nowMillis) {
+        long elapsed = nowMillis - lastRateSampleTime;
+        if (elapsed > 0) {
+            int size = numNodes.get();
+            newNodesPerSecond = (size - lastRateSampleSize) * 1000.0 / elapsed;
+            lastRateSampleTime = nowMillis;
+            lastRateSampleSize = size;
+        }
+        return newNodesPerSecond;
+    }
+
+    /** Returns the number of children of a node. */
+    public int deg(int node) {
+        return chunk(node).state.get(node & CHUNK_MASK) >>> 1;
+    }
+
+    /** Returns the number of inserted sequences that passed through a node. */
+    public int getVisits(int node) {
+        if (node == ROOT) {
+            return (int) rootVisits.sum();
+        }
+        return chunk(node).visits.get(node & CHUNK_MASK);
+    }
+
+    /** Returns the parent of a node (the root is its own parent). */
+    public int getParent(int node) {
+        return chunk(node).parent[node & CHUNK_MASK];
+    }
+
+    /** Returns the depth of a node (the root has depth zero). */
+    public int getDepth(int node) {
+        return chunk(node).depth[node & CHUNK_MASK];
+    }
+
+    /** Returns the {@link ChoiceType} code of a node. */
+    public int getNodeTypeCode(int node) {
+        return chunk(node).type[node & CHUNK_MASK] & 0xFF;
+    }
+
+    /** Returns the first child of a node, or {@link #NONE}. */
+    public int getFirstChild(int node) {
+        return chunk(node).firstChild.get(node & CHUNK_MASK);
+    }
+
+    /** Returns the next sibling of a node, or {@link #NONE}. */
+    public int getNextSibling(int node) {
+        return chunk(node).nextSibling.get(node & CHUNK_MASK);
+    }
+
+    /** Returns whether some inserted choice sequence ends at a node. */
+    public boolean isEndOfChoiceSequence(int node) {
+        return (chunk(node).state.get(node & CHUNK_MASK) & END_OF_SEQUENCE) != 0;
+    }
+}
@@ -0,0 +1,192 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.LongBitSets;
+import edu.berkeley.cs.jqf.fuzz.util.MinHash;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A binary file of fixed-width branch coverage signatures, one per trial.
+ *
+ * <p>A signature is either a bit set of the covered coverage indices,
+ * folded modulo its number of bits, or a {@link MinHash} signature of the
+ * set of covered indices. Both are compared with the utilities in
+ * {@link LongBitSets} and {@link MinHash} (see
+ * {@link CoverageSignatureReader#similarity(long[], long[])}). Since all
+ * records have the same size, record {@code n}, the signature of trial
+ * {@code n}, is at a fixed offset. The layout is:</p>
+ * <pre>
+ *     int     MAGIC
+ *     int     kind ({@link #BITSET} or {@link #MINHASH})
+ *     int     number of signature words per record
+ *     int     reserved
+ *     records, each of which is:
+ *         long    result ordinal | (number of covered indices &lt;&lt; 8)
+ *         long[]  signature words
+ * </pre>
+ */
+public class CoverageSignatureLog implements Closeable {
+
+    /** The magic number at the start of signature files ("CSG1"). */
+    public static final int MAGIC = 0x43534731;
+
+    /** The size of the file header. */
+    public static final int HEADER_SIZE = 16;
+
+    /** The kind of signatures that are bit sets of covered indices. */
+    public static final int BITSET = 0;
+
+    /** The kind of signatures that are MinHash signatures of covered indices. */
+    public static final int MINHASH = 1;
+
+    /** The seed of the MinHash function of {@link #MINHASH} signatures. */
+    public static final long MINHASH_SEED = 0xbb67ae8584caa73bL;
+
+    /** The size of the buffer in which records are collected before being written. */
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    protected final FileChannel channel;
+
+    protected final ByteBuffer buffer;
+
+    protected final int kind;
+
+    protected final int numWords;
+
+    /** The MinHash function of {@link #MINHASH} signatures (null for bit sets). */
+    protected final MinHash minHash;
+
+    /** The signature of the current record, reused between records. */
+    protected final long[] signature;
+
+    protected long numRecords;
+
+    /**
+     * Creates a file of bit set signatures.
+     *
+     * @param file the file to create or overwrite
+     * @param numBits the number of bits of each signature, which is rounded
+     *                up to a multiple of 64; coverage indices beyond it are folded
+     * @return a new signature log
+     * @throws IOException if the file could not be created
+     */
+    public static CoverageSignatureLog bitset(File file, int numBits) throws IOException {
+        return new CoverageSignatureLog(file, BITSET, LongBitSets.numWords(numBits));
+    }
+
+    /**
+     * Creates a file of MinHash signatures.
+     *
+     * @param file the file to create or overwrite
+     * @param numBins the number of bins of each signature
+     * @return a new signature log
+     * @throws IOException if the file could not be created
+     */
+    public static CoverageSignatureLog minHash(File file, int numBins) throws IOException {
+        return new CoverageSignatureLog(file, MINHASH, numBins);
+    }
+
+    protected CoverageSignatureLog(File file, int kind, int numWords) throws IOException {
+        if (numWords <= 0) {
+            throw new IllegalArgumentException("Signature size must be positive: " + numWords);
+        }
+        this.kind = kind;
+        this.numWords = numWords;
+        this.minHash = kind == MINHASH ? new MinHash(numWords, MINHASH_SEED) : null;
+        this.signature = new long[numWords];
+        this.buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, getRecordSize()));
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(kind).putInt(numWords).putInt(0);
+    }
+
+    /** Returns the kind of signatures, {@link #BITSET} or {@link #MINHASH}. */
+    public int getKind() {
+        return kind;
+    }
+
+    /** Returns the number of words of each signature. */
+    public int getNumWords() {
+        return numWords;
+    }
+
+    /** Returns the size of each record in bytes. */
+    public int getRecordSize() {
+        return Long.BYTES * (1 + numWords);
+    }
+
+    /** Returns the number of records appended so far. */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Computes the signature of some coverage.
+     *
+     * @param covered the covered coverage indices
+     * @param signature the array of {@link #getNumWords()} words to fill
+     */
+    public void computeSignature(Collection<Integer> covered, long[] signature) {
+        if (kind == MINHASH) {
+            minHash.clear(signature);
+            for (int index : covered) {
+                minHash.add(signature, index);
+            }
+            minHash.densify(signature);
+        } else {
+            Arrays.fill(signature, 0);
+            int numBits = numWords * Long.SIZE;
+            for (int index : covered) {
+                LongBitSets.set(signature, index % numBits);
+            }
+        }
+    }
+
+    /**
+     * Appends the signature of the coverage of the next trial.
+     *
+     * @param result the result of the trial
+     * @param covered the coverage indices that the trial covered
+     * @throws IOException if the file could not be written
+     */
+    public void append(Result result, Collection<Integer> covered) throws IOException {
+        computeSignature(covered, signature);
+        if (buffer.remaining() < getRecordSize()) {
+            flush();
+        }
+        buffer.putLong(result.ordinal() | ((long) covered.size() << 8));
+        for (long word : signature) {
+            buffer.putLong(word);
+        }
+        numRecords++;
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+            channel.close();
+        }
+    }
+}
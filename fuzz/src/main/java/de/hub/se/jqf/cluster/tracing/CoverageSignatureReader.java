@@ -0,0 +1,159 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.LongBitSets;
+import edu.berkeley.cs.jqf.fuzz.util.MinHash;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the coverage signatures written by a {@link CoverageSignatureLog}
+ * by trial number.
+ *
+ * <p>Records are read with positional reads, so any trial can be read
+ * directly. A trailing partial record, e.g. of a log that is still being
+ * written, is ignored.</p>
+ */
+public class CoverageSignatureReader implements Closeable {
+
+    protected final FileChannel channel;
+
+    protected final int kind;
+
+    protected final int numWords;
+
+    protected final long numRecords;
+
+    /** The buffer that records are read into. */
+    protected ByteBuffer buffer;
+
+    protected Result result;
+
+    protected int numCovered;
+
+    /**
+     * Opens a signature file.
+     *
+     * @param file the file to read
+     * @throws IOException if the file could not be read or is not a signature file
+     */
+    public CoverageSignatureReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(CoverageSignatureLog.HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt() != CoverageSignatureLog.MAGIC) {
+            channel.close();
+            throw new IOException("Not a coverage signature file: " + file);
+        }
+        this.kind = header.getInt();
+        this.numWords = header.getInt();
+        this.numRecords = (channel.size() - CoverageSignatureLog.HEADER_SIZE) / getRecordSize();
+        this.buffer = ByteBuffer.allocate(getRecordSize());
+    }
+
+    /** Returns the kind of signatures, {@link CoverageSignatureLog#BITSET} or {@link CoverageSignatureLog#MINHASH}. */
+    public int getKind() {
+        return kind;
+    }
+
+    /** Returns the number of words of each signature. */
+    public int getNumWords() {
+        return numWords;
+    }
+
+    /** Returns the number of complete records, i.e. of trials. */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /** Returns the size of each record in bytes. */
+    public int getRecordSize() {
+        return Long.BYTES * (1 + numWords);
+    }
+
+    /**
+     * Reads the signature of a trial.
+     *
+     * @param trial the trial number
+     * @param signature the array of {@link #getNumWords()} words to fill
+     * @throws IOException if the file could not be read
+     */
+    public void read(long trial, long[] signature) throws IOException {
+        read(trial, 1, signature);
+    }
+
+    /**
+     * Reads the signatures of consecutive trials back to back into one
+     * array, so that they can be compared with the offset variants of the
+     * {@link LongBitSets} methods. The result and number of covered indices
+     * are those of the last trial read.
+     *
+     * @param firstTrial the number of the first trial to read
+     * @param count the number of trials to read
+     * @param signatures the array of at least {@code count * getNumWords()} words to fill
+     * @throws IOException if the file could not be read
+     */
+    public void read(long firstTrial, int count, long[] signatures) throws IOException {
+        if (firstTrial < 0 || count < 0 || firstTrial + count > numRecords) {
+            throw new IndexOutOfBoundsException("Trials " + firstTrial + " to " + (firstTrial + count) +
+                    " out of " + numRecords);
+        }
+        int recordSize = getRecordSize();
+        if (buffer.capacity() < count * recordSize) {
+            buffer = ByteBuffer.allocate(count * recordSize);
+        }
+        buffer.clear().limit(count * recordSize);
+        readFully(buffer, CoverageSignatureLog.HEADER_SIZE + firstTrial * recordSize);
+        for (int n = 0; n < count; n++) {
+            long header = buffer.getLong();
+            result = Result.values()[(int) (header & 0xFF)];
+            numCovered = (int) (header >>> 8);
+            buffer.asLongBuffer().get(signatures, n * numWords, numWords);
+            buffer.position(buffer.position() + numWords * Long.BYTES);
+        }
+    }
+
+    /** Returns the result of the last trial read. */
+    public Result getResult() {
+        return result;
+    }
+
+    /** Returns the number of coverage indices covered by the last trial read. */
+    public int getNumCovered() {
+        return numCovered;
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the coverage of two trials from
+     * their signatures.
+     *
+     * @param a a signature read from this file
+     * @param b a signature read from this file
+     * @return the estimated similarity, between 0 and 1
+     */
+    public double similarity(long[] a, long[] b) {
+        if (kind == CoverageSignatureLog.MINHASH) {
+            return MinHash.similarity(a, b);
+        }
+        return LongBitSets.jaccard(a, b);
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of coverage signature file");
+            }
+        }
+        target.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,162 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks which methods are invoked during a single run.
+ *
+ * <p>Methods are identified by dense integer ids in the order in which they
+ * are first seen. The id of the method invoked at a call site is resolved
+ * once per instruction id (IID) and cached in an array, so that recording a
+ * call costs only a few array operations. The per-run set of covered methods
+ * is a bitset that is cleared sparsely between runs.</p>
+ */
+public class MethodCoverage {
+
+    /** Marks an IID whose invoked method has not been resolved yet. */
+    private static final int UNRESOLVED = -1;
+
+    /** Method ids indexed by call-site IID. */
+    private int[] methodIdByIid = new int[0];
+
+    /** Method names indexed by method id. */
+    private final List<String> methodNames = new ArrayList<>();
+
+    /** Method ids by method name, consulted only when resolving a new IID. */
+    private final Map<String, Integer> methodIds = new HashMap<>();
+
+    /** The methods covered in the current run. */
+    private final BitSet covered = new BitSet();
+
+    /** The ids of the methods covered in the current run, in order of first call. */
+    private int[] coveredIds = new int[64];
+
+    /** The number of methods covered in the current run. */
+    private int numCovered;
+
+    /**
+     * Returns the id of the method invoked by a call event.
+     *
+     * <p>The method name is built and looked up only the first time an IID
+     * is seen.</p>
+     *
+     * @param e the call event
+     * @return the id of the invoked method
+     */
+    public int getMethodId(CallEvent e) {
+        int iid = e.getIid();
+        if (iid >= methodIdByIid.length) {
+            int oldLength = methodIdByIid.length;
+            methodIdByIid = Arrays.copyOf(methodIdByIid, Math.max(iid + 1, oldLength * 2));
+            Arrays.fill(methodIdByIid, oldLength, methodIdByIid.length, UNRESOLVED);
+        }
+        int id = methodIdByIid[iid];
+        if (id == UNRESOLVED) {
+            String name = e.getInvokedMethodName();
+            Integer existing = methodIds.get(name);
+            if (existing == null) {
+                existing = methodNames.size();
+                methodNames.add(name);
+                methodIds.put(name, existing);
+            }
+            id = existing;
+            methodIdByIid[iid] = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of the method invoked by a call event.
+     *
+     * @param e the call event
+     * @return the name of the invoked method
+     */
+    public String getMethodName(CallEvent e) {
+        return methodNames.get(getMethodId(e));
+    }
+
+    /**
+     * Returns the name of a method.
+     *
+     * @param id the method id
+     * @return the name of the method
+     */
+    public String getMethodName(int id) {
+        return methodNames.get(id);
+    }
+
+    /**
+     * Returns the number of distinct methods seen so far.
+     *
+     * @return the number of method ids handed out
+     */
+    public int getNumMethods() {
+        return methodNames.size();
+    }
+
+    /**
+     * Records a call in the current run.
+     *
+     * @param e the call event
+     * @return whether this is the first call of the method in the current run
+     */
+    public boolean cover(CallEvent e) {
+        int id = getMethodId(e);
+        if (covered.get(id)) {
+            return false;
+        }
+        covered.set(id);
+        if (numCovered == coveredIds.length) {
+            coveredIds = Arrays.copyOf(coveredIds, numCovered * 2);
+        }
+        coveredIds[numCovered++] = id;
+        return true;
+    }
+
+    /**
+     * Returns whether a method was covered in the current run.
+     *
+     * @param id the method id
+     * @return whether the method was covered
+     */
+    public boolean isCovered(int id) {
+        return covered.get(id);
+    }
+
+    /**
+     * Returns the number of methods covered in the current run.
+     *
+     * @return the number of covered methods
+     */
+    public int getNumCovered() {
+        return numCovered;
+    }
+
+    /**
+     * Returns the id of the i-th method covered in the current run.
+     *
+     * @param i the index in order of first call
+     * @return the method id
+     */
+    public int getCovered(int i) {
+        if (i >= numCovered) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + numCovered);
+        }
+        return coveredIds[i];
+    }
+
+    /** Clears the methods covered in the current run, touching only the set bits. */
+    public void clear() {
+        for (int i = 0; i < numCovered; i++) {
+            covered.clear(coveredIds[i]);
+        }
+        numCovered = 0;
+    }
+}
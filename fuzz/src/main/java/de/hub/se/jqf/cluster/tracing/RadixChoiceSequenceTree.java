@@ -0,0 +1,647 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A path-compressed (radix) prefix tree over choice type sequences.
+ *
+ * <p>Choice sequences often contain long runs of the same type, e.g. one
+ * INT per element of a fixed-length array. Whereas {@link ChoiceSequenceTree}
+ * creates one node per choice, this tree stores each maximal run of unary
+ * nodes of the same type as a single <em>run</em> with a length. A run is
+ * split only when a sequence branches off or ends in the middle of it, so
+ * the number of runs grows with the branching structure of the tree rather
+ * than with the total length of the sequences, and walking a run during
+ * insertion is a tight loop over the sequence.</p>
+ *
+ * <p>Every node of the uncompressed tree is a position within some run,
+ * and all positions of a run except the last have exactly one child and
+ * no end-of-sequence marker. This is why the statistics, which are all
+ * defined over the uncompressed tree, can be maintained per run and are
+ * identical to those of a {@link ChoiceSequenceTree} with the same
+ * sequences. Likewise, all positions of a run have the same visit count.</p>
+ *
+ * <p>Runs are stored in parallel primitive arrays like the nodes of a
+ * {@link ChoiceSequenceTree}. The root is a run of length zero.</p>
+ */
+public class RadixChoiceSequenceTree implements ChoicePrefixTree {
+
+    /** The ID of the root run. */
+    public static final int ROOT = 0;
+
+    /** The sentinel used for absent children and siblings. */
+    public static final int NONE = -1;
+
+    /** The initial capacity of the run arrays. */
+    protected static final int INITIAL_CAPACITY = 256;
+
+    /** The names of interned choice types, indexed by type code. */
+    protected ArrayList<String> typeNames;
+
+    /** The mapping from choice type names to type codes. */
+    protected Map<String, Integer> typeCodes;
+
+    /** The parent of each run (the root is its own parent). */
+    protected int[] parent;
+
+    /** The depth of the last node of each run. */
+    protected int[] depth;
+
+    /** The number of nodes in each run. */
+    protected int[] runLength;
+
+    /** The first child of each run, or {@link #NONE}. */
+    protected int[] firstChild;
+
+    /** The next sibling of each run, or {@link #NONE}. */
+    protected int[] nextSibling;
+
+    /** The interned choice type of each run. */
+    protected byte[] type;
+
+    /** The number of inserted sequences that passed through each run. */
+    protected int[] visits;
+
+    /** The runs whose last node ends some inserted choice sequence. */
+    protected BitSet endOfSequence;
+
+    /** The number of runs. */
+    protected int numRuns;
+
+    /** The number of nodes of the uncompressed tree. */
+    protected int numNodes;
+
+    /** The number of distinct inserted sequences. */
+    protected int uniquePaths;
+
+    /** The number of end-of-sequence nodes without children. */
+    protected int numLeafs;
+
+    /** The number of nodes with more than one child. */
+    protected int numBranchingNodes;
+
+    /** The sum of the degrees of all nodes with more than one child. */
+    protected long sumBranchingDegree;
+
+    /** The maximum depth of any node. */
+    protected int maxDepth;
+
+    /**
+     * The differences between the number of nodes at each depth and the
+     * previous depth, so that adding a run is O(1) regardless of its length.
+     */
+    protected int[] nodesAtDepthDelta;
+
+    /** The time (in ms) at which the node creation rate was last sampled. */
+    protected long lastRateSampleTime;
+
+    /** The number of nodes when the node creation rate was last sampled. */
+    protected int lastRateSampleSize;
+
+    /** The node creation rate at the last sample. */
+    protected double newNodesPerSecond;
+
+    /** Reusable buffer for the type codes of the sequence being inserted. */
+    private int[] codes = new int[256];
+
+    public RadixChoiceSequenceTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty tree with room for the given number of runs.
+     *
+     * @param initialCapacity the number of runs to allocate space for
+     */
+    public RadixChoiceSequenceTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        this.parent = new int[capacity];
+        this.depth = new int[capacity];
+        this.runLength = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.type = new byte[capacity];
+        this.visits = new int[capacity];
+        this.endOfSequence = new BitSet();
+        this.nodesAtDepthDelta = new int[16];
+
+        this.typeNames = new ArrayList<String>();
+        this.typeCodes = new HashMap<String, Integer>();
+        // Predefined types get the same codes as in ChoiceType
+        for (int code = 0; code < ChoiceType.count(); code++) {
+            internType(ChoiceType.name(code));
+        }
+
+        this.numRuns = 0;
+        newRun(ROOT, ChoiceSequenceTree.ROOT_TYPE, 0, 0);
+        this.numNodes = 1;
+        addNodesAtDepths(0, 0);
+        this.lastRateSampleTime = System.currentTimeMillis();
+        this.lastRateSampleSize = numNodes;
+    }
+
+    /**
+     * Returns the code of a choice type, interning it if it has not been seen before.
+     *
+     * @param typeName the choice type, e.g. "INT" or "CHOOSE"
+     * @return the type code
+     * @throws IllegalStateException if too many distinct types are interned
+     */
+    public int internType(String typeName) {
+        Integer code = typeCodes.get(typeName);
+        if (code == null) {
+            if (typeNames.size() >= ChoiceSequenceTree.MAX_TYPES) {
+                throw new IllegalStateException("Too many distinct choice types: " + typeName);
+            }
+            code = typeNames.size();
+            typeNames.add(typeName);
+            typeCodes.put(typeName, code);
+        }
+        return code;
+    }
+
+    /**
+     * Inserts a choice sequence given as type names.
+     *
+     * @param choiceSequence the choice types, in the order they were made
+     * @return the run whose last node ends the sequence
+     */
+    public int insert(List<String> choiceSequence) {
+        int length = choiceSequence.size();
+        int[] buf = codeBuffer(length);
+        for (int i = 0; i < length; i++) {
+            buf[i] = internType(choiceSequence.get(i));
+        }
+        return insert(buf, length);
+    }
+
+    /**
+     * Inserts the types of a recorded choice sequence.
+     *
+     * @param choices the choices, whose types are {@link ChoiceType} codes
+     * @return the run whose last node ends the sequence
+     */
+    @Override
+    public int insert(ChoiceSequence choices) {
+        int length = choices.size();
+        int[] buf = codeBuffer(length);
+        for (int i = 0; i < length; i++) {
+            buf[i] = choices.getType(i);
+        }
+        return insert(buf, length);
+    }
+
+    /**
+     * Inserts a choice sequence given as interned type codes.
+     *
+     * @param typeCodes the type codes, as returned by {@link #internType(String)}
+     * @param length the number of leading codes that form the sequence
+     * @return the run whose last node ends the sequence
+     */
+    public int insert(int[] typeCodes, int length) {
+        visits[ROOT]++;
+        int run = ROOT;
+        int pos = 0; // The number of nodes of the current run on the path so far
+        int i = 0;
+        while (i < length) {
+            int code = typeCodes[i];
+            if (pos < runLength[run]) {
+                if ((type[run] & 0xFF) == code) {
+                    // Follow the run as far as the sequence repeats its type
+                    int end = i + Math.min(runLength[run] - pos, length - i);
+                    int j = i + 1;
+                    while (j < end && typeCodes[j] == code) {
+                        j++;
+                    }
+                    pos += j - i;
+                    i = j;
+                    continue;
+                }
+                // The sequence branches off in the middle of the run
+                split(run, pos);
+            }
+
+            int child = getChild(run, code);
+            if (child == NONE) {
+                return appendRuns(run, typeCodes, i, length);
+            }
+            run = child;
+            pos = 1;
+            i++;
+            visits[run]++;
+        }
+
+        // The sequence may end in the middle of a run
+        if (pos < runLength[run]) {
+            split(run, pos);
+        }
+        markEndOfSequence(run);
+        return run;
+    }
+
+    /**
+     * Returns the child of a run with a given type, or {@link #NONE}.
+     *
+     * @param run the parent run
+     * @param typeCode the type code of the child
+     * @return the child run, or {@link #NONE} if there is no such child
+     */
+    public int getChild(int run, int typeCode) {
+        byte code = (byte) typeCode;
+        for (int child = firstChild[run]; child != NONE; child = nextSibling[child]) {
+            if (type[child] == code) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Splits a run after its first {@code pos} nodes, such that a new child
+     * run holds the remaining nodes (and takes over the children).
+     */
+    protected void split(int run, int pos) {
+        int tailLength = runLength[run] - pos;
+        int tail = newRun(run, type[run], tailLength, depth[run]);
+        // The sequence being inserted has already visited the run, but leaves it here
+        visits[tail] = visits[run] - 1;
+
+        firstChild[tail] = firstChild[run];
+        for (int child = firstChild[tail]; child != NONE; child = nextSibling[child]) {
+            parent[child] = tail;
+        }
+        if (endOfSequence.get(run)) {
+            endOfSequence.clear(run);
+            endOfSequence.set(tail);
+        }
+
+        runLength[run] = pos;
+        depth[run] -= tailLength;
+        firstChild[run] = tail;
+    }
+
+    /**
+     * Adds the rest of a sequence below a run, as one new run per maximal
+     * group of equal types, and marks the end of the sequence.
+     */
+    protected int appendRuns(int run, int[] typeCodes, int from, int length) {
+        // Update statistics for the parent's change of degree
+        int last = NONE;
+        int deg = 0;
+        for (int child = firstChild[run]; child != NONE; child = nextSibling[child]) {
+            last = child;
+            deg++;
+        }
+        if (deg == 0) {
+            if (endOfSequence.get(run)) {
+                numLeafs--; // No longer a leaf
+            }
+        } else if (deg == 1) {
+            numBranchingNodes++;
+            sumBranchingDegree += 2;
+        } else {
+            sumBranchingDegree++;
+        }
+
+        int i = from;
+        while (i < length) {
+            int code = typeCodes[i];
+            int j = i + 1;
+            while (j < length && typeCodes[j] == code) {
+                j++;
+            }
+            int child = newRun(run, code, j - i, depth[run] + j - i);
+            visits[child] = 1;
+            if (last == NONE) {
+                firstChild[run] = child;
+            } else {
+                nextSibling[last] = child;
+            }
+            numNodes += j - i;
+            addNodesAtDepths(depth[run] + 1, depth[child]);
+
+            run = child;
+            last = NONE;
+            i = j;
+        }
+        markEndOfSequence(run);
+        return run;
+    }
+
+    /** Marks the last node of a run as the end of a choice sequence. */
+    protected void markEndOfSequence(int run) {
+        if (!endOfSequence.get(run)) {
+            endOfSequence.set(run);
+            uniquePaths++;
+            if (firstChild[run] == NONE) {
+                numLeafs++;
+            }
+        }
+    }
+
+    /** Creates a run without children. */
+    protected int newRun(int parentRun, int typeCode, int length, int lastDepth) {
+        if (numRuns == parent.length) {
+            grow();
+        }
+        int run = numRuns++;
+        parent[run] = parentRun;
+        depth[run] = lastDepth;
+        runLength[run] = length;
+        type[run] = (byte) typeCode;
+        firstChild[run] = NONE;
+        nextSibling[run] = NONE;
+        visits[run] = 0;
+        return run;
+    }
+
+    /** Counts one new node at each depth from {@code from} to {@code to} (inclusive). */
+    private void addNodesAtDepths(int from, int to) {
+        if (to + 2 > nodesAtDepthDelta.length) {
+            nodesAtDepthDelta = Arrays.copyOf(nodesAtDepthDelta, Math.max(to + 2, nodesAtDepthDelta.length * 2));
+        }
+        nodesAtDepthDelta[from]++;
+        nodesAtDepthDelta[to + 1]--;
+        if (to > maxDepth) {
+            maxDepth = to;
+        }
+    }
+
+    /** Grows the run arrays geometrically. */
+    protected void grow() {
+        int capacity = parent.length + (parent.length >> 1) + 1;
+        parent = Arrays.copyOf(parent, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        runLength = Arrays.copyOf(runLength, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        type = Arrays.copyOf(type, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+    }
+
+    private int[] codeBuffer(int length) {
+        if (codes.length < length) {
+            codes = new int[Math.max(length, codes.length * 2)];
+        }
+        return codes;
+    }
+
+    @Override
+    public int getPathVisits(ChoiceSequence choices) {
+        int run = ROOT;
+        int pos = 0;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            int code = choices.getType(i);
+            if (pos < runLength[run]) {
+                if ((type[run] & 0xFF) != code) {
+                    break;
+                }
+                pos++;
+            } else {
+                int child = getChild(run, code);
+                if (child == NONE) {
+                    break;
+                }
+                run = child;
+                pos = 1;
+            }
+        }
+        return run == ROOT ? 0 : visits[run];
+    }
+
+    @Override
+    public int findPathDegrees(ChoiceSequence choices, int[] degrees) {
+        int run = ROOT;
+        int pos = 0;
+        int length = choices.size();
+        for (int i = 0; i < length; i++) {
+            int code = choices.getType(i);
+            if (pos < runLength[run]) {
+                if ((type[run] & 0xFF) != code) {
+                    return i;
+                }
+                pos++;
+            } else {
+                int child = getChild(run, code);
+                if (child == NONE) {
+                    return i;
+                }
+                run = child;
+                pos = 1;
+            }
+            // Only the last node of a run can have more or less than one child
+            degrees[i] = pos < runLength[run] ? 1 : deg(run);
+        }
+        return length;
+    }
+
+    /**
+     * Expands this tree into a {@link ChoiceSequenceTree} with the same
+     * sequences, statistics and visit counts.
+     *
+     * <p>The node IDs of the expanded tree follow a breadth-first order over
+     * the runs, so they generally differ from those of a tree built by
+     * inserting the same sequences.</p>
+     *
+     * @return an uncompressed copy of this tree
+     */
+    @Override
+    public ChoiceSequenceTree toChoiceSequenceTree() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree(numNodes);
+        for (int code = 0; code < typeNames.size(); code++) {
+            tree.internType(typeNames.get(code));
+        }
+
+        // The node of the expanded tree for the last node of each run
+        int[] lastNode = new int[numRuns];
+        lastNode[ROOT] = ChoiceSequenceTree.ROOT;
+        tree.visits[ChoiceSequenceTree.ROOT] = visits[ROOT];
+        if (endOfSequence.get(ROOT)) {
+            tree.markEndOfSequence(ChoiceSequenceTree.ROOT);
+        }
+
+        // Parents are expanded before children, even where splits created them later
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int run = queue.poll();
+            for (int child = firstChild[run]; child != NONE; child = nextSibling[child]) {
+                int node = lastNode[run];
+                for (int k = 0; k < runLength[child]; k++) {
+                    node = tree.getOrCreateChild(node, type[child] & 0xFF);
+                    tree.visits[node] = visits[child];
+                }
+                lastNode[child] = node;
+                if (endOfSequence.get(child)) {
+                    tree.markEndOfSequence(node);
+                }
+                queue.add(child);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Returns a copy of this tree, which takes as much memory as this tree.
+     *
+     * @return a copy that shares no state with this tree
+     */
+    @Override
+    public RadixChoiceSequenceTree copy() {
+        RadixChoiceSequenceTree copy = new RadixChoiceSequenceTree(1);
+        copy.typeNames = new ArrayList<>(typeNames);
+        copy.typeCodes = new HashMap<>(typeCodes);
+        copy.parent = Arrays.copyOf(parent, numRuns);
+        copy.depth = Arrays.copyOf(depth, numRuns);
+        copy.runLength = Arrays.copyOf(runLength, numRuns);
+        copy.firstChild = Arrays.copyOf(firstChild, numRuns);
+        copy.nextSibling = Arrays.copyOf(nextSibling, numRuns);
+        copy.type = Arrays.copyOf(type, numRuns);
+        copy.visits = Arrays.copyOf(visits, numRuns);
+        copy.endOfSequence = (BitSet) endOfSequence.clone();
+        copy.numRuns = numRuns;
+        copy.numNodes = numNodes;
+        copy.uniquePaths = uniquePaths;
+        copy.numLeafs = numLeafs;
+        copy.numBranchingNodes = numBranchingNodes;
+        copy.sumBranchingDegree = sumBranchingDegree;
+        copy.maxDepth = maxDepth;
+        copy.nodesAtDepthDelta = nodesAtDepthDelta.clone();
+        copy.lastRateSampleTime = lastRateSampleTime;
+        copy.lastRateSampleSize = lastRateSampleSize;
+        copy.newNodesPerSecond = newNodesPerSecond;
+        return copy;
+    }
+
+    @Override
+    public int getUniquePaths() {
+        return uniquePaths;
+    }
+
+    @Override
+    public int getNumLeafs() {
+        return numLeafs;
+    }
+
+    /** Returns the number of nodes of the uncompressed tree, including the root. */
+    @Override
+    public int size() {
+        return numNodes;
+    }
+
+    /** Returns the number of runs, i.e. the size of the compressed representation. */
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    @Override
+    public double branchDegree() {
+        if (numBranchingNodes > 0) return (double) sumBranchingDegree / numBranchingNodes;
+        else return 0;
+    }
+
+    @Override
+    public int getNumBranchingNodes() {
+        return numBranchingNodes;
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of nodes at a given depth.
+     *
+     * <p>This sums up the per-depth differences, so it takes O(d) time.</p>
+     *
+     * @param d the depth
+     * @return the number of nodes at depth {@code d}
+     */
+    @Override
+    public int getNumNodesAtDepth(int d) {
+        int count = 0;
+        for (int i = 0; i <= d && i < nodesAtDepthDelta.length; i++) {
+            count += nodesAtDepthDelta[i];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the depth histogram, indexed by depth.
+     *
+     * @return an array of length {@code getMaxDepth() + 1}
+     */
+    public int[] getDepthHistogram() {
+        int[] histogram = new int[maxDepth + 1];
+        int count = 0;
+        for (int d = 0; d <= maxDepth; d++) {
+            count += nodesAtDepthDelta[d];
+            histogram[d] = count;
+        }
+        return histogram;
+    }
+
+    @Override
+    public double sampleNewNodesPerSecond(long nowMillis) {
+        long elapsed = nowMillis - lastRateSampleTime;
+        if (elapsed > 0) {
+            newNodesPerSecond = (numNodes - lastRateSampleSize) * 1000.0 / elapsed;
+            lastRateSampleTime = nowMillis;
+            lastRateSampleSize = numNodes;
+        }
+        return newNodesPerSecond;
+    }
+
+    /**
+     * Returns the number of child runs of a run, which is the number of
+     * children of its last node.
+     *
+     * @param run the run ID
+     * @return the number of children
+     */
+    public int deg(int run) {
+        int d = 0;
+        for (int child = firstChild[run]; child != NONE; child = nextSibling[child]) {
+            d++;
+        }
+        return d;
+    }
+
+    /** Returns the number of inserted sequences that passed through a run. */
+    public int getVisits(int run) {
+        return visits[run];
+    }
+
+    /** Returns the parent of a run (the root is its own parent). */
+    public int getParent(int run) {
+        return parent[run];
+    }
+
+    /** Returns the depth of the last node of a run. */
+    public int getDepth(int run) {
+        return depth[run];
+    }
+
+    /** Returns the number of nodes in a run. */
+    public int getRunLength(int run) {
+        return runLength[run];
+    }
+
+    /** Returns the type name of the nodes of a run. */
+    public String getRunType(int run) {
+        return typeNames.get(type[run] & 0xFF);
+    }
+
+    /** Returns whether some inserted choice sequence ends at the last node of a run. */
+    public boolean isEndOfChoiceSequence(int run) {
+        return endOfSequence.get(run);
+    }
+}
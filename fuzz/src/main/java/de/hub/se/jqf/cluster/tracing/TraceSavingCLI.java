@@ -118,8 +118,12 @@ public class TraceSavingCLI implements Runnable{
             // Run the Junit test
             Result res = GuidedFuzzing.run(testClassName, testMethodName, loader, guidance, System.out);
 
-            // Safe ChoiceSequenceTree
-            //guidance.choiceSequenceTree.save(outputDirectory);
+            // Save ChoiceSequenceTree, and write the logs even if that fails
+            try {
+                guidance.saveChoiceSequenceTree();
+            } finally {
+                guidance.closeLogs();
+            }
 
         if (Boolean.getBoolean("jqf.logCoverage")) {
                 System.out.println(String.format("Covered %d edges.",
@@ -1,6 +1,5 @@
 package de.hub.se.jqf.cluster.tracing;
 
-import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 
 import java.io.File;
@@ -33,7 +32,7 @@ public class TraceSavingDriver {
         try {
             // Load the guidance
             String title = testClassName+"#"+testMethodName;
-            ZestGuidance guidance = seedFiles != null ?
+            TraceSavingGuidance guidance = seedFiles != null ?
                     new TraceSavingGuidance(title, null, outputDirectory, seedFiles) :
                     new TraceSavingGuidance(title, null, outputDirectory, new File[]{});
 
@@ -42,6 +41,12 @@ public class TraceSavingDriver {
 
             // Run the Junit test
             GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+            try {
+                guidance.saveChoiceSequenceTree();
+            } finally {
+                // Write the logs even if the tree could not be saved
+                guidance.closeLogs();
+            }
             if (Boolean.getBoolean("jqf.logCoverage")) {
                 System.out.println(String.format("Covered %d edges.",
                         guidance.getTotalCoverage().getNonZeroCount()));
@@ -1,10 +1,10 @@
-
 package de.hub.se.jqf.cluster.tracing;
 
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance;
 import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.AsyncFileWriter;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
 import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
@@ -13,6 +13,7 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.util.*;
 import java.util.function.Consumer;
@@ -23,22 +24,67 @@ import java.util.stream.Collectors;
  * Based on implementation of {@link ExecutionIndexingGuidance}.
  * @author lam
  */
-public class TraceSavingGuidance extends ZestGuidance {
+public class TraceSavingGuidance extends ZestGuidance implements ChoiceObserver {
 
     /** The execution indexing logic. */
     //protected ExecutionIndexingState eiState;
 
-    /** The choice types of the current input */
-    protected ArrayList<String> currentChoiceTypes;
+    /** The choices made while generating the current input (only valid until the next input) */
+    protected ChoiceSequence currentChoices;
+
+    /** The unique choice type and value sequences seen so far */
+    protected ChoiceSequenceStore choiceSequenceStore = new ChoiceSequenceStore();
+
+    /** Whether to mutate saved inputs at the boundaries of their choices **/
+    protected final boolean TYPED_MUTATIONS = Boolean.getBoolean("jqf.cluster.TYPED_MUTATIONS");
+
+    /** The fraction of children of saved inputs that are created by typed mutations **/
+    protected final double TYPED_MUTATION_PROBABILITY = Double.parseDouble(System.getProperty("jqf.cluster.TYPED_MUTATION_PROBABILITY", "0.5"));
+
+    /** Whether to give more children to saved inputs on rarely seen paths of the choice sequence tree **/
+    protected final boolean TREE_SCHEDULING = Boolean.getBoolean("jqf.cluster.TREE_SCHEDULING");
+
+    /** The largest factor by which tree scheduling scales the number of children of an input **/
+    protected final double TREE_MAX_BOOST = Double.parseDouble(System.getProperty("jqf.cluster.TREE_MAX_BOOST", "4"));
+
+    /** The saved input whose tree boost was last computed **/
+    protected Input treeBoostInput;
+
+    /** The tree boost of {@link #treeBoostInput} **/
+    protected double treeBoost = 1.0;
+
+    /** Reusable buffer for the node degrees along the path of a choice sequence **/
+    protected int[] treePathDegrees = new int[256];
 
-    /** The choice values of the current input */
-    protected ArrayList<Integer> currentChoiceValues;
+    /** Reusable buffer for the cumulative weights of the choices of a saved input **/
+    protected double[] choiceWeights = new double[256];
 
-    /** The mapping between choice type sequences and output file */
-    protected HashMap<String, File> csFiles;
+    /** The choices made while generating each saved input, used for typed mutations and tree scheduling **/
+    protected Map<Input, ChoiceSequence> savedInputChoices = new IdentityHashMap<>();
 
-    /** The choice type sequence ids */
-    protected int nextChoiceSequenceId = 0;
+    /** Whether to spend some trials on trimming valid saved inputs at the boundaries of their choices **/
+    protected final boolean TRIM_INPUTS = Boolean.getBoolean("jqf.cluster.TRIM_INPUTS");
+
+    /** The largest fraction of all trials that is spent on trimming **/
+    protected final double TRIM_BUDGET = Double.parseDouble(System.getProperty("jqf.cluster.TRIM_BUDGET", "0.05"));
+
+    /** The trimmer of each valid saved input that has not been trimmed completely **/
+    protected Map<Input, ChoiceTrimmer> trimmers = new IdentityHashMap<>();
+
+    /** The saved input that the current input is a trimmed variant of (null if it is not) **/
+    protected Input trimParent;
+
+    /** The number of trials spent on trimming **/
+    protected long numTrimTrials;
+
+    /** The number of bytes removed from saved inputs by trimming **/
+    protected long numTrimmedBytes;
+
+    /** Whether to write the choice sequence of every execution to a binary log */
+    protected final boolean LOG_CHOICE_SEQUENCES = Boolean.getBoolean("jqf.cluster.LOG_CHOICE_SEQUENCES");
+
+    /** The log of all choice sequences (null unless {@link #LOG_CHOICE_SEQUENCES} is set) */
+    protected ChoiceSequenceLog choiceSequenceLog;
 
     /** The entry point to the test method we are fuzzing. */
     protected String entryPoint;
@@ -46,6 +92,13 @@ public class TraceSavingGuidance extends ZestGuidance {
     /** Whether the entry point has been encountered in the current run */
     protected boolean testEntered;
 
+    /** Whether the call at each IID enters the test method ({@link #ENTRY_CALL}), does not, or is not resolved yet (0) */
+    protected byte[] entryCallByIid = new byte[0];
+
+    private static final byte ENTRY_CALL = 1;
+
+    private static final byte OTHER_CALL = 2;
+
     /** The last event handled by this guidance */
     protected TraceEvent lastEvent;
 
@@ -55,13 +108,20 @@ public class TraceSavingGuidance extends ZestGuidance {
     /** Whether to save traces for executions where no method was covered **/
     protected final boolean LOG_EMPTY_METHOD_COV = Boolean.getBoolean("jqf.cluster.LOG_EMPTY_METHOD_COV");
 
-    /** The set of covered methods **/
-    protected Set<Integer> coveredMethods = new HashSet<Integer>();
+    /** Whether to write the method and branch coverage of every execution to CSV **/
+    protected final boolean LOG_COVERAGE = Boolean.getBoolean("jqf.cluster.LOG_COVERAGE");
+
+    /** The background writer for all CSV and log output (null while the super-class is constructed) **/
+    protected AsyncFileWriter outputWriter =
+            new AsyncFileWriter(Integer.getInteger("jqf.cluster.OUTPUT_QUEUE_CAPACITY", AsyncFileWriter.DEFAULT_QUEUE_CAPACITY));
+
+    /** The methods covered in the current run **/
+    protected MethodCoverage coveredMethods = new MethodCoverage();
 
     /** The output directory **/
     protected File outputDirectory;
 
-    /** The file where all choice sequences are written. **/
+    /** The file where all choice sequences are logged. **/
     protected File choiceSequenceFile;
 
     /** The file where all coverage data is written. */
@@ -70,22 +130,79 @@ public class TraceSavingGuidance extends ZestGuidance {
     /** The file where method coverage data is written. */
     protected File methodCoverageFile;
 
-    /** The map from method names to ids **/
-    protected Map<String, Integer> methodNameToId = new HashMap<String, Integer>();
-
-    /** The method id counter **/
-    protected int nextMethodId = 0;
+    /** The number of method ids written to the method name file **/
+    protected int numLoggedMethods = 0;
 
     /** The file where instruction id to method name mapping data is written. */
     protected File idToMethodNameFile;
 
+    /** The kind of coverage signature to write for every trial ("bitset" or "minhash"; null to disable). */
+    protected final String COVERAGE_SIGNATURES = System.getProperty("jqf.cluster.COVERAGE_SIGNATURES");
+
+    /** The number of bits of bit set coverage signatures. */
+    protected final int COVERAGE_SIGNATURE_BITS = Integer.getInteger("jqf.cluster.COVERAGE_SIGNATURE_BITS", 4096);
+
+    /** The number of bins of MinHash coverage signatures. */
+    protected final int COVERAGE_SIGNATURE_BINS = Integer.getInteger("jqf.cluster.COVERAGE_SIGNATURE_BINS", 64);
+
+    /** The file of coverage signatures by trial number, which replaces the branch lists of {@link #coverageFile} (null if disabled). */
+    protected CoverageSignatureLog coverageSignatureLog;
+
+    /** Whether to store the choice sequence tree with runs of the same type collapsed. */
+    protected final boolean CSTREE_RADIX = Boolean.getBoolean("jqf.cluster.CSTREE_RADIX");
+
+    /** Whether to count the values chosen at each node of the choice sequence tree (not with {@link #CSTREE_RADIX}). */
+    protected final boolean CSTREE_VALUE_SKETCHES = Boolean.getBoolean("jqf.cluster.CSTREE_VALUE_SKETCHES");
+
+    /** The maximum number of bytes of value histograms to keep in memory before spilling them to disk. */
+    protected final long CSTREE_SKETCH_MEMORY = Long.getLong("jqf.cluster.CSTREE_SKETCH_MEMORY", 64L << 20);
+
     /** The choice sequence tree. */
-    protected ChoiceSequenceTree choiceSequenceTree;
+    protected ChoicePrefixTree choiceSequenceTree;
 
     /** The file where the data of the choice sequence tree size is written. */
     protected File csTreeFile;
     protected Date lastEntry;
 
+    /** The file where the choice sequence tree is saved at the end of fuzzing. */
+    protected File csTreeBinaryFile;
+
+    /** The file where the value histograms of the choice sequence tree are saved at the end of fuzzing. */
+    protected File csTreeValuesFile;
+
+    /** Whether to also save the choice sequence tree as a CSV adjacency list. */
+    protected final boolean SAVE_CSTREE_CSV = Boolean.getBoolean("jqf.cluster.SAVE_CSTREE_CSV");
+
+    /** The minimum time (in ms) between two entries in the choice sequence tree data file. */
+    protected final long CSTREE_SAMPLE_PERIOD = Long.getLong("jqf.cluster.CSTREE_SAMPLE_PERIOD", 1000);
+
+    /** The directory shared by several fuzzing processes to which tree snapshots are written (null to disable). */
+    protected final String CSTREE_SNAPSHOT_DIR = System.getProperty("jqf.cluster.CSTREE_SNAPSHOT_DIR");
+
+    /** The minimum time (in ms) between two snapshots of the choice sequence tree. */
+    protected final long CSTREE_SNAPSHOT_PERIOD = Long.getLong("jqf.cluster.CSTREE_SNAPSHOT_PERIOD", 60_000);
+
+    /** The file in the snapshot directory that this process replaces with each snapshot (null if disabled). */
+    protected File csTreeSnapshotFile;
+
+    /** The time (in ms) of the last snapshot. */
+    protected long lastSnapshotTime;
+
+    /** Whether to cluster the choice sequences of valid inputs online. */
+    protected final boolean ONLINE_CLUSTERING = Boolean.getBoolean("jqf.cluster.ONLINE_CLUSTERING");
+
+    /** The maximum number of clusters, beyond which new sequences are only counted as unclustered. */
+    protected final int CLUSTER_MAX = Integer.getInteger("jqf.cluster.CLUSTER_MAX", 10000);
+
+    /** The online clusterer of choice sequences (null if disabled). */
+    protected ChoiceSequenceClusterer clusterer;
+
+    /** The directory where the representative input of each cluster is written. */
+    protected File clusterDirectory;
+
+    /** The file where the data of the cluster growth is written. */
+    protected File clusterFile;
+
     /**
      * Constructs a new guidance instance.
      *
@@ -98,16 +215,23 @@ public class TraceSavingGuidance extends ZestGuidance {
     public TraceSavingGuidance(String testName, Duration duration, File outputDirectory) throws IOException {
         super(testName, duration, outputDirectory);
         this.outputDirectory = outputDirectory;
-        this.choiceSequenceFile = new File(outputDirectory, "choice_sequences.csv");
+        this.choiceSequenceFile = new File(outputDirectory, "choice_sequences.bin");
         this.coverageFile = new File(outputDirectory, "coverage.csv");
         this.methodCoverageFile = new File(outputDirectory, "method_coverage.csv");
         this.idToMethodNameFile = new File(outputDirectory, "iid_to_method_name.csv");
-        this.csFiles = new HashMap<String, File>();
+        if (LOG_CHOICE_SEQUENCES) {
+            this.choiceSequenceLog = new ChoiceSequenceLog(choiceSequenceFile);
+        }
 
-        this.choiceSequenceTree = new ChoiceSequenceTree();
+        this.choiceSequenceTree = createChoiceSequenceTree();
         this.csTreeFile = new File(outputDirectory, "cstree_data.csv");
+        this.csTreeBinaryFile = new File(outputDirectory, "cstree.bin");
+        this.csTreeValuesFile = new File(outputDirectory, "cstree_values.bin");
+        this.csTreeSnapshotFile = createSnapshotFile();
         this.lastEntry = new Date();
-        appendLineToFile(csTreeFile, "timestemp,BranchDegree,UniquePaths,NumLeafs,NumNodes");
+        appendLineToFile(csTreeFile, "timestemp,BranchDegree,UniquePaths,NumLeafs,NumNodes,MaxDepth,NewNodesPerSec");
+        createClusterer();
+        this.coverageSignatureLog = createCoverageSignatureLog();
 
     }
 
@@ -123,18 +247,46 @@ public class TraceSavingGuidance extends ZestGuidance {
      */
     public TraceSavingGuidance(String testName, Duration duration, File outputDirectory, File[] seedInputFiles)
             throws IOException {
+        this(testName, duration, outputDirectory, seedInputFiles, null);
+    }
+
+    /**
+     * Constructs a new guidance instance that inserts into a given choice
+     * sequence tree.
+     *
+     * <p>Guidances running in several threads can share one
+     * {@link ConcurrentChoiceSequenceTree} this way.</p>
+     *
+     * @param testName the name of test to display on the status screen
+     * @param duration the amount of time to run fuzzing for, where
+     *                 {@code null} indicates unlimited time.
+     * @param outputDirectory the directory where fuzzing results will be written
+     * @param seedInputFiles one or more input files to be used as initial inputs
+     * @param choiceSequenceTree the tree to insert into, or null to create one
+     *                           as configured by the system properties
+     * @throws IOException if the output directory could not be prepared
+     */
+    public TraceSavingGuidance(String testName, Duration duration, File outputDirectory, File[] seedInputFiles,
+                               ChoicePrefixTree choiceSequenceTree) throws IOException {
         super(testName, duration, outputDirectory, seedInputFiles);
         this.outputDirectory = outputDirectory;
-        this.choiceSequenceFile = new File(outputDirectory, "choice_sequences.csv");
+        this.choiceSequenceFile = new File(outputDirectory, "choice_sequences.bin");
         this.coverageFile = new File(outputDirectory, "coverage.csv");
         this.methodCoverageFile = new File(outputDirectory, "method_coverage.csv");
         this.idToMethodNameFile = new File(outputDirectory, "iid_to_method_name.csv");
-        this.csFiles = new HashMap<String, File>();
+        if (LOG_CHOICE_SEQUENCES) {
+            this.choiceSequenceLog = new ChoiceSequenceLog(choiceSequenceFile);
+        }
 
-        this.choiceSequenceTree = new ChoiceSequenceTree();
+        this.choiceSequenceTree = choiceSequenceTree != null ? choiceSequenceTree : createChoiceSequenceTree();
         this.csTreeFile = new File(outputDirectory, "cstree_data.csv");
+        this.csTreeBinaryFile = new File(outputDirectory, "cstree.bin");
+        this.csTreeValuesFile = new File(outputDirectory, "cstree_values.bin");
+        this.csTreeSnapshotFile = createSnapshotFile();
         this.lastEntry = startTime;
-        appendLineToFile(csTreeFile, "timestemp,BranchDegree,UniquePaths,NumLeafs,NumNodes");
+        appendLineToFile(csTreeFile, "timestemp,BranchDegree,UniquePaths,NumLeafs,NumNodes,MaxDepth,NewNodesPerSec");
+        createClusterer();
+        this.coverageSignatureLog = createCoverageSignatureLog();
     }
 
     /**
@@ -156,25 +308,194 @@ public class TraceSavingGuidance extends ZestGuidance {
         if (blind) {
             return "Random Fuzzing (+ saving execution traces)\n" +
                     "---------------------------------------\n" +
-                    //"Current unique choice sequences: " + csFiles.keySet().size() + "\n" +
+                    "Current unique choice sequences: " + choiceSequenceStore.getNumUniqueTypeSequences() +
+                    " (" + choiceSequenceStore.getNumUniqueValueSequences() + " with values)\n" +
                     "Current unique valid paths: " + choiceSequenceTree.getUniquePaths() + "\n" +
                     "Current number of leafs: " + choiceSequenceTree.getNumLeafs() + "\n" +
-                    "Current branching degree of tree: " + choiceSequenceTree.branchDegree();
+                    "Current branching degree of tree: " + choiceSequenceTree.branchDegree() + "\n" +
+                    "Current max depth of tree: " + choiceSequenceTree.getMaxDepth() + getClusterTitle() + getTrimTitle();
         } else {
             return  "Semantic Fuzzing with Zest (+ saving execution traces)\n" +
                     "---------------------------------------\n" +
-                    //"Current unique choice sequences: " + csFiles.keySet().size() + "\n" +
+                    "Current unique choice sequences: " + choiceSequenceStore.getNumUniqueTypeSequences() +
+                    " (" + choiceSequenceStore.getNumUniqueValueSequences() + " with values)\n" +
                     "Current unique valid paths: " + choiceSequenceTree.getUniquePaths() + "\n" +
                     "Current number of leafs: " + choiceSequenceTree.getNumLeafs() + "\n" +
-                    "Current branching degree of tree: " + choiceSequenceTree.branchDegree();
+                    "Current branching degree of tree: " + choiceSequenceTree.branchDegree() + "\n" +
+                    "Current max depth of tree: " + choiceSequenceTree.getMaxDepth() + getClusterTitle() + getTrimTitle();
+
+        }
+    }
+
+    /** Returns the status line of input trimming, if enabled. */
+    protected String getTrimTitle() {
+        if (!TRIM_INPUTS) {
+            return "";
+        }
+        return "\nTrimmed bytes: " + numTrimmedBytes + " (in " + numTrimTrials + " trials)";
+    }
+
+    /** Returns the status line of the online clusterer, if enabled. */
+    protected String getClusterTitle() {
+        if (clusterer == null) {
+            return "";
+        }
+        return "\nCurrent clusters: " + clusterer.getNumClusters() + " (" + clusterer.getNumUnclustered() + " unclustered)";
+    }
 
+    /**
+     * Saves the choice sequence tree (and its value histograms, if any) to
+     * the output directory, and takes a final snapshot if snapshots are enabled.
+     *
+     * <p>The value histograms are closed once saved, which deletes their
+     * spill file.</p>
+     *
+     * @throws IOException if the tree could not be written
+     */
+    public void saveChoiceSequenceTree() throws IOException {
+        // Expand a compressed tree only once
+        ChoiceSequenceTree tree = choiceSequenceTree.toChoiceSequenceTree();
+        tree.saveBinary(csTreeBinaryFile);
+        ChoiceValueSketches sketches = tree.getValueSketches();
+        if (sketches != null) {
+            try {
+                sketches.save(csTreeValuesFile);
+            } finally {
+                sketches.close();
+            }
+        }
+        if (SAVE_CSTREE_CSV) {
+            tree.save(outputDirectory);
+        }
+        if (csTreeSnapshotFile != null) {
+            // Fuzzing is over, so the tree does not change while it is written
+            writeSnapshot(tree);
+        }
+        outputWriter.flush();
+    }
+
+    /**
+     * Closes the binary logs that are enabled, i.e. writes the pending
+     * records and the index of the choice sequence log, and the pending
+     * coverage signatures, and then closes {@link #outputWriter}, which
+     * writes the pending lines and stops its thread.
+     *
+     * <p>Every log is closed even if closing an earlier one fails.</p>
+     *
+     * @throws IOException if a log could not be written
+     */
+    public void closeLogs() throws IOException {
+        try {
+            if (choiceSequenceLog != null) {
+                choiceSequenceLog.close();
+            }
+        } finally {
+            try {
+                if (coverageSignatureLog != null) {
+                    coverageSignatureLog.close();
+                }
+            } finally {
+                outputWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces this process's snapshot of the choice sequence tree in the
+     * snapshot directory.
+     *
+     * <p>Snapshots are renamed into place atomically, so the snapshots of
+     * all processes can be merged with {@link ChoiceSequenceTreeMerger} at
+     * any time. A copy of the tree, in its own representation, is written
+     * by {@link #outputWriter}, so the snapshot may not be written yet when
+     * this method returns.</p>
+     *
+     * @throws IOException if an earlier snapshot or line could not be written
+     */
+    public void snapshotChoiceSequenceTree() throws IOException {
+        if (csTreeSnapshotFile != null) {
+            // The tree keeps growing while the snapshot is written
+            writeSnapshot(choiceSequenceTree.copy());
+        }
+    }
+
+    /** Hands a tree that no longer changes to {@link #outputWriter} to replace the snapshot. */
+    private void writeSnapshot(ChoicePrefixTree snapshot) throws IOException {
+        File snapshotFile = csTreeSnapshotFile;
+        outputWriter.execute(() -> ChoiceSequenceTreeIO.writeAtomically(snapshot, snapshotFile));
+        lastSnapshotTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Creates the file of coverage signatures selected by {@link #COVERAGE_SIGNATURES}.
+     *
+     * @return the signature log, or null if disabled
+     * @throws IOException if the file could not be created
+     */
+    protected CoverageSignatureLog createCoverageSignatureLog() throws IOException {
+        if (COVERAGE_SIGNATURES == null) {
+            return null;
+        }
+        File signatureFile = new File(outputDirectory, "coverage_signatures.bin");
+        switch (COVERAGE_SIGNATURES) {
+            case "bitset":
+                return CoverageSignatureLog.bitset(signatureFile, COVERAGE_SIGNATURE_BITS);
+            case "minhash":
+                return CoverageSignatureLog.minHash(signatureFile, COVERAGE_SIGNATURE_BINS);
+            default:
+                throw new IllegalArgumentException("Unknown coverage signature kind: " + COVERAGE_SIGNATURES);
         }
     }
 
+    /**
+     * Creates the clusterer of choice sequences and its output files, if
+     * {@link #ONLINE_CLUSTERING} is enabled.
+     *
+     * @throws IOException if the cluster directory could not be created
+     */
+    protected void createClusterer() throws IOException {
+        if (!ONLINE_CLUSTERING) {
+            return;
+        }
+        this.clusterer = new ChoiceSequenceClusterer(CLUSTER_MAX);
+        this.clusterDirectory = IOUtils.createDirectory(outputDirectory, "clusters");
+        this.clusterFile = new File(outputDirectory, "cluster_data.csv");
+        appendLineToFile(clusterFile, "timestemp,Sequences,Clusters,Unclustered,LargestCluster");
+    }
+
+    /** Creates the choice sequence tree selected by {@link #CSTREE_RADIX} and {@link #CSTREE_VALUE_SKETCHES}. */
+    private ChoicePrefixTree createChoiceSequenceTree() {
+        if (CSTREE_RADIX) {
+            return new RadixChoiceSequenceTree();
+        }
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        if (CSTREE_VALUE_SKETCHES) {
+            tree.setValueSketches(new ChoiceValueSketches(CSTREE_SKETCH_MEMORY, new File(outputDirectory, "cstree_values.spill")));
+        }
+        return tree;
+    }
+
+    /** Returns the snapshot file of this process, creating the snapshot directory if needed. */
+    protected File createSnapshotFile() throws IOException {
+        if (CSTREE_SNAPSHOT_DIR == null) {
+            return null;
+        }
+        File snapshotDirectory = new File(CSTREE_SNAPSHOT_DIR);
+        snapshotDirectory.mkdirs(); // Other processes may be creating it at the same time
+        if (!snapshotDirectory.isDirectory()) {
+            throw new IOException("Could not create snapshot directory " + snapshotDirectory);
+        }
+        // Name snapshots by process (e.g. "12345@host") unless a name is given
+        String name = System.getProperty("jqf.cluster.CSTREE_SNAPSHOT_NAME", ManagementFactory.getRuntimeMXBean().getName());
+        return new File(snapshotDirectory, "cstree-" + name + ".bin");
+    }
+
     @Override
     public InputStream getInput() throws GuidanceException {
         // First, reset method coverage and execution indexing state
-        coveredMethods = new HashSet<Integer>();
+        coveredMethods.clear();
+        currentChoices = null;
+        trimParent = null;
       //  eiState = new ExecutionIndexingState();
         // Unmark "test started"
         testEntered = false;
@@ -183,9 +504,180 @@ public class TraceSavingGuidance extends ZestGuidance {
         return super.getInput();
     }
 
-    public void setCurrentChoiceSequences(ArrayList<String> choiceTypes, ArrayList<Integer> choiceValues) {
-        this.currentChoiceTypes = choiceTypes;
-        this.currentChoiceValues = choiceValues;
+    /**
+     * Creates a mutant child of a saved input.
+     *
+     * <p>If the choices made while generating the parent are known, some
+     * children are created by mutating individual choices in place (see
+     * {@link ChoiceMutator}) rather than random runs of bytes, which keeps
+     * the remaining choices aligned with the bytes they were read from.</p>
+     */
+    @Override
+    protected Input<?> mutateInput(Input parent) {
+        if (TRIM_INPUTS && numTrimTrials < TRIM_BUDGET * numTrials) {
+            Input<?> trimmed = trimInput(parent);
+            if (trimmed != null) {
+                return trimmed;
+            }
+        }
+        ChoiceSequence choices = savedInputChoices.get(parent);
+        if (!TYPED_MUTATIONS || choices == null || !(parent instanceof LinearInput)
+                || random.nextDouble() >= TYPED_MUTATION_PROBABILITY) {
+            return super.mutateInput(parent);
+        }
+        double[] weights = TREE_SCHEDULING ? getChoiceWeights(choices) : null;
+        return new TypedInput((LinearInput) parent, choices, weights, random);
+    }
+
+    /**
+     * Creates the next trimmed variant of a saved input.
+     *
+     * <p>The variant is run like any other child. If it turns out to be
+     * valid, smaller, and to cover the branches that its parent is
+     * responsible for, it replaces the parent (see {@link #handleTrimmedInput}).</p>
+     *
+     * @param parent the saved input to trim
+     * @return the variant, or null if the parent is not trimmed (any more)
+     */
+    protected Input<?> trimInput(Input parent) {
+        ChoiceTrimmer trimmer = trimmers.get(parent);
+        if (trimmer == null) {
+            return null;
+        }
+        byte[] bytes = trimmer.next();
+        if (bytes == null) {
+            trimmers.remove(parent);
+            return null;
+        }
+        numTrimTrials++;
+        trimParent = parent;
+        return new TrimInput((LinearInput) parent, bytes);
+    }
+
+    /**
+     * Replaces the parent of the current, trimmed input by it if the
+     * trimmed input is valid, smaller, and covers every branch the parent
+     * is responsible for.
+     *
+     * @param result the result of running the trimmed input
+     * @throws GuidanceException if the trimmed input could not be saved
+     */
+    protected void handleTrimmedInput(Result result) throws GuidanceException {
+        ChoiceTrimmer trimmer = trimmers.get(trimParent);
+        if (trimmer == null || result != Result.SUCCESS || currentChoices == null
+                || !coversResponsibilitiesOf(trimParent)) {
+            return;
+        }
+        currentInput.gc();
+        int parentSize = trimParent.size();
+        if (currentInput.size() >= parentSize) {
+            return;
+        }
+        numTrimmedBytes += parentSize - currentInput.size();
+        Input parent = trimParent;
+        GuidanceException.wrap(() -> replaceSavedInput(parent));
+
+        ChoiceSequence choices = currentChoices.copy();
+        savedInputChoices.remove(parent);
+        savedInputChoices.put(currentInput, choices);
+        trimmers.remove(parent);
+        trimmer.accept(((LinearInput) currentInput).toByteArray(), choices);
+        trimmers.put(currentInput, trimmer);
+        if (treeBoostInput == parent) {
+            treeBoostInput = null;
+        }
+    }
+
+    /**
+     * Returns the number of children to create from a saved input.
+     *
+     * <p>With tree scheduling, the target of {@link ZestGuidance} is scaled
+     * by up to {@link #TREE_MAX_BOOST} for inputs whose choice types take
+     * a path that few valid inputs have taken (see {@link #getTreeBoost}).</p>
+     */
+    @Override
+    protected int getTargetChildrenForParent(Input parentInput) {
+        int target = super.getTargetChildrenForParent(parentInput);
+        if (!TREE_SCHEDULING) {
+            return target;
+        }
+        // The boost is computed once per parent, since this is called for every child
+        if (parentInput != treeBoostInput) {
+            treeBoostInput = parentInput;
+            treeBoost = getTreeBoost(parentInput);
+        }
+        return (int) Math.ceil(target * treeBoost);
+    }
+
+    /**
+     * Returns how much more a saved input should be fuzzed because of how
+     * rarely its path through the choice sequence tree has been visited.
+     *
+     * <p>The boost is {@link #TREE_MAX_BOOST} for a path visited once and
+     * decays with the logarithm of the visit count of the deepest node of
+     * the path that exists in the tree. Invalid inputs, whose paths are not
+     * in the tree, are not boosted.</p>
+     *
+     * @param input a saved input
+     * @return a factor between 1 and {@link #TREE_MAX_BOOST}
+     */
+    protected double getTreeBoost(Input input) {
+        ChoiceSequence choices = savedInputChoices.get(input);
+        if (choices == null || !input.isValid()) {
+            return 1.0;
+        }
+        int visits = choiceSequenceTree.getPathVisits(choices);
+        if (visits == 0) {
+            return 1.0;
+        }
+        int log2 = 32 - Integer.numberOfLeadingZeros(visits); // 1 for a single visit
+        return 1.0 + (TREE_MAX_BOOST - 1.0) / log2;
+    }
+
+    /**
+     * Returns cumulative weights for choosing which choice of a saved input to mutate.
+     *
+     * <p>Choices after which few distinct choice types have been seen (i.e. whose
+     * tree nodes have a low degree) get a higher weight, as do choices beyond
+     * the part of the path that exists in the tree.</p>
+     *
+     * @param choices the choices of a saved input
+     * @return the cumulative weights, indexed by choice, in a buffer that
+     *         is reused by the next call and may be longer than the choices
+     */
+    protected double[] getChoiceWeights(ChoiceSequence choices) {
+        int size = choices.size();
+        if (treePathDegrees.length < size) {
+            treePathDegrees = new int[Math.max(size, treePathDegrees.length * 2)];
+            choiceWeights = new double[treePathDegrees.length];
+        }
+        int length = choiceSequenceTree.findPathDegrees(choices, treePathDegrees);
+        double[] weights = choiceWeights;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += i < length ? 1.0 / (1 + treePathDegrees[i]) : 1.0;
+            weights[i] = sum;
+        }
+        return weights;
+    }
+
+    /**
+     * Sets the choices made while generating the current input.
+     *
+     * @param choices a view of the recorded choices, which is only valid
+     *                until the next input is generated
+     */
+    public void setCurrentChoices(ChoiceSequence choices) {
+        this.currentChoices = choices;
+    }
+
+    /**
+     * Keeps the view of the choices of the current input, which is only
+     * read once its result is handled.
+     */
+    @Override
+    public void onGenerationEnd(ChoiceSequence choices) {
+        setCurrentChoices(choices);
     }
 
     /*
@@ -208,67 +700,149 @@ public class TraceSavingGuidance extends ZestGuidance {
         super.handleResult(result, error);
         int nonZeroAfter = totalCoverage.getNonZeroCount();
         int newCoverage = nonZeroAfter - nonZeroBefore;
-        // Only log coverage for inputs that increased coverage?
-        /*
-        if (LOG_INCREASING_COV_ONLY && savedInputs.size() <= numSavedInputsBefore) {
-            return;
+
+        if (LOG_COVERAGE) {
+            logCoverage(result, savedInputs.size() > numSavedInputsBefore);
         }
 
-        // Log inputs that covered no methods (i.e., were rejected before reaching the test method)?
-        if (coveredMethods.size() == 0 && !LOG_EMPTY_METHOD_COV) {
-            return;
+        if (coverageSignatureLog != null) {
+            try {
+                coverageSignatureLog.append(result, runCoverage.getCovered());
+            } catch (IOException e) {
+                throw new GuidanceException(e);
+            }
         }
 
-        // Serialize coverage data to CSV
-        String methodsToCSV = coveredMethods.stream()
-                .map(entry -> entry.toString())
-                .collect(Collectors.joining(","));
-        appendLineToFile(methodCoverageFile, result.toString() + "," + methodsToCSV);
+        // Remember where the choices of saved inputs are, so that their children can be mutated per choice
+        if ((TYPED_MUTATIONS || TREE_SCHEDULING || TRIM_INPUTS) && currentChoices != null && savedInputs.size() > numSavedInputsBefore) {
+            savedInputChoices.put(currentInput, currentChoices.copy());
+            if (TRIM_INPUTS && result == Result.SUCCESS && currentInput instanceof LinearInput) {
+                trimmers.put(currentInput, new ChoiceTrimmer(((LinearInput) currentInput).toByteArray(), savedInputChoices.get(currentInput)));
+            }
+        }
+
+        // Keep a trimmed variant in place of its parent if it does the same job
+        if (trimParent != null && savedInputs.size() == numSavedInputsBefore) {
+            handleTrimmedInput(result);
+        }
+
+        // Handle choice sequences (null if generation never completed)
+        if (currentChoices != null) {
+            choiceSequenceStore.addTypeSequence(currentChoices);
+            choiceSequenceStore.addValueSequence(currentChoices);
+
+            if (choiceSequenceLog != null) {
+                LinearInput linearInput = currentInput instanceof LinearInput ? (LinearInput) currentInput : null;
+                try {
+                    if (linearInput != null) {
+                        choiceSequenceLog.append(currentChoices, result, newCoverage, linearInput.getValueArray(), linearInput.size());
+                    } else {
+                        choiceSequenceLog.append(currentChoices, result, newCoverage, null, 0);
+                    }
+                } catch (IOException e) {
+                    throw new GuidanceException(e);
+                }
+            }
+        }
 
-        Collection<Integer> coveredBranches = runCoverage.getCovered(); // sort?
-        String branchesToCSV = coveredBranches.stream()
-                .map(entry -> entry.toString())
-                .collect(Collectors.joining(","));
-        appendLineToFile(coverageFile, result.toString() + "," + branchesToCSV);
-        */
-        /*String choiceSequenceToCSV = choiceRecorder.getRandomChoiceSequence().stream()
-                .map(entry -> entry.toString())
-                .collect(Collectors.joining(","));
-        appendLineToFile(choiceSequenceFile, result.toString() + "," + choiceSequenceToCSV);
-/*
-        // Handle choice sequences
-        String csKey = currentChoiceTypes.toString();
-        if(!csFiles.containsKey(csKey)) {
-            File csFile = new File(outputDirectory, "choice_sequence_" + (nextChoiceSequenceId++) + ".csv");
-            String csTypeSequence = currentChoiceTypes.stream()
-                    .map(entry -> entry.toString())
-                    .collect(Collectors.joining(","));
-            appendLineToFile(csFile, "VALIDITY" + "," + "COV+" + "," + csTypeSequence);
-            csFiles.put(csKey, csFile);
-        }
-        String csValueSequence = currentChoiceValues.stream()
-                .map(entry -> entry.toString())
-                .collect(Collectors.joining(","));
-        appendLineToFile(csFiles.get(csKey), result.ordinal() + "," + newCoverage + "," + csValueSequence);
-*/
         if (result == Result.SUCCESS) {
 
-            choiceSequenceTree.insert(currentChoiceTypes);
+            choiceSequenceTree.insert(currentChoices);
+            if (clusterer != null && currentChoices != null) {
+                int cluster = clusterer.add(currentChoices);
+                if (clusterer.wasNewCluster()) {
+                    File representativeFile = new File(clusterDirectory, "cluster_" + cluster);
+                    GuidanceException.wrap(() -> writeCurrentInputToFile(representativeFile));
+                }
+            }
             Date timestemp = new Date();
 
-            if ((timestemp.getTime() - lastEntry.getTime() >= 1000) || (lastEntry.equals(startTime))) {
+            if ((timestemp.getTime() - lastEntry.getTime() >= CSTREE_SAMPLE_PERIOD) || (lastEntry.equals(startTime))) {
 
                 long elapsed = (timestemp.getTime()-startTime.getTime());
+                double nodesPerSec = choiceSequenceTree.sampleNewNodesPerSecond(timestemp.getTime());
                 appendLineToFile(csTreeFile,
-                        elapsed + "," + choiceSequenceTree.branchDegree() + "," + choiceSequenceTree.getUniquePaths() + "," + choiceSequenceTree.getNumLeafs() + "," + choiceSequenceTree.size());
+                        elapsed + "," + choiceSequenceTree.branchDegree() + "," + choiceSequenceTree.getUniquePaths() + "," + choiceSequenceTree.getNumLeafs() + "," + choiceSequenceTree.size() +
+                                "," + choiceSequenceTree.getMaxDepth() + "," + nodesPerSec);
+                if (clusterer != null) {
+                    appendLineToFile(clusterFile, elapsed + "," + clusterer.getNumSequences() + "," + clusterer.getNumClusters() +
+                            "," + clusterer.getNumUnclustered() + "," + clusterer.getLargestClusterSize());
+                }
                 lastEntry = timestemp;
             }
 
+            if (csTreeSnapshotFile != null && timestemp.getTime() - lastSnapshotTime >= CSTREE_SNAPSHOT_PERIOD) {
+                try {
+                    snapshotChoiceSequenceTree();
+                } catch (IOException e) {
+                    throw new GuidanceException(e);
+                }
+            }
+
 
         }
 
     }
 
+    /** Writes the method and branch coverage of the current run to CSV. */
+    protected void logCoverage(Result result, boolean saved) {
+        // Only log coverage for inputs that increased coverage?
+        if (LOG_INCREASING_COV_ONLY && !saved) {
+            return;
+        }
+
+        // Log inputs that covered no methods (i.e., were rejected before reaching the test method)?
+        if (coveredMethods.getNumCovered() == 0 && !LOG_EMPTY_METHOD_COV) {
+            return;
+        }
+
+        // Serialize coverage data to CSV
+        StringBuilder methodsToCSV = new StringBuilder(result.toString());
+        for (int i = 0; i < coveredMethods.getNumCovered(); i++) {
+            methodsToCSV.append(',').append(coveredMethods.getCovered(i));
+        }
+        appendLineToFile(methodCoverageFile, methodsToCSV.toString());
+
+        // Branch coverage goes to the signature file instead, if enabled
+        if (coverageSignatureLog != null) {
+            return;
+        }
+        Collection<Integer> coveredBranches = runCoverage.getCovered(); // sort?
+        String branchesToCSV = coveredBranches.stream()
+                .map(entry -> entry.toString())
+                .collect(Collectors.joining(","));
+        appendLineToFile(coverageFile, result.toString() + "," + branchesToCSV);
+    }
+
+    /**
+     * Writes a line of text to a given log file.
+     *
+     * <p>Lines are handed to a background writer thread, which keeps the files
+     * open and flushes them in batches. Lines written while the super-class is
+     * still being constructed are written synchronously.</p>
+     */
+    @Override
+    protected void appendLineToFile(File file, String line) throws GuidanceException {
+        if (outputWriter == null) {
+            super.appendLineToFile(file, line);
+            return;
+        }
+        try {
+            outputWriter.append(file, line);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    /**
+     * Blocks until all lines written so far have reached their files.
+     *
+     * @throws IOException if some line could not be written
+     */
+    public void flushOutput() throws IOException {
+        outputWriter.flush();
+    }
+
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
         if (firstThread == null) {
@@ -276,12 +850,34 @@ public class TraceSavingGuidance extends ZestGuidance {
         } else if (firstThread != thread) {
             multiThreaded = true;
         }
-        entryPoint = SingleSnoop.entryPoints.get(thread).replace('.', '/');
-        assert entryPoint != null : ExecutionIndexingGuidance.class + " must be able to determine an entry point";
+        String newEntryPoint = SingleSnoop.entryPoints.get(thread).replace('.', '/');
+        assert newEntryPoint != null : ExecutionIndexingGuidance.class + " must be able to determine an entry point";
+        if (!newEntryPoint.equals(entryPoint)) {
+            entryCallByIid = new byte[0];
+        }
+        entryPoint = newEntryPoint;
 
         return this::handleEvent;
     }
 
+    /**
+     * Returns whether a call enters the test method.
+     *
+     * <p>The invoked method name is built and matched only the first time
+     * an IID is seen. No method IDs are assigned here, so that methods
+     * called before the test do not get one.</p>
+     */
+    protected boolean isEntryCall(CallEvent e) {
+        int iid = e.getIid();
+        if (iid >= entryCallByIid.length) {
+            entryCallByIid = Arrays.copyOf(entryCallByIid, Math.max(iid + 1, entryCallByIid.length * 2));
+        }
+        if (entryCallByIid[iid] == 0) {
+            entryCallByIid[iid] = e.getInvokedMethodName().startsWith(entryPoint) ? ENTRY_CALL : OTHER_CALL;
+        }
+        return entryCallByIid[iid] == ENTRY_CALL;
+    }
+
     /** Handles a trace event generated during test execution */
     @Override
     protected void handleEvent(TraceEvent e) {
@@ -295,11 +891,8 @@ public class TraceSavingGuidance extends ZestGuidance {
         // Do not handle code coverage unless test has been entered
         if (!testEntered) {
             // Check if this event enters the test method
-            if (e instanceof CallEvent) {
-                CallEvent callEvent = (CallEvent) e;
-                if (callEvent.getInvokedMethodName().startsWith(entryPoint)) {
-                    testEntered = true;
-                }
+            if (e instanceof CallEvent && isEntryCall((CallEvent) e)) {
+                testEntered = true;
             }
 
             // If test method has not yet been entered, then ignore code coverage
@@ -310,18 +903,63 @@ public class TraceSavingGuidance extends ZestGuidance {
 
         // Add called method to set of covered methods
         if (e instanceof CallEvent) {
-            CallEvent callEvent = (CallEvent) e;
-            int iid = e.getIid();
-            String methodName = callEvent.getInvokedMethodName();
-            if (!methodNameToId.containsKey(methodName)) {
-                int nextId = this.nextMethodId++;
-                methodNameToId.put(methodName, nextId);
-                appendLineToFile(idToMethodNameFile, nextId + "," + methodName);
+            coveredMethods.cover((CallEvent) e);
+            // Record the names of methods seen for the first time
+            while (numLoggedMethods < coveredMethods.getNumMethods()) {
+                appendLineToFile(idToMethodNameFile, numLoggedMethods + "," + coveredMethods.getMethodName(numLoggedMethods));
+                numLoggedMethods++;
             }
-            this.coveredMethods.add(methodNameToId.get(methodName));
         }
 
         // Delegate to ZestGuidance for handling code coverage
         super.handleEvent(e);
     }
+
+    /**
+     * A variant of a saved input with some of its choices deleted or
+     * shrunk (see {@link ChoiceTrimmer}).
+     */
+    public class TrimInput extends LinearInput {
+
+        public TrimInput(LinearInput parent, byte[] bytes) {
+            super(parent, bytes);
+            this.desc += ",trim";
+        }
+    }
+
+    /** A child input created by mutating the choices of its parent. */
+    public class TypedInput extends LinearInput {
+
+        /**
+         * Creates a child by applying a geometrically distributed number
+         * of choice mutations to a parent.
+         *
+         * @param parent the parent input
+         * @param choices the choices made while generating the parent
+         * @param weights cumulative weights by which to pick the choices
+         *                to mutate, one per choice (the array may be
+         *                longer), or null to pick them uniformly
+         * @param random a pseudo-random number generator
+         */
+        public TypedInput(LinearInput parent, ChoiceSequence choices, double[] weights, Random random) {
+            super(parent);
+            int numMutations = sampleGeometric(random, MEAN_MUTATION_COUNT);
+            int numWeights = choices.size();
+            this.desc += ",typed:" + numMutations;
+            for (int mutation = 1; mutation <= numMutations; mutation++) {
+                if (weights != null && numWeights > 0) {
+                    ChoiceMutator.mutate(values, choices, sample(weights, numWeights, random), random);
+                } else {
+                    ChoiceMutator.mutate(values, choices, random);
+                }
+            }
+        }
+
+        /** Samples an index below {@code n} with probability proportional to its weight. */
+        private int sample(double[] cumulativeWeights, int n, Random random) {
+            double target = random.nextDouble() * cumulativeWeights[n - 1];
+            int i = Arrays.binarySearch(cumulativeWeights, 0, n, target);
+            return i >= 0 ? i : Math.min(-i - 1, n - 1);
+        }
+    }
 }
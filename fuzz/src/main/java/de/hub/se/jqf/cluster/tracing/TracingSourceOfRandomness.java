@@ -1,113 +1,171 @@
 package de.hub.se.jqf.cluster.tracing;
 
-import com.pholser.junit.quickcheck.internal.Ranges;
 import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
 import edu.berkeley.cs.jqf.fuzz.junit.quickcheck.FastSourceOfRandomness;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Random;
-
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A source of randomness that records every choice made by generators.
+ *
+ * <p>Choices are recorded into a {@link ChoiceBuffer}, which may be shared
+ * across trials so that recording does not allocate per choice. Along with
+ * each choice, the range of input bytes that the delegate consumed for it
+ * is recorded. A {@link ChoiceObserver} can also be notified of each choice
+ * as it is made.</p>
+ */
 public class TracingSourceOfRandomness extends FastSourceOfRandomness {
-    private ArrayList<String> choiceTypes;
 
-    // TODO: Wrap choices into Object or some other data structure
-    private ArrayList<Integer> choiceValues;
+    /** The recorded choices. */
+    private final ChoiceBuffer choices;
+
+    /** The source of random bytes, whose read position delimits choices. */
+    private final StreamBackedRandom delegate;
+
+    /** The observer to notify of each choice, or null. */
+    private ChoiceObserver observer;
 
     public TracingSourceOfRandomness(StreamBackedRandom delegate) {
+        this(delegate, new ChoiceBuffer());
+    }
+
+    /**
+     * Creates a source of randomness that records into an existing buffer.
+     *
+     * <p>The buffer is cleared before any choices are recorded.</p>
+     *
+     * @param delegate the source of random bytes
+     * @param choices the buffer to record choices into
+     */
+    public TracingSourceOfRandomness(StreamBackedRandom delegate, ChoiceBuffer choices) {
         super(delegate);
-        this.choiceTypes = new ArrayList<String>();
-        this.choiceValues = new ArrayList<Integer>();
+        this.delegate = delegate;
+        this.choices = choices;
+        this.choices.clear();
+    }
+
+    /**
+     * Sets the observer to notify of each choice as it is made.
+     *
+     * @param observer the observer, or null to notify no one
+     */
+    public void setObserver(ChoiceObserver observer) {
+        this.observer = observer;
     }
 
-    public ArrayList<String> getChoiceTypes() {
-        return choiceTypes;
+    /**
+     * Clears the recorded choices, so that this source can be reused for
+     * the next trial after its delegate has been
+     * {@linkplain StreamBackedRandom#reset(java.io.InputStream) reset}.
+     */
+    public void reset() {
+        choices.clear();
     }
 
-    public ArrayList<Integer> getChoiceValues() {
-        return choiceValues;
+    /**
+     * Returns a read-only view of the choices made so far.
+     *
+     * @return the recorded choices
+     */
+    public ChoiceSequence getChoices() {
+        return choices;
     }
 
     @Override
     public byte nextByte(byte min, byte max) {
+        int start = delegate.getTotalBytesRead();
         byte choice = super.nextByte(min, max);
-        choiceTypes.add("BYTE");
-        choiceValues.add((int) choice);
+        record(ChoiceType.BYTE, choice, start, 0);
         return choice;
     }
 
     @Override
     public short nextShort(short min, short max) {
+        int start = delegate.getTotalBytesRead();
         short choice = super.nextShort(min, max);
-        choiceTypes.add("SHORT");
-        choiceValues.add((int) choice);
+        record(ChoiceType.SHORT, choice, start, 0);
         return choice;
     }
 
     @Override
     public char nextChar(char min, char max) {
+        int start = delegate.getTotalBytesRead();
         char choice = super.nextChar(min, max);
-        choiceTypes.add("CHAR");
-        choiceValues.add((int) choice);
+        record(ChoiceType.CHAR, choice, start, 0);
         return choice;
     }
 
     @Override
     public int nextInt() {
+        int start = delegate.getTotalBytesRead();
         int choice = super.nextInt();
-        choiceTypes.add("INT");
-        choiceValues.add(choice);
+        record(ChoiceType.INT, choice, start, 0);
         return choice;
     }
 
     @Override
     public int nextInt(int n) {
+        int start = delegate.getTotalBytesRead();
         int choice = super.nextInt(n);
-        choiceTypes.add("INT");
-        choiceValues.add(choice);
+        record(ChoiceType.INT, choice, start, n);
         return choice;
     }
 
     @Override
     public int nextInt(int min, int max) {
+        int start = delegate.getTotalBytesRead();
         int choice = super.nextInt(min, max);
-        choiceTypes.add("INT");
-        choiceValues.add(choice);
+        record(ChoiceType.INT, choice, start, 0);
         return choice;
     }
 
     @Override
     public boolean nextBoolean() {
+        int start = delegate.getTotalBytesRead();
         boolean choice = super.nextBoolean();
-        choiceTypes.add("BOOL");
-        choiceValues.add(choice ? 1:0);
+        record(ChoiceType.BOOL, choice ? 1 : 0, start, 2);
         return choice;
     }
 
     @Override
     public long nextLong(long min, long max) {
+        int start = delegate.getTotalBytesRead();
         long choice = super.nextLong(min, max);
-        choiceTypes.add("LONG");
-        System.out.println("WARNING: Downcasting long choice to integer.");
-        choiceValues.add((int) choice);
+        record(ChoiceType.LONG, choice, start, 0);
         return choice;
     }
 
     @Override
     public <T> T choose(Collection<T> items) {
-        Object[] array = items.toArray(new Object[items.size()]);
-        int choice = super.nextInt(array.length);
-        choiceTypes.add("CHOOSE");
-        choiceValues.add(choice);
-        return (T) array[choice];
+        int start = delegate.getTotalBytesRead();
+        int choice = super.nextInt(items.size());
+        record(ChoiceType.CHOOSE, choice, start, items.size());
+        if (items instanceof List) {
+            return ((List<T>) items).get(choice);
+        }
+        // Walk to the chosen element instead of copying the collection into an array
+        Iterator<T> it = items.iterator();
+        for (int i = 0; i < choice; i++) {
+            it.next();
+        }
+        return it.next();
     }
 
     @Override
     public <T> T choose(T[] items) {
+        int start = delegate.getTotalBytesRead();
         int choice = super.nextInt(items.length);
-        choiceTypes.add("CHOOSE");
-        choiceValues.add(choice);
+        record(ChoiceType.CHOOSE, choice, start, items.length);
         return items[choice];
     }
 
+    /** Records a choice along with the input bytes read for it since {@code start}. */
+    private void record(byte type, long value, int start, int bound) {
+        choices.add(type, value, start, delegate.getTotalBytesRead() - start, bound);
+        if (observer != null) {
+            observer.onChoice(type, value, start);
+        }
+    }
 }
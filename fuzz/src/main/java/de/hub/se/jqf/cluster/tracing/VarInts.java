@@ -0,0 +1,98 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Static helpers for LEB128-style variable-length integer encoding.
+ *
+ * <p>Small non-negative values take a single byte; signed values
+ * should be zig-zag encoded first using {@link #zigZag(long)}.</p>
+ */
+public final class VarInts {
+
+    /** The maximum number of bytes needed to encode a 64-bit value. */
+    public static final int MAX_VARLONG_SIZE = 10;
+
+    /** The maximum number of bytes needed to encode a 32-bit value. */
+    public static final int MAX_VARINT_SIZE = 5;
+
+    private VarInts() {
+
+    }
+
+    /**
+     * Writes an unsigned variable-length integer.
+     *
+     * @param buf the buffer to write to
+     * @param value the value, interpreted as unsigned
+     */
+    public static void putVarInt(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * Writes an unsigned variable-length long.
+     *
+     * @param buf the buffer to write to
+     * @param value the value, interpreted as unsigned
+     */
+    public static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     *
+     * @param buf the buffer to read from
+     * @return the decoded value
+     * @throws IllegalArgumentException if the encoding is malformed
+     */
+    public static int getVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads an unsigned variable-length long.
+     *
+     * @param buf the buffer to read from
+     * @return the decoded value
+     * @throws IllegalArgumentException if the encoding is malformed
+     */
+    public static long getVarLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+
+    /** Maps signed values to unsigned ones so that small magnitudes stay small. */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** Inverse of {@link #zigZag(long)}. */
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
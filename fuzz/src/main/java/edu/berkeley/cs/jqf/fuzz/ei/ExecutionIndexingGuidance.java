@@ -48,7 +48,6 @@ import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Prefix;
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Suffix;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
-import edu.berkeley.cs.jqf.fuzz.util.Coverage;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
 import edu.berkeley.cs.jqf.fuzz.util.ProducerHashMap;
 import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
@@ -189,6 +188,30 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
 
                 return value;
             }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+
+                // lastEvent must not be null
+                if (lastEvent == null) {
+                    throw new GuidanceException("Could not compute execution index; no instrumentation?");
+                }
+
+                assert currentInput instanceof MappedInput : "This guidance should only mutate MappedInput(s)";
+
+                MappedInput mappedInput = (MappedInput) currentInput;
+
+                // Each byte has its own execution index, as computing one advances the counter of the last event
+                for (int i = 0; i < len; i++) {
+                    ExecutionIndex executionIndex = eiState.getExecutionIndex(lastEvent);
+                    int value = mappedInput.getOrGenerateFresh(executionIndex, random);
+                    if (value < 0) {
+                        return i > 0 ? i : -1;
+                    }
+                    b[off + i] = (byte) value;
+                }
+                return len;
+            }
         };
     }
 
@@ -256,8 +279,8 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
                         // Third, store basic book-keeping data
                         currentInput.id = otherIdx;
                         currentInput.saveFile = otherInput.saveFile;
-                        currentInput.coverage = new Coverage(runCoverage);
-                        currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
+                        currentInput.coverage = runCoverage.snapshot();
+                        currentInput.nonZeroCoverage = currentInput.coverage.getNonZeroCount();
                         currentInput.offspring = 0;
                         savedInputs.get(currentParentInputIdx).offspring += 1;
 
@@ -29,11 +29,13 @@
  */
 package edu.berkeley.cs.jqf.fuzz.ei;
 
+import edu.berkeley.cs.jqf.fuzz.guidance.DirectInputStream;
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageSnapshot;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
@@ -92,6 +94,9 @@ public class ZestGuidance implements Guidance {
     /** Current input that's running -- valid after getInput() and before handleResult(). */
     protected Input<?> currentInput;
 
+    /** Stream reading directly from currentInput, if it is a (non-seed) linear input -- else null. */
+    protected LinearInputStream currentStream;
+
     /** Index of currentInput in the savedInputs -- valid after seeds are processed (OK if this is inaccurate). */
     protected int currentParentInputIdx = 0;
 
@@ -206,6 +211,9 @@ public class ZestGuidance implements Guidance {
     /** Max input size to generate. */
     protected final int MAX_INPUT_SIZE = Integer.getInteger("jqf.ei.MAX_INPUT_SIZE", 10240);
 
+    /** The number of bytes to allocate for a new input, which grows as bytes are requested. */
+    protected static final int INITIAL_CAPACITY = 64;
+
     /** Whether to generate EOFs when we run out of bytes in the input, instead of randomly generating new bytes. **/
     protected final boolean GENERATE_EOF_WHEN_OUT = Boolean.getBoolean("jqf.ei.GENERATE_EOF_WHEN_OUT");
 
@@ -445,7 +453,7 @@ public class ZestGuidance implements Guidance {
         this.blind = blind;
     }
 
-    private int getTargetChildrenForParent(Input parentInput) {
+    protected int getTargetChildrenForParent(Input parentInput) {
         // Baseline is a constant
         int target = NUM_CHILDREN_BASELINE;
 
@@ -512,6 +520,12 @@ public class ZestGuidance implements Guidance {
      * @return an InputStream that delivers parameters to the generators
      */
     protected InputStream createParameterStream() {
+        // Linear inputs in memory can be read directly from their array
+        if (currentInput instanceof LinearInput && !(currentInput instanceof SeedInput)) {
+            currentStream = new LinearInputStream((LinearInput) currentInput);
+            return currentStream;
+        }
+
         // Return an input stream that reads bytes from a linear array
         return new InputStream() {
             int bytesRead = 0;
@@ -527,6 +541,19 @@ public class ZestGuidance implements Guidance {
                 // infoLog("read(%d) = %d", bytesRead, ret);
                 return ret;
             }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                assert currentInput instanceof LinearInput : "ZestGuidance should only mutate LinearInput(s)";
+
+                // Copy a block of bytes from the list, or else generate them randomly
+                LinearInput linearInput = (LinearInput) currentInput;
+                int ret = linearInput.read(bytesRead, b, off, len, random);
+                if (ret > 0) {
+                    bytesRead += ret;
+                }
+                return ret;
+            }
         };
     }
 
@@ -573,7 +600,7 @@ public class ZestGuidance implements Guidance {
 
                 // Fuzz it to get a new input
                 // infoLog("Mutating input: %s", parent.desc);
-                currentInput = parent.fuzz(random);
+                currentInput = mutateInput(parent);
                 numChildrenGeneratedForCurrentParentInput++;
 
                 // Write it to disk for debugging
@@ -591,6 +618,19 @@ public class ZestGuidance implements Guidance {
         return createParameterStream();
     }
 
+    /**
+     * Creates a mutant child of a saved input.
+     *
+     * <p>Sub-classes may override this to apply mutations that use
+     * additional knowledge about the parent input.</p>
+     *
+     * @param parent the saved input to mutate
+     * @return a new input derived from the parent
+     */
+    protected Input<?> mutateInput(Input parent) {
+        return parent.fuzz(random);
+    }
+
     @Override
     public boolean hasInput() {
         Date now = new Date();
@@ -608,6 +648,12 @@ public class ZestGuidance implements Guidance {
             // Stop timeout handling
             this.runStart = null;
 
+            // Account for the bytes read directly from the current input
+            if (currentStream != null) {
+                currentStream.sync();
+                currentStream = null;
+            }
+
             // Increment run count
             this.numTrials++;
 
@@ -624,17 +670,19 @@ public class ZestGuidance implements Guidance {
                 int nonZeroBefore = totalCoverage.getNonZeroCount();
                 int validNonZeroBefore = validCoverage.getNonZeroCount();
 
+                // Update total coverage, collecting the newly covered branches
+                Collection<Integer> newCoverage = new ArrayList<>();
+                Collection<Integer> newValidCoverage = new ArrayList<>();
+                boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage, newCoverage);
+                if (valid) {
+                    validCoverage.updateBits(runCoverage, newValidCoverage);
+                }
+
                 // Compute a list of keys for which this input can assume responsiblity.
                 // Newly covered branches are always included.
                 // Existing branches *may* be included, depending on the heuristics used.
                 // A valid input will steal responsibility from invalid inputs
-                Set<Object> responsibilities = computeResponsibilities(valid);
-
-                // Update total coverage
-                boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage);
-                if (valid) {
-                    validCoverage.updateBits(runCoverage);
-                }
+                Set<Object> responsibilities = computeResponsibilities(newCoverage, newValidCoverage);
 
                 // Coverage after
                 int nonZeroAfter = totalCoverage.getNonZeroCount();
@@ -752,22 +800,19 @@ public class ZestGuidance implements Guidance {
     }
 
 
-    // Compute a set of branches for which the current input may assume responsibility
-    private Set<Object> computeResponsibilities(boolean valid) {
+    // Compute a set of branches for which the current input may assume responsibility,
+    // given the branches it newly covered in total and, if valid, among valid inputs
+    private Set<Object> computeResponsibilities(Collection<?> newCoverage, Collection<?> newValidCoverage) {
         Set<Object> result = new HashSet<>();
 
         // This input is responsible for all new coverage
-        Collection<?> newCoverage = runCoverage.computeNewCoverage(totalCoverage);
         if (newCoverage.size() > 0) {
             result.addAll(newCoverage);
         }
 
         // If valid, this input is responsible for all new valid coverage
-        if (valid) {
-            Collection<?> newValidCoverage = runCoverage.computeNewCoverage(validCoverage);
-            if (newValidCoverage.size() > 0) {
-                result.addAll(newValidCoverage);
-            }
+        if (newValidCoverage.size() > 0) {
+            result.addAll(newValidCoverage);
         }
 
         // Perhaps it can also steal responsibility from other inputs
@@ -814,6 +859,11 @@ public class ZestGuidance implements Guidance {
 
     protected void writeCurrentInputToFile(File saveFile) throws IOException {
         try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(saveFile))) {
+            if (currentInput instanceof LinearInput) {
+                LinearInput linearInput = (LinearInput) currentInput;
+                out.write(linearInput.values, 0, linearInput.numValues);
+                return;
+            }
             for (Integer b : currentInput) {
                 assert (b >= 0 && b < 256);
                 out.write(b);
@@ -844,8 +894,8 @@ public class ZestGuidance implements Guidance {
         // Third, store basic book-keeping data
         currentInput.id = newInputIdx;
         currentInput.saveFile = saveFile;
-        currentInput.coverage = new Coverage(runCoverage);
-        currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
+        currentInput.coverage = runCoverage.snapshot();
+        currentInput.nonZeroCoverage = currentInput.coverage.getNonZeroCount();
         currentInput.offspring = 0;
         savedInputs.get(currentParentInputIdx).offspring += 1;
 
@@ -867,6 +917,53 @@ public class ZestGuidance implements Guidance {
 
     }
 
+    /**
+     * Returns whether the current run covered every branch that a saved
+     * input is responsible for.
+     *
+     * @param saved a saved input
+     * @return whether the current input could take over its responsibilities
+     */
+    protected boolean coversResponsibilitiesOf(Input<?> saved) {
+        return runCoverage.coversAll(saved.responsibilities);
+    }
+
+    /**
+     * Replaces a saved input by the current input, e.g. because the current
+     * input is a smaller variant of it.
+     *
+     * <p>The current input takes over the ID, save file, responsibilities
+     * and statistics of the saved input, and its position in the queue. Its
+     * coverage is that of the current run. The caller must ensure that the
+     * current run covered all of the saved input's responsibilities (see
+     * {@link #coversResponsibilitiesOf(Input)}).</p>
+     *
+     * @param saved the saved input to replace
+     * @throws IOException if the save file could not be written
+     */
+    protected void replaceSavedInput(Input<?> saved) throws IOException {
+        int idx = savedInputs.indexOf(saved);
+        if (idx < 0) {
+            throw new IllegalArgumentException("Input is not saved: " + saved.desc);
+        }
+
+        // Trim input (remove unused keys)
+        currentInput.gc();
+
+        writeCurrentInputToFile(saved.saveFile);
+        currentInput.id = saved.id;
+        currentInput.saveFile = saved.saveFile;
+        currentInput.coverage = runCoverage.snapshot();
+        currentInput.nonZeroCoverage = currentInput.coverage.getNonZeroCount();
+        currentInput.offspring = saved.offspring;
+        currentInput.valid = saved.valid;
+        currentInput.responsibilities = saved.responsibilities;
+        for (Object b : saved.responsibilities) {
+            responsibleInputs.put(b, currentInput);
+        }
+        savedInputs.set(idx, currentInput);
+    }
+
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
         if (firstThread == null) {
@@ -945,14 +1042,14 @@ public class ZestGuidance implements Guidance {
          * <p>This field is modified by the construction and mutation
          * operations.</p>
          */
-        String desc;
+        protected String desc;
 
         /**
-         * The run coverage for this input, if the input is saved.
+         * A snapshot of the run coverage for this input, if the input is saved.
          *
          * <p>This field is null for inputs that are not saved.</p>
          */
-        Coverage coverage = null;
+        CoverageSnapshot coverage = null;
 
         /**
          * The number of non-zero elements in `coverage`.
@@ -960,7 +1057,7 @@ public class ZestGuidance implements Guidance {
          * <p>This field is -1 for inputs that are not saved.</p>
          *
          * <p></p>When this field is non-negative, the information is
-         * redundant (can be computed using {@link Coverage#getNonZeroCount()}),
+         * redundant (can be computed using {@link CoverageSnapshot#getNonZeroCount()}),
          * but we store it here for performance reasons.</p>
          */
         int nonZeroCoverage = -1;
@@ -1027,6 +1124,15 @@ public class ZestGuidance implements Guidance {
             return responsibilities.size() > 0;
         }
 
+        /**
+         * Returns whether this input resulted in a valid run.
+         *
+         * @return whether or not this input is valid
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
 
         /**
          * Sample from a geometric distribution with given mean.
@@ -1046,30 +1152,50 @@ public class ZestGuidance implements Guidance {
 
     public class LinearInput extends Input<Integer> {
 
-        /** A list of byte values (0-255) ordered by their index. */
-        protected ArrayList<Integer> values;
+        /**
+         * The byte values ordered by their index.
+         *
+         * <p>Only the first {@link #numValues} bytes are part of the input;
+         * the rest is spare capacity for freshly generated bytes.</p>
+         */
+        protected byte[] values;
+
+        /** The number of byte values in this input. */
+        protected int numValues = 0;
 
         /** The number of bytes requested so far */
         protected int requested = 0;
 
         public LinearInput() {
             super();
-            this.values = new ArrayList<>();
+            this.values = new byte[INITIAL_CAPACITY];
         }
 
         public LinearInput(LinearInput other) {
+            this(other, Arrays.copyOf(other.values, other.numValues));
+        }
+
+        /**
+         * Creates a child of an existing input with the given bytes.
+         *
+         * @param other the parent input
+         * @param values the byte values of the child, which are kept
+         *               and must not be modified by the caller
+         */
+        protected LinearInput(LinearInput other, byte[] values) {
             super(other);
-            this.values = new ArrayList<>(other.values);
+            this.values = values;
+            this.numValues = values.length;
         }
 
 
         @Override
         public int getOrGenerateFresh(Integer key, Random random) {
             // Otherwise, make sure we are requesting just beyond the end-of-list
-            // assert (key == values.size());
+            // assert (key == numValues);
             if (key != requested) {
                 throw new IllegalStateException(String.format("Bytes from linear input out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", numValues, key));
             }
 
             // Don't generate over the limit
@@ -1078,10 +1204,10 @@ public class ZestGuidance implements Guidance {
             }
 
             // If it exists in the list, return it
-            if (key < values.size()) {
+            if (key < numValues) {
                 requested++;
                 // infoLog("Returning old byte at key=%d, total requested=%d", key, requested);
-                return values.get(key);
+                return values[key] & 0xFF;
             }
 
             // Handle end of stream
@@ -1090,16 +1216,152 @@ public class ZestGuidance implements Guidance {
             } else {
                 // Just generate a random input
                 int val = random.nextInt(256);
-                values.add(val);
+                append(val);
                 requested++;
                 // infoLog("Generating fresh byte at key=%d, total requested=%d", key, requested);
                 return val;
             }
         }
 
+        /**
+         * Reads a block of bytes, as repeated calls to {@link #getOrGenerateFresh}
+         * would, except that fresh bytes are generated four at a time.
+         *
+         * @param key    the index of the first byte to read
+         * @param buf    the buffer into which to read the bytes
+         * @param off    the offset in {@code buf} at which to store the first byte
+         * @param len    the number of bytes to read
+         * @param random the PRNG
+         * @return the number of bytes read, which is less than {@code len} only
+         *         at the end of the input, or -1 if no byte could be read
+         */
+        public int read(int key, byte[] buf, int off, int len, Random random) {
+            if (key != requested) {
+                throw new IllegalStateException(String.format("Bytes from linear input out of order. " +
+                        "Size = %d, Key = %d", numValues, key));
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            // Don't generate over the limit
+            int count = Math.min(len, MAX_INPUT_SIZE - requested);
+
+            // Copy what exists in the list
+            int existing = Math.max(0, Math.min(count, numValues - requested));
+            System.arraycopy(values, requested, buf, off, existing);
+            requested += existing;
+
+            // Generate the rest, unless we are to handle end of stream
+            if (existing < count && !GENERATE_EOF_WHEN_OUT) {
+                int fresh = count - existing;
+                ensureCapacity(numValues + fresh);
+                generateFresh(numValues, fresh, random);
+                System.arraycopy(values, numValues, buf, off + existing, fresh);
+                numValues += fresh;
+                requested += fresh;
+                return count;
+            }
+            return existing > 0 ? existing : -1;
+        }
+
+        /**
+         * Makes bytes available to be read directly from {@link #values},
+         * as repeated calls to {@link #getOrGenerateFresh} would.
+         *
+         * @param position the number of bytes read so far
+         * @param needed   the number of bytes to make available from {@code position}
+         * @param random   the PRNG
+         * @return the number of bytes available from {@code position}, which is
+         *         less than {@code needed} only at the end of the input
+         */
+        protected int fill(int position, int needed, Random random) {
+            requested = position;
+
+            // Don't generate over the limit
+            int limit = Math.min(position + needed, MAX_INPUT_SIZE);
+            if (limit > numValues && !GENERATE_EOF_WHEN_OUT) {
+                ensureCapacity(limit);
+                generateFresh(numValues, limit - numValues, random);
+                numValues = limit;
+            }
+            return Math.min(numValues, MAX_INPUT_SIZE) - position;
+        }
+
+        /** Fills part of {@link #values} with random bytes, drawing four at a time. */
+        private void generateFresh(int offset, int count, Random random) {
+            int i = 0;
+            while (i < count) {
+                int rnd = random.nextInt();
+                for (int n = Math.min(count - i, Integer.BYTES); n > 0; n--, rnd >>>= 8) {
+                    values[offset + i++] = (byte) rnd;
+                }
+            }
+        }
+
+        /**
+         * Adds a byte value to the end of this input, growing its capacity
+         * if needed.
+         *
+         * @param value the byte value (0-255)
+         */
+        protected void append(int value) {
+            ensureCapacity(numValues + 1);
+            values[numValues++] = (byte) value;
+        }
+
+        /** Grows {@link #values} to hold at least a given number of bytes. */
+        protected void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, Math.max(capacity, Math.max(2 * values.length, INITIAL_CAPACITY)));
+            }
+        }
+
         @Override
         public int size() {
-            return values.size();
+            return numValues;
+        }
+
+        /**
+         * Returns a read-only view of the byte values of this input.
+         *
+         * @return the byte values (0-255) ordered by their index
+         */
+        public List<Integer> getValues() {
+            return new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    if (index >= numValues) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numValues);
+                    }
+                    return values[index] & 0xFF;
+                }
+
+                @Override
+                public int size() {
+                    return numValues;
+                }
+            };
+        }
+
+        /**
+         * Returns a copy of the byte values of this input.
+         *
+         * @return the byte values ordered by their index
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(values, numValues);
+        }
+
+        /**
+         * Returns the array holding the byte values of this input, without
+         * copying it. Only its first {@link #size()} bytes belong to the
+         * input, and it must not be modified.
+         *
+         * @return the byte values ordered by their index, followed by spare capacity
+         */
+        public byte[] getValueArray() {
+            return values;
         }
 
         /**
@@ -1111,12 +1373,14 @@ public class ZestGuidance implements Guidance {
          */
         @Override
         public void gc() {
-            // Remove elements beyond "requested"
-            values = new ArrayList<>(values.subList(0, requested));
-            values.trimToSize();
+            // Remove elements beyond "requested", and any spare capacity
+            if (values.length != requested) {
+                values = Arrays.copyOf(values, requested);
+            }
+            numValues = requested;
 
             // Inputs should not be empty, otherwise mutations don't work
-            if (values.isEmpty()) {
+            if (numValues == 0) {
                 throw new IllegalArgumentException("Input is either empty or nothing was requested from the input generator.");
             }
         }
@@ -1135,7 +1399,7 @@ public class ZestGuidance implements Guidance {
             for (int mutation = 1; mutation <= numMutations; mutation++) {
 
                 // Select a random offset and size
-                int offset = random.nextInt(newInput.values.size());
+                int offset = random.nextInt(newInput.numValues);
                 int mutationSize = sampleGeometric(random, MEAN_MUTATION_SIZE);
 
                 // desc += String.format(":%d@%d", mutationSize, idx);
@@ -1143,13 +1407,13 @@ public class ZestGuidance implements Guidance {
                 // Mutate a contiguous set of bytes from offset
                 for (int i = offset; i < offset + mutationSize; i++) {
                     // Don't go past end of list
-                    if (i >= newInput.values.size()) {
+                    if (i >= newInput.numValues) {
                         break;
                     }
 
                     // Otherwise, apply a random mutation
                     int mutatedValue = setToZero ? 0 : random.nextInt(256);
-                    newInput.values.set(i, mutatedValue);
+                    newInput.values[i] = (byte) mutatedValue;
                 }
             }
 
@@ -1158,7 +1422,36 @@ public class ZestGuidance implements Guidance {
 
         @Override
         public Iterator<Integer> iterator() {
-            return values.iterator();
+            return getValues().iterator();
+        }
+    }
+
+    /**
+     * A stream over the bytes of a linear input, which a
+     * {@link edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom}
+     * reads directly from its array.
+     */
+    public class LinearInputStream extends DirectInputStream {
+
+        /** The input being read. */
+        protected final LinearInput input;
+
+        public LinearInputStream(LinearInput input) {
+            super(input.values, Math.min(input.numValues, MAX_INPUT_SIZE));
+            this.input = input;
+        }
+
+        @Override
+        protected int refill(int needed) {
+            int available = input.fill(pos, needed, random);
+            buf = input.values;
+            count = pos + available;
+            return available;
+        }
+
+        /** Marks the bytes read so far as requested from the input. */
+        public void sync() {
+            input.requested = pos;
         }
     }
 
@@ -1183,21 +1476,51 @@ public class ZestGuidance implements Guidance {
 
             }
 
-            // assert (key == values.size())
-            if (key != values.size() && value != -1) {
+            // assert (key == numValues)
+            if (key != numValues && value != -1) {
                 throw new IllegalStateException(String.format("Bytes from seed out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", numValues, key));
             }
 
             if (value >= 0) {
                 requested++;
-                values.add(value);
+                append(value);
             }
 
             // If value is -1, then it is returned (as EOF) but not added to the list
             return value;
         }
 
+        @Override
+        public int read(int key, byte[] buf, int off, int len, Random random) {
+            if (key != numValues) {
+                throw new IllegalStateException(String.format("Bytes from seed out of order. " +
+                        "Size = %d, Key = %d", numValues, key));
+            }
+
+            // Read until the block is full or the seed file ends
+            int count = 0;
+            try {
+                while (count < len) {
+                    int n = in.read(buf, off + count, len - count);
+                    if (n < 0) {
+                        break;
+                    }
+                    count += n;
+                }
+            } catch (IOException e) {
+                throw new GuidanceException("Error reading from seed file: " + seedFile.getName(), e);
+            }
+
+            ensureCapacity(numValues + count);
+            System.arraycopy(buf, off, values, numValues, count);
+            numValues += count;
+            requested += count;
+
+            // If nothing was read, then EOF is returned
+            return count > 0 || len == 0 ? count : -1;
+        }
+
         @Override
         public void gc() {
             super.gc();
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.guidance;
+
+import java.io.InputStream;
+
+/**
+ * An input stream whose bytes can be read directly from its buffer.
+ *
+ * <p>A {@link StreamBackedRandom} reading from such a stream assembles
+ * its values straight from {@link #buf} and only calls {@link #refill}
+ * when the buffer runs out, instead of copying every few bytes through
+ * {@link InputStream#read(byte[], int, int)}. The stream can still be
+ * read like any other stream.</p>
+ */
+public abstract class DirectInputStream extends InputStream {
+
+    /** The buffer holding the bytes of the input. */
+    protected byte[] buf;
+
+    /** The index of the next byte to read from {@link #buf}. */
+    protected int pos;
+
+    /** One greater than the index of the last byte available in {@link #buf}. */
+    protected int count;
+
+    /**
+     * Creates a stream over some initially available bytes.
+     *
+     * @param buf the buffer holding the bytes of the input
+     * @param count the number of bytes available in {@code buf}
+     */
+    protected DirectInputStream(byte[] buf, int count) {
+        this.buf = buf;
+        this.count = count;
+    }
+
+    /**
+     * Makes more bytes available from {@link #pos}, possibly replacing
+     * {@link #buf} and updating {@link #count}.
+     *
+     * @param needed the number of bytes to make available from {@link #pos}
+     * @return the number of bytes available from {@link #pos}, which is
+     *         less than {@code needed} only at the end of the input
+     */
+    protected abstract int refill(int needed);
+
+    /**
+     * Makes sure that some bytes are available from {@link #pos}.
+     *
+     * @param needed the number of bytes to make available
+     * @return the number of bytes available, which is less than
+     *         {@code needed} only at the end of the input
+     */
+    final int require(int needed) {
+        int available = count - pos;
+        return available >= needed ? available : refill(needed);
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     *
+     * @return the number of bytes read so far
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    @Override
+    public int read() {
+        if (require(1) < 1) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = Math.min(len, require(len));
+        if (n <= 0) {
+            return -1;
+        }
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+}
@@ -32,8 +32,6 @@ package edu.berkeley.cs.jqf.fuzz.guidance;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Random;
 
 
@@ -47,11 +45,15 @@ import java.util.Random;
  * maximize some objective function that can be measured from the
  * execution of each trial, such as code coverage.
  *
+ * If the source is a {@link DirectInputStream}, values are assembled
+ * straight from its buffer, and running out of bytes is detected by a
+ * bounds check rather than by reading from the stream.
  *
  */
 public class StreamBackedRandom extends Random {
-    private final InputStream inputStream;
-    private final ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+    private InputStream inputStream;
+    private DirectInputStream directStream;
+    private final byte[] scratch = new byte[4];
     private int totalBytesRead = 0;
     private int leadingBytesToIgnore = 0;
 
@@ -67,9 +69,7 @@ public class StreamBackedRandom extends Random {
         super(0x5DEECE66DL);
         // Open the backing file source as a buffered input stream
         this.inputStream = source;
-        // Force encoding to little-endian so that we can read small ints
-        // by reading partially into the start of the buffer
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.directStream = source instanceof DirectInputStream ? (DirectInputStream) source : null;
     }
 
     /**
@@ -89,6 +89,24 @@ public class StreamBackedRandom extends Random {
         this.leadingBytesToIgnore = leadinBytesToIgnore;
     }
 
+    /**
+     * Restarts reading from a new source, so that one instance can be
+     * reused across trials.
+     *
+     * <p>Leading bytes are not ignored again, as the source of randomness
+     * that wraps this instance has already read its seed. Also clears the
+     * cached Gaussian value of {@link Random#nextGaussian()}.</p>
+     *
+     * @param source  a generator of "random" bytes
+     */
+    public void reset(InputStream source) {
+        this.inputStream = source;
+        this.directStream = source instanceof DirectInputStream ? (DirectInputStream) source : null;
+        this.totalBytesRead = 0;
+        this.leadingBytesToIgnore = 0;
+        setSeed(0x5DEECE66DL);
+    }
+
     /**
      * Generates upto 32 bits of random data for internal use by the Random
      * class.
@@ -111,45 +129,128 @@ public class StreamBackedRandom extends Random {
             throw new IllegalArgumentException("Must read 1-32 bits at a time");
         }
 
-        // Zero out the byte buffer before reading from the source
-        byteBuffer.putInt(0, 0);
+        // Read up to 4 bytes from the backing source
+        int maxBytesToRead = ((bits + 7) / 8);
+        assert(maxBytesToRead*8 >= bits && maxBytesToRead <= 4);
 
-        try {
-            // Read up to 4 bytes from the backing source
-            int maxBytesToRead = ((bits + 7) / 8);
-            assert(maxBytesToRead*8 >= bits && maxBytesToRead <= 4);
+        if (this.leadingBytesToIgnore > 0) {
+            int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
+            this.leadingBytesToIgnore -= bytesToIgnore;
+            maxBytesToRead -= bytesToIgnore;
+        }
 
-            if (this.leadingBytesToIgnore > 0) {
-                int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
-                this.leadingBytesToIgnore -= bytesToIgnore;
-                maxBytesToRead -= bytesToIgnore;
-            }
+        // Interpret the bytes read as a little-endian integer, in which
+        // ignored bytes are zeros
+        int value = readInt(maxBytesToRead);
 
-            // If fewer bytes are read (because EOF is reached), the buffer
-            // just keeps containing zeros
-            int actualBytesRead = inputStream.read(byteBuffer.array(), 0, maxBytesToRead);
-            totalBytesRead += actualBytesRead;
+        // Return only the lower order bits as requested
+        int mask = bits < 32 ? (1 << bits) - 1 : -1;
+        return value & mask;
+
+    }
 
-            // If EOF was reached, throw an exception
-            if (actualBytesRead != maxBytesToRead) {
-                String message = String.format("EOF reached; total bytes read = %d, " +
-                                "last read got %d of %d bytes",
-                        totalBytesRead, actualBytesRead, maxBytesToRead);
-                throw new IllegalStateException(new EOFException(message));
+    /**
+     * Reads a little-endian integer of up to 4 bytes.
+     *
+     * @param numBytes the number of bytes to read (0 to 4 inclusive)
+     * @return the integer value of the bytes
+     * @throws IllegalStateException  if EOF is reached before reading all bytes
+     */
+    private int readInt(int numBytes) {
+        // Ignored bytes need no read, which some streams would report as EOF
+        if (numBytes == 0) {
+            return 0;
+        }
 
+        byte[] bytes;
+        int offset;
+        if (directStream != null) {
+            // Read straight from the buffer of the source
+            int available = directStream.require(numBytes);
+            if (available < numBytes) {
+                directStream.pos += Math.max(available, 0);
+                throw eof(Math.max(available, 0), numBytes);
+            }
+            bytes = directStream.buf;
+            offset = directStream.pos;
+            directStream.pos += numBytes;
+        } else {
+            int actualBytesRead;
+            try {
+                actualBytesRead = inputStream.read(scratch, 0, numBytes);
+            } catch (IOException e) {
+                throw new GuidanceException(e);
             }
+            if (actualBytesRead != numBytes) {
+                throw eof(Math.max(actualBytesRead, 0), numBytes);
+            }
+            bytes = scratch;
+            offset = 0;
+        }
+        totalBytesRead += numBytes;
 
-        } catch (IOException e) {
-            throw new GuidanceException(e);
+        int value = 0;
+        for (int i = numBytes - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
         }
+        return value;
+    }
 
-        // Interpret the bytes read as an integer
-        int value = byteBuffer.getInt(0);
+    /** Counts the bytes of a short read and creates the exception that reports EOF. */
+    private IllegalStateException eof(int actualBytesRead, int maxBytesToRead) {
+        totalBytesRead += actualBytesRead;
+        String message = String.format("EOF reached; total bytes read = %d, " +
+                        "last read got %d of %d bytes",
+                totalBytesRead, actualBytesRead, maxBytesToRead);
+        return new IllegalStateException(new EOFException(message));
+    }
 
-        // Return only the lower order bits as requested
-        int mask = bits < 32 ? (1 << bits) - 1 : -1;
-        return value & mask;
+    /**
+     * Fills an array with bytes from the backing source.
+     *
+     * <p>This consumes the same bytes as {@link Random#nextBytes}, which
+     * reads 4 bytes per {@code int} and uses them in little-endian order,
+     * but copies them in one go if the source is a {@link DirectInputStream}.
+     * Like there, the last {@code int} is read in full even if only some of
+     * its bytes are needed.</p>
+     *
+     * @param bytes the array to fill
+     * @throws IllegalStateException  if EOF is reached before filling the array
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        if (directStream == null || leadingBytesToIgnore > 0) {
+            super.nextBytes(bytes);
+            return;
+        }
+        int numBytes = (bytes.length + 3) & ~3;
+        int available = directStream.require(numBytes);
+        if (available < numBytes) {
+            // Fill what we can, one int at a time as Random does, then fail
+            super.nextBytes(bytes);
+            return;
+        }
+        System.arraycopy(directStream.buf, directStream.pos, bytes, 0, bytes.length);
+        directStream.pos += numBytes;
+        totalBytesRead += numBytes;
+    }
 
+    /**
+     * Reads 8 bytes from the backing source as two {@code int}s, like
+     * {@link Random#nextLong()} does, but with a single bounds check if
+     * the source is a {@link DirectInputStream}.
+     *
+     * @return the next long value
+     * @throws IllegalStateException  if EOF is reached before reading 8 bytes
+     */
+    @Override
+    public long nextLong() {
+        if (directStream == null || leadingBytesToIgnore > 0 || directStream.require(Long.BYTES) < Long.BYTES) {
+            return super.nextLong();
+        }
+        long high = readInt(Integer.BYTES);
+        long low = readInt(Integer.BYTES);
+        return (high << 32) + low;
     }
 
     @Override
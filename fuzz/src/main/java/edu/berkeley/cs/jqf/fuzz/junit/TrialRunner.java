@@ -38,7 +38,7 @@ import org.junit.runners.model.Statement;
 
 public class TrialRunner extends BlockJUnit4ClassRunner {
     private final FrameworkMethod method;
-    protected final Object[] args;
+    protected Object[] args;
 
     public TrialRunner(Class<?> testClass, FrameworkMethod method, Object[] args) throws InitializationError {
         super(testClass);
@@ -65,6 +65,18 @@ public class TrialRunner extends BlockJUnit4ClassRunner {
         this.methodBlock(method).evaluate();
     }
 
+    /**
+     * Runs the trial method with new arguments, so that one runner can be
+     * reused across trials instead of validating the test class each time.
+     *
+     * @param args the arguments of this trial
+     * @throws Throwable if the trial fails
+     */
+    public void run(Object[] args) throws Throwable {
+        this.args = args;
+        run();
+    }
+
 
 
 }
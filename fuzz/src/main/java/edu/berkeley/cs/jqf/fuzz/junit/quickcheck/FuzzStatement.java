@@ -29,12 +29,12 @@
  */
 package edu.berkeley.cs.jqf.fuzz.junit.quickcheck;
 
-import com.pholser.junit.quickcheck.generator.GenerationStatus;
 import com.pholser.junit.quickcheck.generator.Generator;
 import com.pholser.junit.quickcheck.internal.ParameterTypeContext;
 import com.pholser.junit.quickcheck.internal.generator.GeneratorRepository;
 import com.pholser.junit.quickcheck.random.SourceOfRandomness;
-import de.hub.se.jqf.cluster.tracing.TraceSavingGuidance;
+import de.hub.se.jqf.cluster.tracing.ChoiceBuffer;
+import de.hub.se.jqf.cluster.tracing.ChoiceObserver;
 import de.hub.se.jqf.cluster.tracing.TracingSourceOfRandomness;
 import edu.berkeley.cs.jqf.fuzz.guidance.*;
 import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
@@ -47,12 +47,12 @@ import org.junit.runners.model.TestClass;
 import ru.vyarus.java.generics.resolver.GenericsResolver;
 import ru.vyarus.java.generics.resolver.context.MethodGenericsContext;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static edu.berkeley.cs.jqf.fuzz.guidance.Result.*;
 
@@ -71,6 +71,7 @@ public class FuzzStatement extends Statement {
     private final List<Class<?>> expectedExceptions;
     private final List<Throwable> failures = new ArrayList<>();
     private final Guidance guidance;
+    private final ChoiceBuffer choiceBuffer = new ChoiceBuffer();
 
     public FuzzStatement(FrameworkMethod method, TestClass testClass,
                          GeneratorRepository generatorRepository, Guidance fuzzGuidance) {
@@ -92,10 +93,25 @@ public class FuzzStatement extends Statement {
     @Override
     public void evaluate() throws Throwable {
         // Construct generators for each parameter
-        List<Generator<?>> generators = Arrays.stream(method.getMethod().getParameters())
-                .map(this::createParameterTypeContext)
-                .map(this::produceGenerator)
-                .collect(Collectors.toList());
+        Parameter[] parameters = method.getMethod().getParameters();
+        Generator<?>[] generators = new Generator<?>[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            generators[i] = produceGenerator(createParameterTypeContext(parameters[i]));
+        }
+
+        // Create the generation objects once; each trial resets them to its input
+        ChoiceObserver observer = guidance instanceof ChoiceObserver ? (ChoiceObserver) guidance : null;
+        StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(new byte[0]), Long.BYTES);
+        SourceOfRandomness random;
+        if (observer != null) {
+            TracingSourceOfRandomness tracingRandom = new TracingSourceOfRandomness(randomFile, choiceBuffer);
+            tracingRandom.setObserver(observer);
+            random = tracingRandom;
+        } else {
+            random = new FastSourceOfRandomness(randomFile);
+        }
+        NonTrackingGenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+        TrialRunner trialRunner = new TrialRunner(testClass.getJavaClass(), method, null);
 
         // Keep fuzzing until no more input or I/O error with guidance
         try {
@@ -110,34 +126,23 @@ public class FuzzStatement extends Statement {
                     Object[] args;
                     try {
 
-                        if (guidance instanceof TraceSavingGuidance) {
-                            // Generate input values
-                            StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
-                            SourceOfRandomness random = new TracingSourceOfRandomness(randomFile);
-                            GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
-                            args = generators.stream()
-                                    .map(g -> g.generate(random, genStatus))
-                                    .toArray();
-
-                            // Let guidance observe the generated input args
-                            guidance.observeGeneratedArgs(args);
+                        // Generate input values
+                        randomFile.reset(guidance.getInput());
+                        if (observer != null) {
+                            ((TracingSourceOfRandomness) random).reset();
+                        }
+                        genStatus.reset();
+                        args = new Object[generators.length];
+                        for (int i = 0; i < generators.length; i++) {
+                            args[i] = generators[i].generate(random, genStatus);
+                        }
 
-                            // Set choices for current input
-                            TracingSourceOfRandomness rdm = (TracingSourceOfRandomness) random;
-                            ((TraceSavingGuidance) guidance).setCurrentChoiceSequences(rdm.getChoiceTypes(), rdm.getChoiceValues());
+                        // Let guidance observe the generated input args
+                        guidance.observeGeneratedArgs(args);
 
-                        }
-                        else {
-                            // Generate input values
-                            StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
-                            SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
-                            GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
-                            args = generators.stream()
-                                    .map(g -> g.generate(random, genStatus))
-                                    .toArray();
-
-                            // Let guidance observe the generated input args
-                            guidance.observeGeneratedArgs(args);
+                        if (observer != null) {
+                            // Let the observer see the choices of the current input
+                            observer.onGenerationEnd(((TracingSourceOfRandomness) random).getChoices());
                         }
                     } catch (IllegalStateException e) {
                         if (e.getCause() instanceof EOFException) {
@@ -162,7 +167,7 @@ public class FuzzStatement extends Statement {
                     }
 
                     // Attempt to run the trial
-                    new TrialRunner(testClass.getJavaClass(), method, args).run();
+                    trialRunner.run(args);
 
                     // If we reached here, then the trial must be a success
                     result = SUCCESS;
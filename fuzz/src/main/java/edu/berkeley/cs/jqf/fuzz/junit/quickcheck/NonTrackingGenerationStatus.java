@@ -56,6 +56,14 @@ public class NonTrackingGenerationStatus implements GenerationStatus {
         this.random = random;
     }
 
+    /**
+     * Clears the context values, so that this status can be reused for
+     * the next trial.
+     */
+    public void reset() {
+        contextValues.clear();
+    }
+
     @Override
     public int size() {
         return geometric.sampleWithMean(MEAN_SIZE, random);
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends lines of text to files from a single background thread.
+ *
+ * <p>Callers enqueue lines into a bounded queue and return immediately,
+ * unless the queue is full, in which case they block until the writer
+ * catches up. The writer thread keeps one buffered writer open per file,
+ * drains the queue in batches and flushes the files touched by a batch
+ * once the batch has been written.</p>
+ *
+ * <p>Other writes, such as of binary files, can be run on the writer
+ * thread in order with the lines via {@link #execute(Task)}.</p>
+ *
+ * <p>A shutdown hook flushes and closes all files when the JVM exits,
+ * including via {@link System#exit(int)}.</p>
+ *
+ * <p>If the writer thread dies, the failure is rethrown to callers of
+ * every later method instead of leaving them blocked on the queue.</p>
+ */
+public class AsyncFileWriter implements AutoCloseable {
+
+    /** The default maximum number of pending lines. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+    /** The maximum number of lines written between two flushes. */
+    protected static final int MAX_BATCH_SIZE = 4096;
+
+    /** How long callers wait on the queue before checking that the writer thread is alive. */
+    protected static final long LIVENESS_CHECK_MILLIS = 100;
+
+    /** A write to run on the writer thread. */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    /** A pending line or task, or a flush/stop request if both are null. */
+    private static class Entry {
+        final File file;
+        final String line;
+        final Task task;
+        final CountDownLatch done;
+        final boolean stop;
+
+        Entry(File file, String line, Task task, CountDownLatch done, boolean stop) {
+            this.file = file;
+            this.line = line;
+            this.task = task;
+            this.done = done;
+            this.stop = stop;
+        }
+    }
+
+    private final BlockingQueue<Entry> queue;
+
+    private final Map<File, BufferedWriter> writers = new HashMap<>();
+
+    private final Thread thread;
+
+    private final Thread shutdownHook;
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a writer with the default queue capacity and starts its thread.
+     */
+    public AsyncFileWriter() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a writer and starts its thread.
+     *
+     * @param queueCapacity the maximum number of pending lines
+     */
+    public AsyncFileWriter(int queueCapacity) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::run, "jqf-async-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        this.shutdownHook = new Thread(this::closeQuietly, "jqf-async-writer-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Enqueues a line to be appended to a file.
+     *
+     * @param file the file to append to (created if it does not exist)
+     * @param line the line, without a trailing newline
+     * @throws IOException if an earlier write failed, if this writer is
+     *                     closed, or if the calling thread was interrupted
+     */
+    public void append(File file, String line) throws IOException {
+        checkOpen();
+        put(new Entry(file, line, null, null, false));
+    }
+
+    /**
+     * Enqueues a task to be run on the writer thread after the lines
+     * enqueued so far have been written.
+     *
+     * <p>The task must not share mutable state with the calling thread.
+     * If it fails, its exception is thrown by later calls like any
+     * failed write.</p>
+     *
+     * @param task the task to run
+     * @throws IOException if an earlier write failed, if this writer is
+     *                     closed, or if the calling thread was interrupted
+     */
+    public void execute(Task task) throws IOException {
+        checkOpen();
+        put(new Entry(null, null, task, null, false));
+    }
+
+    /**
+     * Blocks until all lines enqueued so far have been written and flushed.
+     *
+     * @throws IOException if a write failed or the calling thread was interrupted
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        CountDownLatch done = new CountDownLatch(1);
+        put(new Entry(null, null, null, done, false));
+        await(done);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes all pending lines, closes all files and stops the writer thread.
+     *
+     * @throws IOException if a write failed or the calling thread was interrupted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!thread.isAlive()) {
+            checkAlive();
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        put(new Entry(null, null, null, done, true));
+        await(done);
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            System.err.println("Could not write pending output: " + e.getMessage());
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+    }
+
+    /** Throws the failure of the writer thread if it is no longer running. */
+    private void checkAlive() throws IOException {
+        if (!thread.isAlive()) {
+            if (failure != null) {
+                throw failure;
+            }
+            throw new IOException("Writer thread is not running");
+        }
+    }
+
+    private void put(Entry entry) throws IOException {
+        try {
+            while (!queue.offer(entry, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkAlive();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while enqueuing output");
+        }
+    }
+
+    private void await(CountDownLatch done) throws IOException {
+        try {
+            while (!done.await(LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkAlive();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing output");
+        }
+    }
+
+    /** The body of the writer thread. */
+    private void run() {
+        try {
+            writeBatches();
+        } catch (Throwable t) {
+            failure = new IOException("Writer thread failed", t);
+            closeAll();
+        }
+    }
+
+    private void writeBatches() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<BufferedWriter> dirty = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only a stop request ends this thread
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            for (Entry entry : batch) {
+                if (entry.file != null) {
+                    write(entry, dirty);
+                } else if (entry.task != null) {
+                    // Tasks may read the files written so far
+                    flushAll(dirty);
+                    runTask(entry.task);
+                } else {
+                    // Flush everything written so far before releasing the waiter
+                    flushAll(dirty);
+                    if (entry.stop) {
+                        closeAll();
+                        entry.done.countDown();
+                        return;
+                    }
+                    entry.done.countDown();
+                }
+            }
+            flushAll(dirty);
+            batch.clear();
+        }
+    }
+
+    private void write(Entry entry, List<BufferedWriter> dirty) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            BufferedWriter out = writers.get(entry.file);
+            if (out == null) {
+                out = Files.newBufferedWriter(entry.file.toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                writers.put(entry.file, out);
+            }
+            out.write(entry.line);
+            out.newLine();
+            if (!dirty.contains(out)) {
+                dirty.add(out);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void runTask(Task task) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            task.run();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void flushAll(List<BufferedWriter> dirty) {
+        for (BufferedWriter out : dirty) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        dirty.clear();
+    }
+
+    private void closeAll() {
+        for (BufferedWriter out : writers.values()) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        writers.clear();
+    }
+}
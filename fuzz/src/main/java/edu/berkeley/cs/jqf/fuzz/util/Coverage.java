@@ -61,7 +61,7 @@ public class Coverage implements TraceEventVisitor {
      * @param that the coverage map to copy
      */
     public Coverage(Coverage that) {
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
+        for (int idx : that.counter.getNonZeroIndices()) {
             this.counter.setAtIndex(idx, that.counter.getAtIndex(idx));
         }
     }
@@ -115,6 +115,56 @@ public class Coverage implements TraceEventVisitor {
         return counter.getNonZeroIndices();
     }
 
+    /**
+     * Returns whether an edge is covered.
+     *
+     * @param idx the index of the edge in the coverage map
+     * @return whether the edge has a non-zero count
+     */
+    public boolean isCovered(int idx) {
+        return counter.getAtIndex(idx) != 0;
+    }
+
+    /**
+     * Returns whether all of some edges are covered.
+     *
+     * @param keys the indices of edges in the coverage map, as
+     *             kept in the responsibilities of saved inputs
+     * @return whether every edge in {@code keys} is covered
+     */
+    public boolean coversAll(Collection<?> keys) {
+        for (Object key : keys) {
+            if (!(key instanceof Integer) || !isCovered((Integer) key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an immutable copy of the edges covered, keeping only
+     * the highest order bit of their counts.
+     *
+     * @return a compact snapshot of this coverage
+     */
+    public CoverageSnapshot snapshot() {
+        Collection<Integer> covered = counter.getNonZeroIndices();
+        int[] indices = new int[covered.size()];
+        int size = 0;
+        for (int idx : covered) {
+            if (counter.getAtIndex(idx) != 0) {
+                indices[size++] = idx;
+            }
+        }
+        indices = Arrays.copyOf(indices, size);
+        Arrays.sort(indices);
+        byte[] hobs = new byte[size];
+        for (int i = 0; i < size; i++) {
+            hobs[i] = (byte) (31 - Integer.numberOfLeadingZeros(counter.getAtIndex(indices[i])));
+        }
+        return new CoverageSnapshot(indices, hobs);
+    }
+
     /**
      * Returns a set of edges in this coverage that don't exist in baseline
      *
@@ -181,14 +231,35 @@ public class Coverage implements TraceEventVisitor {
      *         of <code>this</code>, causing <code>this</code> to change.
      */
     public boolean updateBits(Coverage that) {
+        return updateBits(that, null);
+    }
+
+    /**
+     * Updates this coverage with bits from the parameter, and collects
+     * the edges that it covers for the first time.
+     *
+     * <p>Only the edges covered by <code>that</code> are visited, so the
+     * result for <code>newCoverage</code> is the same as that of
+     * {@link #computeNewCoverage} before the update, without another pass.</p>
+     *
+     * @param that the run coverage whose bits to OR
+     * @param newCoverage a collection to which to add the edges that
+     *                    <code>this</code> did not cover before, or
+     *                    <code>null</code> if they are not needed
+     *
+     * @return <code>true</code> iff <code>that</code> is not a subset
+     *         of <code>this</code>, causing <code>this</code> to change.
+     */
+    public boolean updateBits(Coverage that, Collection<Integer> newCoverage) {
         boolean changed = false;
-        if (that.counter.hasNonZeros()) {
-            for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-                int before = this.counter.getAtIndex(idx);
-                int after = before | hob(that.counter.getAtIndex(idx));
-                if (after != before) {
-                    this.counter.setAtIndex(idx, after);
-                    changed = true;
+        for (int idx : that.counter.getNonZeroIndices()) {
+            int before = this.counter.getAtIndex(idx);
+            int after = before | hob(that.counter.getAtIndex(idx));
+            if (after != before) {
+                this.counter.setAtIndex(idx, after);
+                changed = true;
+                if (before == 0 && newCoverage != null) {
+                    newCoverage.add(idx);
                 }
             }
         }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable, compact copy of the edges covered by a run.
+ *
+ * <p>Only covered edges are stored, as sorted indices into the coverage
+ * map, each with the highest order bit of its count, which is all that
+ * {@link Coverage#updateBits} keeps of counts. A run covering a few
+ * hundred edges thus takes a few kilobytes rather than a copy of the
+ * full coverage map.</p>
+ */
+public final class CoverageSnapshot {
+
+    /** The indices of the covered edges, in ascending order. */
+    private final int[] indices;
+
+    /** The position of the highest order bit of the count of each covered edge. */
+    private final byte[] hobs;
+
+    CoverageSnapshot(int[] indices, byte[] hobs) {
+        assert indices.length == hobs.length;
+        this.indices = indices;
+        this.hobs = hobs;
+    }
+
+    /**
+     * Returns the number of edges covered.
+     *
+     * @return the number of edges with non-zero counts
+     */
+    public int getNonZeroCount() {
+        return indices.length;
+    }
+
+    /**
+     * Returns whether an edge is covered.
+     *
+     * @param idx the index of the edge in the coverage map
+     * @return whether the edge has a non-zero count
+     */
+    public boolean isCovered(int idx) {
+        return Arrays.binarySearch(indices, idx) >= 0;
+    }
+
+    /**
+     * Returns whether all of some edges are covered.
+     *
+     * @param keys the indices of edges in the coverage map, as
+     *             kept in the responsibilities of saved inputs
+     * @return whether every edge in {@code keys} is covered
+     */
+    public boolean coversAll(Collection<?> keys) {
+        for (Object key : keys) {
+            if (!(key instanceof Integer) || !isCovered((Integer) key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the count of an edge, rounded down to a power of two.
+     *
+     * @param idx the index of the edge in the coverage map
+     * @return the highest order bit of the count of the edge, or 0 if it is not covered
+     */
+    public int getHob(int idx) {
+        int i = Arrays.binarySearch(indices, idx);
+        return i >= 0 ? 1 << hobs[i] : 0;
+    }
+
+    /**
+     * Returns the edges that are covered.
+     *
+     * @return a read-only list of the indices of covered edges, in ascending order
+     */
+    public List<Integer> getCovered() {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int i) {
+                return indices[i];
+            }
+
+            @Override
+            public int size() {
+                return indices.length;
+            }
+        };
+    }
+}
@@ -84,4 +84,20 @@ public class Hashing {
         return knuth(x*31 + y, bound);
     }
 
+    /**
+     * Scrambles the bits of a 64-bit value.
+     *
+     * <p>This is the finalizer of the SplitMix64 generator, which maps
+     * inputs that differ in a single bit to outputs that differ in about
+     * half of their bits.</p>
+     *
+     * @param x the input to scramble
+     * @return a pseudo-uniformly distributed 64-bit value
+     */
+    public static long mix64(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
 }
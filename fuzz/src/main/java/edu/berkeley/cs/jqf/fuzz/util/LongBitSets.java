@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+/**
+ * Utility class for fixed-size bit sets stored in arrays of 64-bit words.
+ *
+ * <p>Bit {@code i} of a set is bit {@code i % 64} of word {@code i / 64}.
+ * The similarity methods take an offset into each array, so that they can
+ * compare bit sets that are packed back to back into one large array
+ * (e.g. records read from a file). They are simple loops over words that
+ * use {@link Long#bitCount(long)}, which the JIT compiles to population
+ * count instructions.</p>
+ */
+public class LongBitSets {
+
+    private LongBitSets() {
+        // Static only
+    }
+
+    /**
+     * Returns the number of words needed to hold some bits.
+     *
+     * @param numBits the number of bits
+     * @return the number of words
+     */
+    public static int numWords(int numBits) {
+        return (numBits + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Sets a bit.
+     *
+     * @param words the bit set
+     * @param bit the index of the bit to set
+     */
+    public static void set(long[] words, int bit) {
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Returns whether a bit is set.
+     *
+     * @param words the bit set
+     * @param bit the index of the bit
+     * @return whether the bit is set
+     */
+    public static boolean get(long[] words, int bit) {
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Counts the bits set in a range of words.
+     *
+     * @param words the words
+     * @param offset the index of the first word
+     * @param numWords the number of words
+     * @return the number of set bits
+     */
+    public static int cardinality(long[] words, int offset, int numWords) {
+        int count = 0;
+        for (int i = 0; i < numWords; i++) {
+            count += Long.bitCount(words[offset + i]);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the bits in which two bit sets differ.
+     *
+     * @param a the words of the first set
+     * @param aOffset the index of its first word
+     * @param b the words of the second set
+     * @param bOffset the index of its first word
+     * @param numWords the number of words of each set
+     * @return the Hamming distance of the sets
+     */
+    public static int hamming(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+        int count = 0;
+        for (int i = 0; i < numWords; i++) {
+            count += Long.bitCount(a[aOffset + i] ^ b[bOffset + i]);
+        }
+        return count;
+    }
+
+    /**
+     * Computes the Jaccard similarity of two bit sets, i.e. the size of
+     * their intersection divided by the size of their union.
+     *
+     * @param a the words of the first set
+     * @param aOffset the index of its first word
+     * @param b the words of the second set
+     * @param bOffset the index of its first word
+     * @param numWords the number of words of each set
+     * @return the Jaccard similarity, which is 1 if both sets are empty
+     */
+    public static double jaccard(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+        int intersection = 0;
+        int union = 0;
+        for (int i = 0; i < numWords; i++) {
+            long x = a[aOffset + i];
+            long y = b[bOffset + i];
+            intersection += Long.bitCount(x & y);
+            union += Long.bitCount(x | y);
+        }
+        return union == 0 ? 1.0 : (double) intersection / union;
+    }
+
+    /**
+     * Counts the bits in which two bit sets of the same size differ.
+     *
+     * @see #hamming(long[], int, long[], int, int)
+     */
+    public static int hamming(long[] a, long[] b) {
+        checkSameSize(a, b);
+        return hamming(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Computes the Jaccard similarity of two bit sets of the same size.
+     *
+     * @see #jaccard(long[], int, long[], int, int)
+     */
+    public static double jaccard(long[] a, long[] b) {
+        checkSameSize(a, b);
+        return jaccard(a, 0, b, 0, a.length);
+    }
+
+    private static void checkSameSize(long[] a, long[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Bit sets differ in size");
+        }
+    }
+}
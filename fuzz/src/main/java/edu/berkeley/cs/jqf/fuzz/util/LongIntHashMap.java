@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive longs to primitive ints.
+ *
+ * <p>This map is meant for keys that are already well-distributed hashes
+ * (such as fingerprints), and avoids boxing on every lookup. Entries
+ * cannot be removed.</p>
+ */
+public class LongIntHashMap {
+
+    /** The maximum ratio of entries to slots before the table is grown. */
+    private static final double LOAD_FACTOR = 0.5;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private boolean[] used;
+
+    private int size;
+
+    private int mask;
+
+    /** Creates an empty map. */
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map with room for the given number of entries.
+     *
+     * @param expectedSize the number of entries to allocate space for
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        int idx = (int) Hashing.mix64(key) & mask;
+        while (used[idx] && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether a key is present.
+     *
+     * @param key the key to look up
+     * @return whether {@code key} is present
+     */
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Returns the value for a key.
+     *
+     * @param key the key to look up
+     * @param defaultValue the value to return if the key is absent
+     * @return the value for {@code key}, or {@code defaultValue}
+     */
+    public int get(long key, int defaultValue) {
+        int idx = slot(key);
+        return used[idx] ? values[idx] : defaultValue;
+    }
+
+    /**
+     * Associates a value with a key, replacing any previous value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, int value) {
+        int idx = slot(key);
+        if (!used[idx]) {
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                rehash(keys.length * 2);
+                idx = slot(key);
+            }
+            used[idx] = true;
+            keys[idx] = key;
+            size++;
+        }
+        values[idx] = value;
+    }
+
+    /**
+     * Associates a value with a key, unless the key is already present.
+     *
+     * @param key the key
+     * @param value the value to associate if the key is absent
+     * @param absent the value to return if the key was absent
+     * @return the existing value, or {@code absent} if the key was inserted
+     */
+    public int putIfAbsent(long key, int value, int absent) {
+        int idx = slot(key);
+        if (used[idx]) {
+            return values[idx];
+        }
+        put(key, value);
+        return absent;
+    }
+
+    /**
+     * Adds a delta to the value of a key, treating absent keys as zero.
+     *
+     * @param key the key
+     * @param delta the amount to add
+     * @return the new value
+     */
+    public int addTo(long key, int delta) {
+        int idx = slot(key);
+        if (used[idx]) {
+            return (values[idx] += delta);
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    /** Removes all entries, keeping the allocated capacity. */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int idx = slot(oldKeys[i]);
+                used[idx] = true;
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.Arrays;
+
+/**
+ * Computes MinHash signatures of sets of 64-bit elements.
+ *
+ * <p>This uses one-permutation hashing: each element is hashed once, and
+ * the hash selects one of the bins of the signature and competes for its
+ * minimum. Adding an element thus costs one hash, regardless of the size
+ * of the signature. Bins that no element fell into are filled from the
+ * next non-empty bin by {@link #densify(long[])}. The fraction of equal
+ * bins of two densified signatures estimates the Jaccard similarity of
+ * their sets.</p>
+ *
+ * <p>Signatures are plain arrays owned by the caller, so that they can
+ * be reused between sets.</p>
+ */
+public class MinHash {
+
+    /** The value of bins into which no element has fallen. */
+    public static final long EMPTY = Long.MAX_VALUE;
+
+    /** The number of bins of each signature. */
+    protected final int numBins;
+
+    /** The seed that selects the hash function. */
+    protected final long seed;
+
+    /**
+     * Creates a MinHash function.
+     *
+     * @param numBins the number of bins of each signature
+     * @param seed selects the hash function; signatures are only comparable
+     *             if they were computed with the same seed
+     */
+    public MinHash(int numBins, long seed) {
+        if (numBins <= 0) {
+            throw new IllegalArgumentException("Number of bins must be positive: " + numBins);
+        }
+        this.numBins = numBins;
+        this.seed = seed;
+    }
+
+    /** Returns the number of bins of each signature. */
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * Creates the signature of an empty set.
+     *
+     * @return a new signature
+     */
+    public long[] newSignature() {
+        long[] signature = new long[numBins];
+        clear(signature);
+        return signature;
+    }
+
+    /**
+     * Resets a signature to that of an empty set.
+     *
+     * @param signature the signature to reset
+     */
+    public void clear(long[] signature) {
+        Arrays.fill(signature, EMPTY);
+    }
+
+    /**
+     * Adds an element to the set of a signature.
+     *
+     * @param signature the signature to update
+     * @param element the element, which should already be well distributed
+     *                over all bits (e.g. a hash)
+     */
+    public void add(long[] signature, long element) {
+        long h = Hashing.mix64(element ^ seed);
+        // The high bits select the bin; the remaining 63 bits compete for its minimum
+        int bin = (int) (((h >>> 32) * numBins) >>> 32);
+        long value = h & Long.MAX_VALUE;
+        if (value < signature[bin]) {
+            signature[bin] = value;
+        }
+    }
+
+    /**
+     * Fills the empty bins of a signature, which must be done before
+     * comparing it to other signatures.
+     *
+     * <p>Each empty bin takes a hash of the value of the next non-empty bin
+     * (wrapping around) and of its distance to it, so that sets with the
+     * same elements get the same signature. The signature of an empty set
+     * stays empty.</p>
+     *
+     * @param signature the signature to fill
+     */
+    public void densify(long[] signature) {
+        int firstFull = -1;
+        for (int i = 0; i < numBins; i++) {
+            if (signature[i] != EMPTY) {
+                firstFull = i;
+                break;
+            }
+        }
+        if (firstFull < 0) {
+            return;
+        }
+        // Walk backwards from a full bin, so that each empty bin sees the next full one
+        long next = signature[firstFull];
+        int distance = 0;
+        for (int k = 1; k <= numBins; k++) {
+            int i = Math.floorMod(firstFull - k, numBins);
+            if (signature[i] == EMPTY) {
+                distance++;
+                signature[i] = Hashing.mix64(next + distance) & Long.MAX_VALUE;
+            } else {
+                next = signature[i];
+                distance = 0;
+            }
+        }
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the sets of two signatures.
+     *
+     * @param a a densified signature
+     * @param b a densified signature of the same size and hash function
+     * @return the fraction of bins in which the signatures agree
+     */
+    public static double similarity(long[] a, long[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Signatures differ in size");
+        }
+        int equal = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+}
@@ -0,0 +1,125 @@
+package de.hub.se.jqf.cluster.junit;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import de.hub.se.jqf.cluster.tracing.ChoiceBuffer;
+import de.hub.se.jqf.cluster.tracing.TracingSourceOfRandomness;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
+import edu.berkeley.cs.jqf.fuzz.junit.quickcheck.NonTrackingGenerationStatus;
+import org.junit.runners.model.FrameworkMethod;
+
+/**
+ * Measures the per-trial overhead around the generator and the test method
+ * of {@link TracingFuzzStatement} on a trivial target, once with generation
+ * objects and a trial runner created for every trial, and once with them
+ * reused and reset between trials.
+ *
+ * <p>Run with {@code mvn -pl fuzz exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=de.hub.se.jqf.cluster.junit.GenerationOverheadBenchmark
+ * [-Dexec.args=TRIALS]}.</p>
+ */
+public class GenerationOverheadBenchmark {
+
+    /** A target that does almost nothing, like a small string search. */
+    public static class Target {
+        @Fuzz
+        public void search(String text) {
+            text.indexOf("ab");
+        }
+    }
+
+    /** Generates short strings of lower-case letters. */
+    public static class ShortStringGenerator extends Generator<String> {
+        public ShortStringGenerator() {
+            super(String.class);
+        }
+
+        @Override
+        public String generate(SourceOfRandomness random, GenerationStatus status) {
+            char[] chars = new char[random.nextInt(16)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = random.nextChar('a', 'z');
+            }
+            return new String(chars);
+        }
+    }
+
+    private static final Generator<?>[] GENERATORS = { new ShortStringGenerator() };
+
+    private static final int NUM_INPUTS = 256;
+
+    private final byte[][] inputs = new byte[NUM_INPUTS][128];
+
+    private final FrameworkMethod method;
+
+    private final ChoiceBuffer choiceBuffer = new ChoiceBuffer();
+
+    private GenerationOverheadBenchmark() throws NoSuchMethodException {
+        Random random = new Random(42);
+        for (byte[] input : inputs) {
+            random.nextBytes(input);
+        }
+        this.method = new FrameworkMethod(Target.class.getMethod("search", String.class));
+    }
+
+    /** Runs trials the way the statement did before generation objects were reused. */
+    private void runFresh(int trials) throws Throwable {
+        for (int n = 0; n < trials; n++) {
+            StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(inputs[n % NUM_INPUTS]), Long.BYTES);
+            TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomFile, choiceBuffer);
+            GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+            Object[] args = Arrays.stream(GENERATORS)
+                    .map(g -> g.generate(random, genStatus))
+                    .toArray();
+            new TrialRunner(Target.class, method, args).run();
+        }
+    }
+
+    /** Runs trials the way the statement does now. */
+    private void runReused(int trials) throws Throwable {
+        StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(new byte[0]), Long.BYTES);
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomFile, choiceBuffer);
+        NonTrackingGenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+        TrialRunner trialRunner = new TrialRunner(Target.class, method, null);
+        for (int n = 0; n < trials; n++) {
+            randomFile.reset(new ByteArrayInputStream(inputs[n % NUM_INPUTS]));
+            random.reset();
+            genStatus.reset();
+            Object[] args = new Object[GENERATORS.length];
+            for (int i = 0; i < GENERATORS.length; i++) {
+                args[i] = GENERATORS[i].generate(random, genStatus);
+            }
+            trialRunner.run(args);
+        }
+    }
+
+    private interface Trials {
+        void run(int trials) throws Throwable;
+    }
+
+    private static double trialsPerSecond(Trials trials, int count) throws Throwable {
+        long start = System.nanoTime();
+        trials.run(count);
+        return count * 1e9 / (System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        GenerationOverheadBenchmark benchmark = new GenerationOverheadBenchmark();
+
+        // The first rounds warm up the JIT
+        for (int round = 1; round <= 5; round++) {
+            double fresh = trialsPerSecond(benchmark::runFresh, trials);
+            double reused = trialsPerSecond(benchmark::runReused, trials);
+            System.out.printf("Round %d: fresh %,.0f trials/s, reused %,.0f trials/s (%.2fx)%n",
+                    round, fresh, reused, reused / fresh);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceMutatorTest {
+
+    private static final List<String> ITEMS = Arrays.asList("a", "b", "c", "d", "e");
+
+    /** Generates a few values from the given bytes and returns the recorded choices. */
+    private static ChoiceSequence generate(byte[] bytes) {
+        StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES);
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomFile);
+        random.nextInt(0, 100);
+        random.nextBoolean();
+        random.choose(ITEMS);
+        random.nextChar('a', 'z');
+        random.nextBoolean();
+        return random.getChoices().copy();
+    }
+
+    private static byte[] randomBytes(Random random, int n) {
+        byte[] bytes = new byte[n];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void recordsTheBytesReadPerChoice() {
+        ChoiceSequence choices = generate(randomBytes(new Random(1), 14));
+        int[] offsets = {0, 4, 5, 9, 13};
+        int[] lengths = {4, 1, 4, 4, 1};
+        Assert.assertEquals(offsets.length, choices.size());
+        for (int i = 0; i < offsets.length; i++) {
+            Assert.assertEquals(offsets[i], choices.getOffset(i));
+            Assert.assertEquals(lengths[i], choices.getLength(i));
+        }
+        Assert.assertEquals(ITEMS.size(), choices.getBound(2));
+        Assert.assertEquals(2, choices.getBound(1));
+    }
+
+    @Test
+    public void mutationsChangeAtMostOneChoiceAndKeepTheRestAligned() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 500; trial++) {
+            byte[] parent = randomBytes(random, 14);
+            ChoiceSequence before = generate(parent);
+
+            byte[] child = parent.clone();
+            Assert.assertTrue(ChoiceMutator.mutate(child, before, random));
+            ChoiceSequence after = generate(child);
+
+            Assert.assertEquals(before.getTypeFingerprint(), after.getTypeFingerprint());
+            int changed = 0;
+            for (int i = 0; i < before.size(); i++) {
+                if (before.getValue(i) != after.getValue(i)) {
+                    changed++;
+                }
+                Assert.assertEquals(before.getOffset(i), after.getOffset(i));
+            }
+            Assert.assertTrue(changed <= 1);
+            Assert.assertTrue(after.getValue(2) >= 0 && after.getValue(2) < ITEMS.size());
+        }
+    }
+
+    @Test
+    public void boundedChoicesAlwaysChange() {
+        Random random = new Random(7);
+        ChoiceBuffer choices = new ChoiceBuffer();
+        choices.add(ChoiceType.CHOOSE, 3, 0, 4, 5);
+        for (int trial = 0; trial < 100; trial++) {
+            byte[] bytes = {3, 0, 0, 0};
+            ChoiceMutator.mutate(bytes, choices, random);
+            int value = (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 24;
+            Assert.assertNotEquals(3, value);
+            Assert.assertTrue(value >= 0 && value < 5);
+        }
+    }
+
+    @Test
+    public void choicesOutsideTheInputAreSkipped() {
+        ChoiceBuffer choices = new ChoiceBuffer();
+        choices.add(ChoiceType.INT, 3);
+        choices.add(ChoiceType.INT, 3, 8, 4, 0);
+        Assert.assertFalse(ChoiceMutator.mutate(new byte[]{1, 2, 3, 4}, choices, new Random(0)));
+    }
+}
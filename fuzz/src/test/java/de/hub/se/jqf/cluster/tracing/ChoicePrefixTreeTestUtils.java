@@ -0,0 +1,63 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+
+/** Sequence generators and assertions shared by the tests of the {@link ChoicePrefixTree} implementations. */
+final class ChoicePrefixTreeTestUtils {
+
+    private static final byte[] TYPES = {ChoiceType.INT, ChoiceType.BOOL, ChoiceType.CHOOSE, ChoiceType.CHAR};
+
+    private ChoicePrefixTreeTestUtils() {
+
+    }
+
+    /** Generates short sequences over few types, so that many sequences share nodes. */
+    static List<ChoiceBuffer> randomSequences(long seed, int count) {
+        Random random = new Random(seed);
+        List<ChoiceBuffer> sequences = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            ChoiceBuffer sequence = new ChoiceBuffer();
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                sequence.add(TYPES[random.nextInt(TYPES.length)], 0);
+            }
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+
+    /** Generates sequences made of runs of random types and lengths, like array generators produce. */
+    static List<ChoiceBuffer> randomRunSequences(long seed, int count) {
+        Random random = new Random(seed);
+        List<ChoiceBuffer> sequences = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            ChoiceBuffer sequence = new ChoiceBuffer();
+            int runs = random.nextInt(6);
+            for (int r = 0; r < runs; r++) {
+                byte type = TYPES[random.nextInt(TYPES.length)];
+                int length = 1 + random.nextInt(random.nextBoolean() ? 3 : 40);
+                for (int i = 0; i < length; i++) {
+                    sequence.add(type, 0);
+                }
+            }
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+
+    static void assertSameStatistics(ChoicePrefixTree expected, ChoicePrefixTree actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getUniquePaths(), actual.getUniquePaths());
+        Assert.assertEquals(expected.getNumLeafs(), actual.getNumLeafs());
+        Assert.assertEquals(expected.getNumBranchingNodes(), actual.getNumBranchingNodes());
+        Assert.assertEquals(expected.branchDegree(), actual.branchDegree(), 1e-9);
+        Assert.assertEquals(expected.getMaxDepth(), actual.getMaxDepth());
+        for (int d = 0; d <= expected.getMaxDepth() + 1; d++) {
+            Assert.assertEquals(expected.getNumNodesAtDepth(d), actual.getNumNodesAtDepth(d));
+        }
+    }
+}
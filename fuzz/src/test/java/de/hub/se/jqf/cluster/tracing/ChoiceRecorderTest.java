@@ -0,0 +1,46 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.Arrays;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import janala.logger.inst.INVOKEVIRTUAL;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceRecorderTest {
+
+    private static CallEvent callEvent(int iid, String owner, String method) {
+        return new CallEvent(iid, null, 0,
+                new INVOKEVIRTUAL(iid, 0, owner, method, "(Lcom/pholser/junit/quickcheck/random/SourceOfRandomness;)I"));
+    }
+
+    @Test
+    public void recordsChoicesOnlyAfterGenerateIsEntered() {
+        ChoiceRecorder recorder = new ChoiceRecorder();
+        recorder.visitCallEvent(callEvent(1, "FooGenerator", "nextInt"));
+        recorder.visitCallEvent(callEvent(2, "FooGenerator", "generate"));
+        recorder.visitCallEvent(callEvent(1, "FooGenerator", "nextInt"));
+        recorder.visitCallEvent(callEvent(3, "FooGenerator", "choose"));
+        recorder.visitCallEvent(callEvent(4, "FooGenerator", "helper"));
+        recorder.visitCallEvent(callEvent(5, "Foo", "nextBoolean"));
+        recorder.visitCallEvent(callEvent(1, "FooGenerator", "nextInt"));
+
+        Assert.assertEquals(Arrays.asList("INT", "CHOOSE", "INT"), recorder.getRandomChoiceSequence());
+    }
+
+    @Test
+    public void stopRecordingWaitsForNextGenerate() {
+        ChoiceRecorder recorder = new ChoiceRecorder();
+        recorder.visitCallEvent(callEvent(2, "FooGenerator", "generate"));
+        recorder.visitCallEvent(callEvent(7, "BarGenerator", "nextChar"));
+        recorder.stopRecording();
+        recorder.visitCallEvent(callEvent(7, "BarGenerator", "nextChar"));
+        recorder.visitCallEvent(callEvent(2, "FooGenerator", "generate"));
+        recorder.visitCallEvent(callEvent(8, "BarGenerator", "nextDouble"));
+
+        Assert.assertEquals(Arrays.asList("CHAR", "DOUBLE"), recorder.getRandomChoiceSequence());
+    }
+}
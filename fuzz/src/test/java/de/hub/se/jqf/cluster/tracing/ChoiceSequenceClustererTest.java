@@ -0,0 +1,101 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceSequenceClustererTest {
+
+    /** Creates a sequence of random choices of a few types. */
+    private static ChoiceBuffer randomSequence(Random random, int length) {
+        ChoiceBuffer choices = new ChoiceBuffer();
+        for (int i = 0; i < length; i++) {
+            choices.add((byte) (1 + random.nextInt(4)), random.nextInt(8));
+        }
+        return choices;
+    }
+
+    /** Copies a sequence with a few of its choices changed. */
+    private static ChoiceBuffer mutate(Random random, ChoiceSequence original, int numChanges) {
+        int[] changed = new int[numChanges];
+        for (int n = 0; n < numChanges; n++) {
+            changed[n] = random.nextInt(original.size());
+        }
+        ChoiceBuffer choices = new ChoiceBuffer();
+        outer:
+        for (int i = 0; i < original.size(); i++) {
+            for (int c : changed) {
+                if (c == i) {
+                    choices.add((byte) (1 + random.nextInt(4)), random.nextInt(8));
+                    continue outer;
+                }
+            }
+            choices.add(original.getType(i), original.getValue(i));
+        }
+        return choices;
+    }
+
+    @Test
+    public void similarSequencesShareClusters() {
+        Random random = new Random(42);
+        ChoiceSequenceClusterer clusterer = new ChoiceSequenceClusterer(1000);
+
+        ChoiceBuffer[] originals = new ChoiceBuffer[20];
+        for (int n = 0; n < originals.length; n++) {
+            originals[n] = randomSequence(random, 200);
+            Assert.assertEquals(n, clusterer.add(originals[n]));
+            Assert.assertTrue(clusterer.wasNewCluster());
+        }
+
+        int sameCluster = 0;
+        for (int n = 0; n < 1000; n++) {
+            int original = random.nextInt(originals.length);
+            if (clusterer.add(mutate(random, originals[original], 2)) == original) {
+                sameCluster++;
+            }
+        }
+        Assert.assertTrue("Same cluster: " + sameCluster, sameCluster > 950);
+        Assert.assertTrue(clusterer.getNumClusters() < 40);
+        Assert.assertEquals(1020, clusterer.getNumSequences());
+    }
+
+    @Test
+    public void dissimilarSequencesDoNotShareClusters() {
+        Random random = new Random(7);
+        ChoiceSequenceClusterer clusterer = new ChoiceSequenceClusterer(1000);
+        for (int n = 0; n < 500; n++) {
+            clusterer.add(randomSequence(random, 200));
+        }
+        Assert.assertTrue(clusterer.getNumClusters() > 490);
+
+        // The same sequence always lands in the same cluster
+        ChoiceBuffer choices = randomSequence(random, 50);
+        int cluster = clusterer.add(choices);
+        Assert.assertEquals(cluster, clusterer.add(choices.copy()));
+        Assert.assertFalse(clusterer.wasNewCluster());
+        Assert.assertEquals(2, clusterer.getClusterSize(cluster));
+    }
+
+    @Test
+    public void clustersAreCapped() {
+        Random random = new Random(3);
+        ChoiceSequenceClusterer clusterer = new ChoiceSequenceClusterer(10);
+        for (int n = 0; n < 100; n++) {
+            clusterer.add(randomSequence(random, 100));
+        }
+        Assert.assertEquals(10, clusterer.getNumClusters());
+        Assert.assertTrue(clusterer.getNumUnclustered() >= 85);
+        Assert.assertEquals(ChoiceSequenceClusterer.UNCLUSTERED, clusterer.add(randomSequence(random, 100)));
+        Assert.assertFalse(clusterer.wasNewCluster());
+
+        // Short and empty sequences are clustered too
+        clusterer = new ChoiceSequenceClusterer(10);
+        Assert.assertEquals(0, clusterer.add(new ChoiceBuffer()));
+        Assert.assertEquals(0, clusterer.add(new ChoiceBuffer()));
+        Assert.assertEquals(1, clusterer.add(randomSequence(random, 2)));
+    }
+}
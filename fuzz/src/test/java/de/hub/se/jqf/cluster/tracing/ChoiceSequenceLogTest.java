@@ -0,0 +1,223 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceSequenceLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** An execution that was logged. */
+    private static class Execution {
+        final byte[] input;
+        final int inputLength;
+        final ChoiceBuffer choices;
+        final Result result;
+        final int coverageDelta;
+
+        Execution(byte[] input, int inputLength, ChoiceBuffer choices, Result result, int coverageDelta) {
+            this.input = input;
+            this.inputLength = inputLength;
+            this.choices = choices;
+            this.result = result;
+            this.coverageDelta = coverageDelta;
+        }
+    }
+
+    /** Runs a small generator on some input bytes and returns the recorded choices. */
+    private static ChoiceBuffer generate(byte[] bytes) {
+        if (bytes.length == 0) {
+            return new ChoiceBuffer(); // The replayed input of a record without choices
+        }
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(
+                new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES));
+        try {
+            int n = random.nextInt(8);
+            for (int i = 0; i < n; i++) {
+                if (random.nextBoolean()) {
+                    random.nextInt(-50, 50); // Not derivable from its value
+                } else {
+                    random.choose(Arrays.asList("x", "y", "z"));
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                random.nextLong(Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+        } catch (IllegalStateException e) {
+            // Out of input bytes, like a generator that failed
+        }
+        return ((ChoiceBuffer) random.getChoices()).copy();
+    }
+
+    private static List<Execution> randomExecutions(long seed, int count) {
+        Random random = new Random(seed);
+        Result[] results = Result.values();
+        List<Execution> executions = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            byte[] bytes = new byte[1 + random.nextInt(100)];
+            random.nextBytes(bytes);
+            // With spare capacity after the input, like the inputs of the guidance
+            byte[] input = Arrays.copyOf(bytes, 2 * bytes.length);
+            executions.add(new Execution(input, bytes.length, generate(bytes), results[random.nextInt(results.length)], random.nextInt(5)));
+        }
+        return executions;
+    }
+
+    private static File writeLog(File file, List<Execution> executions) throws IOException {
+        try (ChoiceSequenceLog log = new ChoiceSequenceLog(file)) {
+            for (Execution execution : executions) {
+                log.append(execution.choices, execution.result, execution.coverageDelta, execution.input, execution.inputLength);
+            }
+        }
+        return file;
+    }
+
+    private static void assertRecord(Execution expected, ChoiceSequenceLogReader reader) {
+        Assert.assertEquals(expected.result, reader.getResult());
+        Assert.assertEquals(expected.coverageDelta, reader.getCoverageDelta());
+        ChoiceSequence choices = reader.getChoices();
+        Assert.assertEquals(expected.choices.size(), choices.size());
+        Assert.assertEquals(expected.choices.getTypeFingerprint(), choices.getTypeFingerprint());
+        Assert.assertEquals(expected.choices.getValueFingerprint(), choices.getValueFingerprint());
+
+        // Generating from the replayed input makes the same choices again
+        ChoiceBuffer replayed = generate(reader.getInput());
+        Assert.assertEquals(expected.choices.getTypeFingerprint(), replayed.getTypeFingerprint());
+        Assert.assertEquals(expected.choices.getValueFingerprint(), replayed.getValueFingerprint());
+    }
+
+    @Test
+    public void recordsCanBeReplayed() throws IOException {
+        List<Execution> executions = randomExecutions(42, 20000);
+        File file = writeLog(folder.newFile("log.bin"), executions);
+
+        try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(file)) {
+            Assert.assertEquals(executions.size(), reader.getNumRecords());
+            for (Execution execution : executions) {
+                Assert.assertTrue(reader.next());
+                assertRecord(execution, reader);
+            }
+            Assert.assertFalse(reader.next());
+        }
+
+        // The log should have spanned several blocks
+        Assert.assertTrue(file.length() > 2 * ChoiceSequenceLog.BLOCK_SIZE);
+    }
+
+    @Test
+    public void seekToRecords() throws IOException {
+        List<Execution> executions = randomExecutions(7, 30000);
+        File file = writeLog(folder.newFile("log.bin"), executions);
+
+        Random random = new Random(1);
+        try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(file)) {
+            for (int n = 0; n < 100; n++) {
+                int record = random.nextInt(executions.size());
+                reader.seek(record);
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(record, reader.getRecordNumber());
+                assertRecord(executions.get(record), reader);
+            }
+        }
+    }
+
+    @Test
+    public void unclosedLogCanBeStreamed() throws IOException {
+        List<Execution> executions = randomExecutions(3, 5000);
+        File file = folder.newFile("log.bin");
+        try (ChoiceSequenceLog log = new ChoiceSequenceLog(file)) {
+            for (Execution execution : executions) {
+                log.append(execution.choices, execution.result, execution.coverageDelta, execution.input, execution.inputLength);
+            }
+            log.flush();
+
+            try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(file)) {
+                Assert.assertEquals(-1, reader.getNumRecords());
+                for (Execution execution : executions) {
+                    Assert.assertTrue(reader.next());
+                    assertRecord(execution, reader);
+                }
+                Assert.assertFalse(reader.next());
+            }
+        }
+    }
+
+    /** Choices whose type fingerprint collides with that of all other such choices. */
+    private static class CollidingChoices extends ChoiceBuffer {
+        @Override
+        public long getTypeFingerprint() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void collidingTypeSequencesGetTheirOwnIds() throws IOException {
+        ChoiceBuffer ints = new CollidingChoices();
+        ints.add(ChoiceType.INT, 1);
+        ChoiceBuffer bools = new CollidingChoices();
+        bools.add(ChoiceType.BOOL, 1);
+        ChoiceBuffer longer = new CollidingChoices();
+        longer.add(ChoiceType.INT, 1);
+        longer.add(ChoiceType.INT, 2);
+        List<ChoiceBuffer> sequences = Arrays.asList(ints, bools, longer, ints, longer, bools);
+
+        File file = folder.newFile("log.bin");
+        try (ChoiceSequenceLog log = new ChoiceSequenceLog(file)) {
+            for (ChoiceBuffer choices : sequences) {
+                log.append(choices, Result.SUCCESS, 0, null, 0);
+            }
+        }
+        try (ChoiceSequenceLogReader reader = new ChoiceSequenceLogReader(file)) {
+            for (ChoiceBuffer expected : sequences) {
+                Assert.assertTrue(reader.next());
+                ChoiceSequence choices = reader.getChoices();
+                Assert.assertEquals(expected.size(), choices.size());
+                for (int i = 0; i < choices.size(); i++) {
+                    Assert.assertEquals(expected.getType(i), choices.getType(i));
+                    Assert.assertEquals(expected.getValue(i), choices.getValue(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boundedChoicesTakeFewBytes() throws IOException {
+        Random random = new Random(0);
+        File file = folder.newFile("log.bin");
+        long numChoices = 0;
+        try (ChoiceSequenceLog log = new ChoiceSequenceLog(file)) {
+            for (int n = 0; n < 10000; n++) {
+                ChoiceBuffer choices = new ChoiceBuffer();
+                for (int i = 0; i < 50; i++) {
+                    // Like nextInt(bound) and nextBoolean() read from an input without ranges
+                    int offset = 4 * i;
+                    if (i % 2 == 0) {
+                        choices.add(ChoiceType.INT, random.nextInt(100), offset, 4, 100);
+                    } else {
+                        choices.add(ChoiceType.BOOL, random.nextInt(2), offset, 4, 2);
+                    }
+                }
+                log.append(choices, Result.SUCCESS, 0, null, 0);
+                numChoices += choices.size();
+            }
+        }
+        double bytesPerChoice = (double) file.length() / numChoices;
+        Assert.assertTrue("Bytes per choice: " + bytesPerChoice, bytesPerChoice < 1.5);
+    }
+}
@@ -0,0 +1,82 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceSequenceStoreTest {
+
+    private static ChoiceBuffer choices(long... typesAndValues) {
+        ChoiceBuffer buffer = new ChoiceBuffer();
+        for (int i = 0; i < typesAndValues.length; i += 2) {
+            buffer.add((byte) typesAndValues[i], typesAndValues[i + 1]);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void fingerprintsAreOrderSensitive() {
+        ChoiceBuffer ab = choices(ChoiceType.INT, 1, ChoiceType.BOOL, 0);
+        ChoiceBuffer ba = choices(ChoiceType.BOOL, 0, ChoiceType.INT, 1);
+        Assert.assertNotEquals(ab.getTypeFingerprint(), ba.getTypeFingerprint());
+        Assert.assertNotEquals(ab.getValueFingerprint(), ba.getValueFingerprint());
+    }
+
+    @Test
+    public void fingerprintsAreResetOnClear() {
+        ChoiceBuffer buffer = choices(ChoiceType.INT, 5);
+        long typeFingerprint = buffer.getTypeFingerprint();
+        long valueFingerprint = buffer.getValueFingerprint();
+        buffer.clear();
+        Assert.assertEquals(choices().getTypeFingerprint(), buffer.getTypeFingerprint());
+        buffer.add(ChoiceType.INT, 5);
+        Assert.assertEquals(typeFingerprint, buffer.getTypeFingerprint());
+        Assert.assertEquals(valueFingerprint, buffer.getValueFingerprint());
+    }
+
+    @Test
+    public void countsUniqueTypeAndValueSequences() {
+        ChoiceSequenceStore store = new ChoiceSequenceStore();
+
+        int id0 = store.addTypeSequence(choices(ChoiceType.INT, 1, ChoiceType.CHOOSE, 2));
+        Assert.assertTrue(store.wasNewTypeSequence());
+        store.addValueSequence(choices(ChoiceType.INT, 1, ChoiceType.CHOOSE, 2));
+
+        // Same types, different values
+        ChoiceBuffer other = choices(ChoiceType.INT, 7, ChoiceType.CHOOSE, 0);
+        Assert.assertEquals(id0, store.addTypeSequence(other));
+        Assert.assertFalse(store.wasNewTypeSequence());
+        Assert.assertTrue(store.addValueSequence(other));
+        Assert.assertFalse(store.addValueSequence(other));
+        Assert.assertEquals(2, store.getValueSequenceCount(other));
+
+        // Different types
+        int id1 = store.addTypeSequence(choices(ChoiceType.BOOL, 1));
+        Assert.assertTrue(store.wasNewTypeSequence());
+        Assert.assertEquals(1, id1);
+        Assert.assertEquals(id0, store.addTypeSequence(other));
+        Assert.assertFalse(store.wasNewTypeSequence());
+
+        Assert.assertEquals(2, store.getNumUniqueTypeSequences());
+        Assert.assertEquals(2, store.getNumUniqueValueSequences());
+    }
+
+    @Test
+    public void valueSequencesBeyondTheCapAreSketched() {
+        ChoiceSequenceStore store = new ChoiceSequenceStore(100);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(store.addValueSequence(choices(ChoiceType.INT, i)));
+        }
+        Assert.assertEquals(100, store.valueSequenceCounts.size());
+        Assert.assertEquals(1000, store.getNumUniqueValueSequences());
+
+        // Exact counts are kept, sketched counts are never underestimated
+        Assert.assertFalse(store.addValueSequence(choices(ChoiceType.INT, 5)));
+        Assert.assertEquals(2, store.getValueSequenceCount(choices(ChoiceType.INT, 5)));
+        Assert.assertFalse(store.addValueSequence(choices(ChoiceType.INT, 500)));
+        Assert.assertTrue(store.getValueSequenceCount(choices(ChoiceType.INT, 500)) >= 2);
+        Assert.assertEquals(1000, store.getNumUniqueValueSequences());
+    }
+}
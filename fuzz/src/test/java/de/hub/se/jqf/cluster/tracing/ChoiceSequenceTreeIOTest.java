@@ -0,0 +1,192 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceSequenceTreeIOTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ChoiceSequenceTree randomTree(long seed, int sequences) {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        insertRandom(tree, seed, sequences, "INT", "BOOL", "CHOOSE", "CHAR", "BYTE", "SHORT", "LONG");
+        return tree;
+    }
+
+    private static void insertRandom(ChoiceSequenceTree tree, long seed, int sequences, String... types) {
+        Random random = new Random(seed);
+        for (int n = 0; n < sequences; n++) {
+            List<String> sequence = new ArrayList<>();
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                sequence.add(types[random.nextInt(types.length)]);
+            }
+            tree.insert(sequence);
+        }
+    }
+
+    private static void assertSameStatistics(ChoiceSequenceTree expected, ChoiceSequenceTree actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getUniquePaths(), actual.getUniquePaths());
+        Assert.assertEquals(expected.getNumLeafs(), actual.getNumLeafs());
+        Assert.assertEquals(expected.getNumBranchingNodes(), actual.getNumBranchingNodes());
+        Assert.assertEquals(expected.branchDegree(), actual.branchDegree(), 1e-9);
+        Assert.assertEquals(expected.getMaxDepth(), actual.getMaxDepth());
+    }
+
+    @Test
+    public void binaryRoundTripPreservesTree() throws IOException {
+        ChoiceSequenceTree tree = randomTree(7, 5000);
+        File file = folder.newFile("cstree.bin");
+        tree.saveBinary(file);
+        ChoiceSequenceTree loaded = ChoiceSequenceTree.load(file);
+
+        Assert.assertEquals(tree.size(), loaded.size());
+        Assert.assertEquals(tree.getUniquePaths(), loaded.getUniquePaths());
+        Assert.assertEquals(tree.getNumLeafs(), loaded.getNumLeafs());
+        Assert.assertEquals(tree.branchDegree(), loaded.branchDegree(), 0.0);
+        Assert.assertEquals(tree.getMaxDepth(), loaded.getMaxDepth());
+        for (int node = 0; node < tree.size(); node++) {
+            Assert.assertEquals(tree.getParent(node), loaded.getParent(node));
+            Assert.assertEquals(tree.getNodeType(node), loaded.getNodeType(node));
+            Assert.assertEquals(tree.getFirstChild(node), loaded.getFirstChild(node));
+            Assert.assertEquals(tree.getNextSibling(node), loaded.getNextSibling(node));
+            Assert.assertEquals(tree.isEndOfChoiceSequence(node), loaded.isEndOfChoiceSequence(node));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsForeignFiles() throws IOException {
+        File file = folder.newFile("garbage.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        ChoiceSequenceTree.load(file);
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        File file = folder.newFile("cstree.bin");
+        randomTree(7, 500).saveBinary(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        try {
+            ChoiceSequenceTree.load(file);
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            ChoiceSequenceTreeIO.merge(new ChoiceSequenceTree(), file);
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsHugeNodeCounts() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.putInt(ChoiceSequenceTreeIO.MAGIC);
+        VarInts.putVarInt(buf, 0);
+        VarInts.putVarInt(buf, Integer.MAX_VALUE - 8);
+        VarInts.putVarInt(buf, 0);
+        buf.flip();
+        ChoiceSequenceTreeIO.read(buf);
+    }
+
+    @Test
+    public void radixTreesAreWrittenLikeTheirExpansion() throws IOException {
+        RadixChoiceSequenceTree radix = new RadixChoiceSequenceTree();
+        for (ChoiceBuffer sequence : ChoicePrefixTreeTestUtils.randomRunSequences(5, 2000)) {
+            radix.insert(sequence);
+        }
+        File direct = folder.newFile("radix.bin");
+        File expanded = folder.newFile("expanded.bin");
+        ChoiceSequenceTreeIO.write(radix, direct);
+        ChoiceSequenceTreeIO.write(radix.toChoiceSequenceTree(), expanded);
+        Assert.assertArrayEquals(Files.readAllBytes(expanded.toPath()), Files.readAllBytes(direct.toPath()));
+
+        // Snapshots of a copy are not affected by later insertions
+        RadixChoiceSequenceTree copy = radix.copy();
+        radix.insert(Arrays.asList("BYTE", "BYTE"));
+        File snapshot = new File(folder.getRoot(), "snapshot.bin");
+        ChoiceSequenceTreeIO.writeAtomically(copy, snapshot);
+        Assert.assertArrayEquals(Files.readAllBytes(direct.toPath()), Files.readAllBytes(snapshot.toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownTypeCodes() throws IOException {
+        // A node whose type is not in the (empty) type table of the file
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.putInt(ChoiceSequenceTreeIO.MAGIC);
+        VarInts.putVarInt(buf, 0);
+        VarInts.putVarInt(buf, 2);
+        VarInts.putVarInt(buf, 0);
+        VarInts.putVarInt(buf, 1);
+        VarInts.putVarInt(buf, ChoiceType.INT << 1);
+        buf.flip();
+        ChoiceSequenceTreeIO.read(buf);
+    }
+
+    @Test
+    public void csvListsAllChildren() throws IOException {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        for (String type : new String[]{"A", "B", "C", "D", "E", "F", "G"}) {
+            tree.insert(Arrays.asList(type));
+        }
+        tree.save(folder.getRoot());
+        List<String> lines = Files.readAllLines(new File(folder.getRoot(), "adjList.csv").toPath());
+        Assert.assertEquals("Node,0,1,2,3,4,5,6", lines.get(0));
+        Assert.assertEquals("ROOT,1,2,3,4,5,6,7", lines.get(1));
+        Assert.assertEquals("A,.,.,.,.,.,.,.", lines.get(2));
+    }
+
+    @Test
+    public void mergedSnapshotsEqualTheUnionOfAllSequences() throws IOException {
+        ChoiceSequenceTree first = randomTree(1, 2000);
+        ChoiceSequenceTree second = new ChoiceSequenceTree();
+        // A type that only the second tree knows, so that type codes differ
+        insertRandom(second, 2, 2000, "DOUBLE", "INT", "BOOL");
+
+        File snapshots = folder.newFolder("snapshots");
+        File firstFile = new File(snapshots, "cstree-1.bin");
+        File secondFile = new File(snapshots, "cstree-2.bin");
+        ChoiceSequenceTreeIO.writeAtomically(first, firstFile);
+        ChoiceSequenceTreeIO.writeAtomically(second, secondFile);
+        Assert.assertEquals(2, snapshots.list().length);
+
+        ChoiceSequenceTree union = randomTree(1, 2000);
+        insertRandom(union, 2, 2000, "DOUBLE", "INT", "BOOL");
+
+        assertSameStatistics(union, ChoiceSequenceTreeIO.merge(Arrays.asList(firstFile, secondFile)));
+        assertSameStatistics(union, ChoiceSequenceTreeIO.merge(Arrays.asList(secondFile, firstFile, secondFile)));
+    }
+
+    @Test
+    public void inMemoryMergeEqualsUnion() {
+        ChoiceSequenceTree merged = randomTree(3, 1000);
+        ChoiceSequenceTree other = new ChoiceSequenceTree();
+        insertRandom(other, 4, 1000, "CHOOSE", "DOUBLE");
+        merged.merge(other);
+
+        ChoiceSequenceTree union = randomTree(3, 1000);
+        insertRandom(union, 4, 1000, "CHOOSE", "DOUBLE");
+
+        assertSameStatistics(union, merged);
+        Assert.assertEquals(2000, merged.getVisits(ChoiceSequenceTree.ROOT));
+    }
+}
@@ -0,0 +1,173 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceSequenceTreeTest {
+
+    private static List<String> seq(String... types) {
+        return Arrays.asList(types);
+    }
+
+    @Test
+    public void emptyTreeHasOnlyRoot() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        Assert.assertEquals(1, tree.size());
+        Assert.assertEquals(0, tree.getUniquePaths());
+        Assert.assertEquals(0, tree.getNumLeafs());
+        Assert.assertEquals(0.0, tree.branchDegree(), 0.0);
+    }
+
+    @Test
+    public void sharedPrefixesShareNodes() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT", "BOOL", "CHOOSE"));
+        tree.insert(seq("INT", "BOOL", "INT"));
+        tree.insert(seq("INT", "CHAR"));
+
+        // ROOT, INT, BOOL, CHOOSE, INT, CHAR
+        Assert.assertEquals(6, tree.size());
+        Assert.assertEquals(3, tree.getUniquePaths());
+        Assert.assertEquals(3, tree.getNumLeafs());
+        // INT has {BOOL, CHAR} and BOOL has {CHOOSE, INT}
+        Assert.assertEquals(2.0, tree.branchDegree(), 0.0);
+    }
+
+    @Test
+    public void duplicateSequencesAreCountedOnce() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT", "INT"));
+        tree.insert(seq("INT", "INT"));
+        Assert.assertEquals(3, tree.size());
+        Assert.assertEquals(1, tree.getUniquePaths());
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT", "BOOL"));
+        tree.insert(seq("INT", "CHAR"));
+        ChoiceSequenceTree copy = tree.copy();
+        tree.insert(seq("INT", "INT", "INT"));
+
+        Assert.assertEquals(4, copy.size());
+        Assert.assertEquals(2, copy.getUniquePaths());
+        Assert.assertEquals(2.0, copy.branchDegree(), 0.0);
+
+        // The copy can grow on its own
+        copy.insert(seq("BOOL"));
+        Assert.assertEquals(5, copy.size());
+        Assert.assertEquals(6, tree.size());
+    }
+
+    @Test
+    public void prefixEndsAreNotLeafs() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT"));
+        tree.insert(seq("INT", "BOOL"));
+        Assert.assertEquals(2, tree.getUniquePaths());
+        Assert.assertEquals(1, tree.getNumLeafs());
+    }
+
+    @Test
+    public void nodeAccessorsDescribeStructure() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT", "BOOL"));
+        int intNode = tree.getChild(ChoiceSequenceTree.ROOT, tree.internType("INT"));
+        int boolNode = tree.getChild(intNode, tree.internType("BOOL"));
+        Assert.assertEquals("INT", tree.getNodeType(intNode));
+        Assert.assertEquals(2, tree.getDepth(boolNode));
+        Assert.assertEquals(intNode, tree.getParent(boolNode));
+        Assert.assertTrue(tree.isEndOfChoiceSequence(boolNode));
+        Assert.assertFalse(tree.isEndOfChoiceSequence(intNode));
+        Assert.assertEquals(ChoiceSequenceTree.NONE, tree.getChild(boolNode, tree.internType("INT")));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree(2);
+        String[] chain = new String[5000];
+        Arrays.fill(chain, "INT");
+        tree.insert(seq(chain));
+        Assert.assertEquals(5001, tree.size());
+        Assert.assertEquals(1, tree.getNumLeafs());
+    }
+
+    @Test
+    public void depthStatisticsAreMaintained() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.insert(seq("INT", "BOOL", "CHOOSE"));
+        tree.insert(seq("INT", "CHAR"));
+        Assert.assertEquals(3, tree.getMaxDepth());
+        Assert.assertArrayEquals(new int[]{1, 1, 2, 1}, tree.getDepthHistogram());
+        Assert.assertEquals(0, tree.getNumNodesAtDepth(42));
+    }
+
+    @Test
+    public void incrementalStatisticsMatchRecount() {
+        String[] types = {"INT", "BOOL", "CHOOSE", "CHAR"};
+        Random random = new Random(42);
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        for (int n = 0; n < 2000; n++) {
+            List<String> sequence = new ArrayList<>();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                sequence.add(types[random.nextInt(types.length)]);
+            }
+            tree.insert(sequence);
+        }
+
+        int leafs = 0;
+        int branching = 0;
+        double degrees = 0;
+        for (int node = 0; node < tree.size(); node++) {
+            int deg = tree.deg(node);
+            if (deg == 0 && tree.isEndOfChoiceSequence(node)) {
+                leafs++;
+            }
+            if (deg > 1) {
+                branching++;
+                degrees += deg;
+            }
+        }
+        Assert.assertEquals(leafs, tree.getNumLeafs());
+        Assert.assertEquals(branching, tree.getNumBranchingNodes());
+        Assert.assertEquals(degrees / branching, tree.branchDegree(), 1e-9);
+    }
+
+    @Test
+    public void visitsCountSequencesThroughEachNode() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        int intBool = tree.insert(seq("INT", "BOOL"));
+        tree.insert(seq("INT", "BOOL"));
+        int intChar = tree.insert(seq("INT", "CHAR"));
+
+        Assert.assertEquals(3, tree.getVisits(ChoiceSequenceTree.ROOT));
+        Assert.assertEquals(3, tree.getVisits(tree.getParent(intBool)));
+        Assert.assertEquals(2, tree.getVisits(intBool));
+        Assert.assertEquals(1, tree.getVisits(intChar));
+    }
+
+    @Test
+    public void findPathStopsAtFirstMissingNode() {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        int end = tree.insert(seq("INT", "BOOL"));
+
+        ChoiceBuffer choices = new ChoiceBuffer();
+        choices.add(ChoiceType.INT, 1);
+        choices.add(ChoiceType.BOOL, 0);
+        choices.add(ChoiceType.CHAR, 'a');
+        int[] path = new int[3];
+        Assert.assertEquals(2, tree.findPath(choices, path));
+        Assert.assertEquals(tree.getParent(end), path[0]);
+        Assert.assertEquals(end, path[1]);
+    }
+}
@@ -0,0 +1,140 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceTrimmerTest {
+
+    /** The result of running a small generator of lists of words. */
+    private static class Run {
+        final List<String> words = new ArrayList<>();
+        ChoiceBuffer choices;
+        int bytesRead;
+    }
+
+    private static Run generate(byte[] input) {
+        return generate(input, true);
+    }
+
+    /**
+     * Generates a list of words, either prefixed by its size or with a
+     * boolean before each word telling whether it follows.
+     */
+    private static Run generate(byte[] input, boolean sized) {
+        StreamBackedRandom randomFile = new StreamBackedRandom(new ByteArrayInputStream(input), Long.BYTES);
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomFile);
+        Run run = new Run();
+        try {
+            if (sized) {
+                int size = random.nextInt(64);
+                for (int i = 0; i < size; i++) {
+                    run.words.add(random.choose(Arrays.asList("foo", "bar", "baz", "needle")));
+                }
+            } else {
+                while (random.nextBoolean()) {
+                    run.words.add(random.choose(Arrays.asList("foo", "bar", "baz", "needle")));
+                }
+            }
+        } catch (IllegalStateException e) {
+            return null; // Out of input, like an invalid input
+        }
+        run.choices = ((ChoiceBuffer) random.getChoices()).copy();
+        run.bytesRead = randomFile.getTotalBytesRead();
+        return run;
+    }
+
+    /** Trims an input for as long as it still generates a needle, like the guidance does for coverage. */
+    private static byte[] trim(byte[] input, boolean sized) {
+        Run run = generate(input, sized);
+        ChoiceTrimmer trimmer = new ChoiceTrimmer(Arrays.copyOf(input, run.bytesRead), run.choices);
+        byte[] candidate;
+        while ((candidate = trimmer.next()) != null) {
+            Run trimmed = generate(candidate, sized);
+            if (trimmed != null && trimmed.words.contains("needle") && trimmed.bytesRead < trimmer.getBytes().length) {
+                trimmer.accept(Arrays.copyOf(candidate, trimmed.bytesRead), trimmed.choices);
+            }
+        }
+        Assert.assertTrue(trimmer.isDone());
+        return trimmer.getBytes();
+    }
+
+    private static byte[] randomInput(Random random) {
+        byte[] input = new byte[300];
+        random.nextBytes(input);
+        return input;
+    }
+
+    @Test
+    public void trimsToTheNeededChoices() {
+        Random random = new Random(42);
+        int numTrimmed = 0;
+        for (int n = 0; n < 200; n++) {
+            byte[] input = randomInput(random);
+            Run run = generate(input, false);
+            if (run == null || !run.words.contains("needle") || run.words.size() < 2) {
+                continue;
+            }
+
+            // One word between two booleans is left
+            byte[] trimmed = trim(input, false);
+            Assert.assertEquals(Arrays.asList("needle"), generate(trimmed, false).words);
+            Assert.assertEquals(1 + Integer.BYTES + 1, trimmed.length);
+            numTrimmed++;
+        }
+        Assert.assertTrue(numTrimmed > 0);
+    }
+
+    @Test
+    public void shrinksListSizes() {
+        Random random = new Random(42);
+        int numTrimmed = 0;
+        for (int n = 0; n < 20; n++) {
+            byte[] input = randomInput(random);
+            Run run = generate(input);
+            if (run == null || !run.words.contains("needle") || run.words.size() < 2) {
+                continue;
+            }
+
+            // Words cannot be deleted without lowering the size, which leaves fewer of them
+            byte[] trimmed = trim(input, true);
+            List<String> words = generate(trimmed).words;
+            Assert.assertTrue(words.size() <= run.words.size());
+            Assert.assertEquals(Integer.BYTES * (1 + words.size()), trimmed.length);
+            Assert.assertTrue(words.contains("needle"));
+            numTrimmed++;
+        }
+        Assert.assertTrue(numTrimmed > 0);
+    }
+
+    @Test
+    public void shrinksValuesInPlace() {
+        // A list size of 5 with the needle last
+        byte[] input = {5, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0};
+        Run run = generate(input);
+        Assert.assertEquals(Arrays.asList("foo", "bar", "baz", "foo", "needle"), run.words);
+
+        ChoiceTrimmer trimmer = new ChoiceTrimmer(input, run.choices);
+        byte[] candidate;
+        int numCandidates = 0;
+        while ((candidate = trimmer.next()) != null) {
+            numCandidates++;
+            Assert.assertTrue(candidate.length <= input.length);
+        }
+        // Deleting runs of 2 and 1 of the 6 choices, then shrinking the 4 non-zero ones
+        // to zero and the 3 that are not 1 to half
+        Assert.assertEquals(numCandidates, trimmer.getNumCandidates());
+        Assert.assertEquals(3 + 6 + 4 + 3, numCandidates);
+        Assert.assertTrue(trimmer.isDone());
+        Assert.assertEquals(0, trimmer.getNumAccepted());
+    }
+}
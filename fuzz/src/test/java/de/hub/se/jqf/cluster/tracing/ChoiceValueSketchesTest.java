@@ -0,0 +1,119 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChoiceValueSketchesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ChoiceBuffer sequence(long... chooseIndices) {
+        ChoiceBuffer choices = new ChoiceBuffer();
+        for (long index : chooseIndices) {
+            choices.add(ChoiceType.CHOOSE, index);
+        }
+        return choices;
+    }
+
+    /** Inserts random sequences of a few types with values of all magnitudes. */
+    private static void insertRandom(ChoiceSequenceTree tree, long seed, int count) {
+        Random random = new Random(seed);
+        for (int n = 0; n < count; n++) {
+            ChoiceBuffer choices = new ChoiceBuffer();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                long value = random.nextBoolean() ? random.nextInt(10) : random.nextLong() >> random.nextInt(64);
+                choices.add((byte) (1 + random.nextInt(3)), value);
+            }
+            tree.insert(choices);
+        }
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (int v = 0; v < ChoiceValueSketches.NUM_EXACT_BUCKETS; v++) {
+            Assert.assertEquals(v, ChoiceValueSketches.bucket(v));
+        }
+        Assert.assertEquals(8, ChoiceValueSketches.bucket(8));
+        Assert.assertEquals(9, ChoiceValueSketches.bucket(31));
+        Assert.assertEquals(11, ChoiceValueSketches.bucket(Long.MAX_VALUE));
+        Assert.assertEquals(12, ChoiceValueSketches.bucket(-1));
+        Assert.assertEquals(13, ChoiceValueSketches.bucket(-8));
+        Assert.assertEquals(14, ChoiceValueSketches.bucket(-9));
+        Assert.assertEquals(15, ChoiceValueSketches.bucket(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void countsValuesPerPrefix() throws IOException {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        tree.setValueSketches(new ChoiceValueSketches());
+        tree.insert(sequence(0, 1, 2));
+        tree.insert(sequence(0, 1, 2));
+        tree.insert(sequence(1, 1, 0));
+        tree.insert(sequence(2, 3));
+
+        // Values are counted per node, i.e. per type prefix, not per value prefix
+        int[] third = tree.getValueSketches().getHistogram(tree, sequence(0, 0, 0));
+        Assert.assertEquals(1, third[0]);
+        Assert.assertEquals(2, third[2]);
+        int[] second = tree.getValueSketches().getHistogram(tree, sequence(0, 0));
+        Assert.assertEquals(3, second[1]);
+        Assert.assertEquals(1, second[3]);
+        Assert.assertNull(tree.getValueSketches().getHistogram(tree, sequence(0, 0, 0, 0)));
+        Assert.assertEquals(11, tree.getValueSketches().getNumValues());
+    }
+
+    @Test
+    public void spillingKeepsAllCounts() throws IOException {
+        ChoiceSequenceTree expected = new ChoiceSequenceTree();
+        expected.setValueSketches(new ChoiceValueSketches());
+        insertRandom(expected, 42, 5000);
+
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        File spillFile = folder.newFile("values.spill");
+        // Room for 100 histograms, which the random sequences far exceed
+        try (ChoiceValueSketches sketches = new ChoiceValueSketches(100 * ChoiceValueSketches.BYTES_PER_NODE, spillFile)) {
+            tree.setValueSketches(sketches);
+            insertRandom(tree, 42, 5000);
+            Assert.assertTrue(spillFile.length() > 0);
+            Assert.assertTrue(sketches.numSlots <= 100);
+
+            for (int node = 0; node < tree.size(); node++) {
+                Assert.assertArrayEquals(expected.getValueSketches().getHistogram(node), sketches.getHistogram(node));
+            }
+        }
+        Assert.assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void queriesAgainstSavedTree() throws IOException {
+        ChoiceSequenceTree tree = new ChoiceSequenceTree();
+        File spillFile = folder.newFile("values.spill");
+        tree.setValueSketches(new ChoiceValueSketches(1000 * ChoiceValueSketches.BYTES_PER_NODE, spillFile));
+        insertRandom(tree, 7, 5000);
+
+        File treeFile = folder.newFile("cstree.bin");
+        File valuesFile = folder.newFile("cstree_values.bin");
+        tree.saveBinary(treeFile);
+        tree.getValueSketches().save(valuesFile);
+
+        ChoiceSequenceTree loaded = ChoiceSequenceTree.load(treeFile);
+        ChoiceValueSketches loadedSketches = ChoiceValueSketches.load(valuesFile);
+        Assert.assertEquals(tree.getValueSketches().getNumValues(), loadedSketches.getNumValues());
+        for (int node = 0; node < tree.size(); node++) {
+            Assert.assertArrayEquals(tree.getValueSketches().getHistogram(node), loadedSketches.getHistogram(node));
+            Assert.assertEquals(tree.getNodeTypeCode(node), loaded.getNodeTypeCode(node));
+        }
+        tree.getValueSketches().close();
+    }
+}
@@ -0,0 +1,142 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static de.hub.se.jqf.cluster.tracing.ChoicePrefixTreeTestUtils.assertSameStatistics;
+import static de.hub.se.jqf.cluster.tracing.ChoicePrefixTreeTestUtils.randomSequences;
+
+@RunWith(JUnit4.class)
+public class ConcurrentChoiceSequenceTreeTest {
+
+    private static final int THREADS = 8;
+
+    /** Inserts the sequences from several threads, which start at the same time; thread t inserts every sequence i with i % step == t % step. */
+    private static void insertConcurrently(ConcurrentChoiceSequenceTree tree, List<ChoiceBuffer> sequences, int step) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t % step;
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = first; i < sequences.size(); i += step) {
+                        tree.insert(sequences.get(i));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void concurrentInsertionMatchesSequentialTree() throws Exception {
+        List<ChoiceBuffer> sequences = randomSequences(42, 20000);
+        ChoiceSequenceTree expected = new ChoiceSequenceTree();
+        for (ChoiceBuffer sequence : sequences) {
+            expected.insert(sequence);
+        }
+
+        ConcurrentChoiceSequenceTree tree = new ConcurrentChoiceSequenceTree();
+        insertConcurrently(tree, sequences, THREADS);
+        assertSameStatistics(expected, tree);
+        assertSameStatistics(expected, tree.toChoiceSequenceTree());
+
+        for (ChoiceBuffer query : randomSequences(7, 1000)) {
+            Assert.assertEquals(expected.getPathVisits(query), tree.getPathVisits(query));
+            int[] expectedDegrees = new int[query.size()];
+            int[] actualDegrees = new int[query.size()];
+            int length = expected.findPathDegrees(query, expectedDegrees);
+            Assert.assertEquals(length, tree.findPathDegrees(query, actualDegrees));
+            Assert.assertArrayEquals(Arrays.copyOf(expectedDegrees, length), Arrays.copyOf(actualDegrees, length));
+        }
+    }
+
+    @Test
+    public void sameSequencesFromAllThreads() throws Exception {
+        // Every thread inserts every sequence, so each new child is raced for
+        List<ChoiceBuffer> sequences = randomSequences(3, 5000);
+        ChoiceSequenceTree expected = new ChoiceSequenceTree();
+        for (ChoiceBuffer sequence : sequences) {
+            expected.insert(sequence);
+        }
+
+        ConcurrentChoiceSequenceTree tree = new ConcurrentChoiceSequenceTree();
+        insertConcurrently(tree, sequences, 1);
+        assertSameStatistics(expected, tree);
+        Assert.assertEquals(THREADS * sequences.size(), tree.getVisits(ConcurrentChoiceSequenceTree.ROOT));
+
+        // No visit may be lost on a node that several threads raced to create
+        ChoiceSequenceTree copy = tree.toChoiceSequenceTree();
+        for (ChoiceBuffer sequence : sequences) {
+            Assert.assertEquals(expected.getPathVisits(sequence) * THREADS, tree.getPathVisits(sequence));
+            Assert.assertEquals(expected.getPathVisits(sequence) * THREADS, copy.getPathVisits(sequence));
+        }
+    }
+
+    @Test
+    public void statisticsCanBeReadWhileInserting() throws Exception {
+        List<ChoiceBuffer> sequences = randomSequences(11, 20000);
+        ConcurrentChoiceSequenceTree tree = new ConcurrentChoiceSequenceTree();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            try {
+                int lastSize = 0;
+                int lastUniquePaths = 0;
+                while (!done.get()) {
+                    int size = tree.size();
+                    int uniquePaths = tree.getUniquePaths();
+                    Assert.assertTrue(size >= lastSize);
+                    Assert.assertTrue(uniquePaths >= lastUniquePaths);
+                    Assert.assertTrue(tree.branchDegree() >= 0);
+                    tree.sampleNewNodesPerSecond(System.currentTimeMillis());
+                    for (int d = 0; d <= tree.getMaxDepth(); d++) {
+                        tree.getNumNodesAtDepth(d);
+                    }
+                    tree.toChoiceSequenceTree();
+                    lastSize = size;
+                    lastUniquePaths = uniquePaths;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        try {
+            insertConcurrently(tree, sequences, THREADS);
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        ChoiceSequenceTree expected = new ChoiceSequenceTree();
+        for (ChoiceBuffer sequence : sequences) {
+            expected.insert(sequence);
+        }
+        assertSameStatistics(expected, tree);
+    }
+}
@@ -0,0 +1,133 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.LongBitSets;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CoverageSignatureLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Set<Integer> randomCoverage(Random random, int size) {
+        Set<Integer> covered = new HashSet<>();
+        while (covered.size() < size) {
+            covered.add(random.nextInt(1 << 16));
+        }
+        return covered;
+    }
+
+    /** Copies a coverage set with some of its indices replaced. */
+    private static Set<Integer> replace(Random random, Set<Integer> original, int numReplaced) {
+        List<Integer> covered = new ArrayList<>(original);
+        Set<Integer> result = new HashSet<>(covered.subList(numReplaced, covered.size()));
+        while (result.size() < original.size()) {
+            int index = random.nextInt(1 << 16);
+            if (!original.contains(index)) {
+                result.add(index);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void bitSetSimilarities() {
+        long[] a = new long[4];
+        long[] b = new long[4];
+        Assert.assertEquals(1.0, LongBitSets.jaccard(a, b), 0);
+        for (int bit : new int[]{0, 63, 64, 200}) {
+            LongBitSets.set(a, bit);
+        }
+        for (int bit : new int[]{63, 64, 255}) {
+            LongBitSets.set(b, bit);
+        }
+        Assert.assertTrue(LongBitSets.get(a, 200));
+        Assert.assertFalse(LongBitSets.get(b, 200));
+        Assert.assertEquals(4, LongBitSets.cardinality(a, 0, a.length));
+        Assert.assertEquals(3, LongBitSets.hamming(a, b));
+        Assert.assertEquals(2.0 / 5, LongBitSets.jaccard(a, b), 1e-9);
+    }
+
+    @Test
+    public void signaturesAreIndexedByTrial() throws IOException {
+        Random random = new Random(42);
+        List<Set<Integer>> trials = new ArrayList<>();
+        for (int n = 0; n < 5000; n++) {
+            trials.add(randomCoverage(random, random.nextInt(50)));
+        }
+        // Exact bit sets for the whole coverage map
+        File file = folder.newFile("signatures.bin");
+        try (CoverageSignatureLog log = CoverageSignatureLog.bitset(file, 1 << 16)) {
+            for (int n = 0; n < trials.size(); n++) {
+                log.append(Result.values()[n % Result.values().length], trials.get(n));
+            }
+        }
+
+        try (CoverageSignatureReader reader = new CoverageSignatureReader(file)) {
+            Assert.assertEquals(trials.size(), reader.getNumRecords());
+            long[] signature = new long[reader.getNumWords()];
+            for (int k = 0; k < 100; k++) {
+                int trial = random.nextInt(trials.size());
+                reader.read(trial, signature);
+                Assert.assertEquals(Result.values()[trial % Result.values().length], reader.getResult());
+                Assert.assertEquals(trials.get(trial).size(), reader.getNumCovered());
+                Assert.assertEquals(trials.get(trial).size(), LongBitSets.cardinality(signature, 0, signature.length));
+                for (int index : trials.get(trial)) {
+                    Assert.assertTrue(LongBitSets.get(signature, index));
+                }
+            }
+
+            // Packed signatures compare like single ones
+            long[] packed = new long[3 * reader.getNumWords()];
+            long[] last = new long[reader.getNumWords()];
+            reader.read(10, 3, packed);
+            reader.read(12, last);
+            Assert.assertEquals(1.0, LongBitSets.jaccard(packed, 2 * reader.getNumWords(), last, 0, last.length), 0);
+        }
+    }
+
+    @Test
+    public void minHashEstimatesSimilarity() throws IOException {
+        Random random = new Random(7);
+        Set<Integer> base = randomCoverage(random, 400);
+        Set<Integer> similar = replace(random, base, 40);
+        Set<Integer> different = randomCoverage(random, 400);
+
+        File file = folder.newFile("signatures.bin");
+        try (CoverageSignatureLog log = CoverageSignatureLog.minHash(file, 256)) {
+            log.append(Result.SUCCESS, base);
+            log.append(Result.SUCCESS, similar);
+            log.append(Result.INVALID, different);
+            // A partial record, as if the log was still being written
+            log.flush();
+            log.buffer.putLong(0);
+        }
+
+        try (CoverageSignatureReader reader = new CoverageSignatureReader(file)) {
+            Assert.assertEquals(CoverageSignatureLog.MINHASH, reader.getKind());
+            Assert.assertEquals(3, reader.getNumRecords());
+            long[][] signatures = new long[3][reader.getNumWords()];
+            for (int trial = 0; trial < 3; trial++) {
+                reader.read(trial, signatures[trial]);
+            }
+            // The real similarity is 360 / 440
+            double similarity = reader.similarity(signatures[0], signatures[1]);
+            Assert.assertEquals(360.0 / 440, similarity, 0.1);
+            Assert.assertTrue(reader.similarity(signatures[0], signatures[2]) < 0.1);
+        }
+    }
+}
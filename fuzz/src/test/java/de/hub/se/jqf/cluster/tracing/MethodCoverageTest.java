@@ -0,0 +1,57 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import janala.logger.inst.INVOKESTATIC;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MethodCoverageTest {
+
+    private static CallEvent callEvent(int iid, String method) {
+        return new CallEvent(iid, null, 0,
+                new INVOKESTATIC(iid, 0, "Foo", method, "()V"));
+    }
+
+    @Test
+    public void callSitesOfTheSameMethodShareAnId() {
+        MethodCoverage coverage = new MethodCoverage();
+        int bar = coverage.getMethodId(callEvent(7, "bar"));
+        int baz = coverage.getMethodId(callEvent(1000, "baz"));
+        Assert.assertNotEquals(bar, baz);
+        Assert.assertEquals(bar, coverage.getMethodId(callEvent(3, "bar")));
+        Assert.assertEquals(2, coverage.getNumMethods());
+        Assert.assertEquals("Foo#bar()V", coverage.getMethodName(bar));
+    }
+
+    @Test
+    public void coveredMethodsAreListedOnceInCallOrder() {
+        MethodCoverage coverage = new MethodCoverage();
+        Assert.assertTrue(coverage.cover(callEvent(5, "b")));
+        Assert.assertTrue(coverage.cover(callEvent(2, "a")));
+        Assert.assertFalse(coverage.cover(callEvent(5, "b")));
+        Assert.assertFalse(coverage.cover(callEvent(9, "a")));
+
+        Assert.assertEquals(2, coverage.getNumCovered());
+        Assert.assertEquals("Foo#b()V", coverage.getMethodName(coverage.getCovered(0)));
+        Assert.assertEquals("Foo#a()V", coverage.getMethodName(coverage.getCovered(1)));
+    }
+
+    @Test
+    public void clearResetsOnlyTheCurrentRun() {
+        MethodCoverage coverage = new MethodCoverage();
+        for (int iid = 0; iid < 200; iid++) {
+            coverage.cover(callEvent(iid, "m" + iid));
+        }
+        coverage.clear();
+        Assert.assertEquals(0, coverage.getNumCovered());
+        Assert.assertFalse(coverage.isCovered(0));
+        Assert.assertEquals(200, coverage.getNumMethods());
+
+        Assert.assertTrue(coverage.cover(callEvent(42, "m42")));
+        Assert.assertTrue(coverage.isCovered(42));
+        Assert.assertFalse(coverage.isCovered(41));
+    }
+}
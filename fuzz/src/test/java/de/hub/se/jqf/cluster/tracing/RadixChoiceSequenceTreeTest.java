@@ -0,0 +1,81 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static de.hub.se.jqf.cluster.tracing.ChoicePrefixTreeTestUtils.assertSameStatistics;
+import static de.hub.se.jqf.cluster.tracing.ChoicePrefixTreeTestUtils.randomRunSequences;
+
+@RunWith(JUnit4.class)
+public class RadixChoiceSequenceTreeTest {
+
+    @Test
+    public void statisticsMatchUncompressedTree() {
+        ChoiceSequenceTree plain = new ChoiceSequenceTree();
+        RadixChoiceSequenceTree radix = new RadixChoiceSequenceTree();
+        List<ChoiceBuffer> sequences = randomRunSequences(42, 3000);
+        for (ChoiceBuffer sequence : sequences) {
+            plain.insert(sequence);
+            radix.insert(sequence);
+            // Check along the way, since runs are split as the tree grows
+            Assert.assertEquals(plain.size(), radix.size());
+            Assert.assertEquals(plain.getNumLeafs(), radix.getNumLeafs());
+        }
+        assertSameStatistics(plain, radix);
+        Assert.assertArrayEquals(plain.getDepthHistogram(), radix.getDepthHistogram());
+        Assert.assertTrue(radix.getNumRuns() < plain.size() / 4);
+    }
+
+    @Test
+    public void pathQueriesMatchUncompressedTree() {
+        ChoiceSequenceTree plain = new ChoiceSequenceTree();
+        RadixChoiceSequenceTree radix = new RadixChoiceSequenceTree();
+        for (ChoiceBuffer sequence : randomRunSequences(1, 1000)) {
+            plain.insert(sequence);
+            radix.insert(sequence);
+        }
+        for (ChoiceBuffer query : randomRunSequences(2, 1000)) {
+            Assert.assertEquals(plain.getPathVisits(query), radix.getPathVisits(query));
+            int[] expected = new int[query.size()];
+            int[] actual = new int[query.size()];
+            int length = plain.findPathDegrees(query, expected);
+            Assert.assertEquals(length, radix.findPathDegrees(query, actual));
+            Assert.assertArrayEquals(Arrays.copyOf(expected, length), Arrays.copyOf(actual, length));
+        }
+    }
+
+    @Test
+    public void expandsToEquivalentTree() {
+        RadixChoiceSequenceTree radix = new RadixChoiceSequenceTree();
+        ChoiceSequenceTree plain = new ChoiceSequenceTree();
+        List<ChoiceBuffer> sequences = randomRunSequences(7, 2000);
+        for (ChoiceBuffer sequence : sequences) {
+            radix.insert(sequence);
+            plain.insert(sequence);
+        }
+        ChoiceSequenceTree expanded = radix.toChoiceSequenceTree();
+        assertSameStatistics(plain, expanded);
+        for (ChoiceBuffer sequence : sequences) {
+            Assert.assertEquals(plain.getPathVisits(sequence), expanded.getPathVisits(sequence));
+        }
+    }
+
+    @Test
+    public void sequencesEndingInsideARunSplitIt() {
+        RadixChoiceSequenceTree tree = new RadixChoiceSequenceTree();
+        tree.insert(Arrays.asList("INT", "INT", "INT", "INT", "INT"));
+        Assert.assertEquals(2, tree.getNumRuns());
+        tree.insert(Arrays.asList("INT", "INT"));
+        tree.insert(Arrays.asList("INT", "INT", "INT", "INT", "INT"));
+        Assert.assertEquals(3, tree.getNumRuns());
+        Assert.assertEquals(6, tree.size());
+        Assert.assertEquals(2, tree.getUniquePaths());
+        Assert.assertEquals(1, tree.getNumLeafs());
+        Assert.assertEquals(0, tree.getNumBranchingNodes());
+    }
+}
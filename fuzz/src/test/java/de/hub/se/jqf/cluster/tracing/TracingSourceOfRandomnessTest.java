@@ -0,0 +1,116 @@
+package de.hub.se.jqf.cluster.tracing;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TracingSourceOfRandomnessTest {
+
+    private static StreamBackedRandom randomBytes(int n) {
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = (byte) (i * 31 + 7);
+        }
+        return new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES);
+    }
+
+    @Test
+    public void recordsTypesAndValues() {
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomBytes(1024));
+        int i = random.nextInt(0, 100);
+        boolean b = random.nextBoolean();
+        String s = random.choose(Arrays.asList("a", "b", "c"));
+        long l = random.nextLong(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        ChoiceSequence choices = random.getChoices();
+        Assert.assertEquals(4, choices.size());
+        Assert.assertEquals(ChoiceType.INT, choices.getType(0));
+        Assert.assertEquals(i, choices.getValue(0));
+        Assert.assertEquals(ChoiceType.BOOL, choices.getType(1));
+        Assert.assertEquals(b ? 1 : 0, choices.getValue(1));
+        Assert.assertEquals(ChoiceType.CHOOSE, choices.getType(2));
+        Assert.assertEquals(s, Arrays.asList("a", "b", "c").get((int) choices.getValue(2)));
+        Assert.assertEquals(ChoiceType.LONG, choices.getType(3));
+        Assert.assertEquals(l, choices.getValue(3));
+    }
+
+    @Test
+    public void chooseFromNonListCollection() {
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomBytes(1024));
+        HashSet<Integer> items = new HashSet<>(Arrays.asList(10, 20, 30, 40));
+        int chosen = random.choose(items);
+        Assert.assertTrue(items.contains(chosen));
+    }
+
+    @Test
+    public void sharedBufferIsResetAndReused() {
+        ChoiceBuffer buffer = new ChoiceBuffer(1);
+        TracingSourceOfRandomness first = new TracingSourceOfRandomness(randomBytes(4096), buffer);
+        for (int i = 0; i < 100; i++) {
+            first.nextInt(0, 10);
+        }
+        Assert.assertEquals(100, buffer.size());
+
+        TracingSourceOfRandomness second = new TracingSourceOfRandomness(randomBytes(1024), buffer);
+        second.nextBoolean();
+        Assert.assertEquals(1, second.getChoices().size());
+        Assert.assertEquals(ChoiceType.BOOL, second.getChoices().getType(0));
+    }
+
+    @Test
+    public void observerSeesEachChoice() {
+        List<long[]> observed = new ArrayList<>();
+        ChoiceObserver observer = new ChoiceObserver() {
+            @Override
+            public void onChoice(byte typeCode, long value, int byteOffset) {
+                observed.add(new long[]{typeCode, value, byteOffset});
+            }
+
+            @Override
+            public InputStream getInput() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean hasInput() {
+                return false;
+            }
+
+            @Override
+            public void handleResult(Result result, Throwable error) {
+            }
+
+            @Override
+            public Consumer<TraceEvent> generateCallBack(Thread thread) {
+                return e -> { };
+            }
+        };
+
+        TracingSourceOfRandomness random = new TracingSourceOfRandomness(randomBytes(1024));
+        random.setObserver(observer);
+        random.nextInt(0, 100);
+        random.nextBoolean();
+        random.choose(Arrays.asList("a", "b", "c"));
+
+        ChoiceSequence choices = random.getChoices();
+        Assert.assertEquals(choices.size(), observed.size());
+        for (int i = 0; i < choices.size(); i++) {
+            Assert.assertEquals(choices.getType(i), observed.get(i)[0]);
+            Assert.assertEquals(choices.getValue(i), observed.get(i)[1]);
+            Assert.assertEquals(choices.getOffset(i), observed.get(i)[2]);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance.LinearInput;
+import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance.SeedInput;
+import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZestGuidance g;
+
+    @Before
+    public void createGuidanceInstance() throws IOException {
+        g = new ZestGuidance("test", null, folder.newFolder("fuzz-out"));
+    }
+
+    @Test
+    public void bulkReadMatchesSingleReads() {
+        LinearInput input = g.new LinearInput();
+        Random r = new Random(42);
+        byte[] buf = new byte[10];
+        assertEquals(3, input.read(0, buf, 0, 3, r));
+        assertEquals(7, input.read(3, buf, 3, 7, r));
+        input.gc();
+        assertEquals(10, input.size());
+
+        // A child reads the existing bytes, whether in blocks or one at a time
+        LinearInput child = g.new LinearInput(input);
+        byte[] copy = new byte[16];
+        assertEquals(5, child.read(0, copy, 0, 5, r));
+        for (int i = 5; i < 10; i++) {
+            copy[i] = (byte) child.getOrGenerateFresh(i, r);
+        }
+        assertArrayEquals(buf, Arrays.copyOf(copy, 10));
+
+        // Reading past the end generates fresh bytes
+        assertEquals(6, child.read(10, copy, 10, 6, r));
+        child.gc();
+        assertArrayEquals(copy, child.toByteArray());
+    }
+
+    @Test
+    public void directStreamRequestsWhatWasRead() {
+        LinearInput input = g.new LinearInput();
+        g.currentInput = input;
+        StreamBackedRandom random = new StreamBackedRandom(g.createParameterStream());
+        int[] values = new int[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt();
+        }
+        g.currentStream.sync();
+        input.gc();
+        assertEquals(20 * Integer.BYTES, input.size());
+
+        // A child reads the same values, and the bytes it did not read are dropped
+        LinearInput child = g.new LinearInput(input);
+        g.currentInput = child;
+        random.reset(g.createParameterStream());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(values[i], random.nextInt());
+        }
+        g.currentStream.sync();
+        child.gc();
+        assertEquals(10 * Integer.BYTES, child.size());
+    }
+
+    @Test
+    public void bulkReadStopsAtEndOfSeed() throws IOException {
+        File seedFile = folder.newFile("seed");
+        byte[] seed = {1, 2, 3, (byte) 200, 5};
+        Files.write(seedFile.toPath(), seed);
+
+        SeedInput input = g.new SeedInput(seedFile);
+        Random r = new Random(42);
+        byte[] buf = new byte[8];
+        assertEquals(4, input.read(0, buf, 0, 4, r));
+        assertEquals(1, input.read(4, buf, 4, 4, r));
+        assertEquals(-1, input.read(5, buf, 5, 3, r));
+        input.gc();
+        assertArrayEquals(seed, input.toByteArray());
+        assertEquals(Arrays.asList(1, 2, 3, 200, 5), input.getValues());
+    }
+}
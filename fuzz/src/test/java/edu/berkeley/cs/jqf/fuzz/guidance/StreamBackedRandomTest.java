@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.guidance;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StreamBackedRandomTest {
+
+    /** A direct stream over a fixed array, which refills in small steps. */
+    private static class ArrayDirectInputStream extends DirectInputStream {
+        private final byte[] bytes;
+
+        ArrayDirectInputStream(byte[] bytes) {
+            super(new byte[0], 0);
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected int refill(int needed) {
+            buf = bytes;
+            count = Math.min(bytes.length, pos + needed + 3);
+            return count - pos;
+        }
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] bytes = new byte[n];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    /** Draws a mix of values, recording them as longs. */
+    private static long[] draw(Random random) {
+        byte[] bytes = new byte[7];
+        random.nextBytes(bytes);
+        return new long[] {
+                random.nextInt(), random.nextInt(100), random.nextBoolean() ? 1 : 0,
+                random.nextLong(), ((StreamBackedRandom) random).nextByte(),
+                ((StreamBackedRandom) random).nextShort(), Arrays.hashCode(bytes),
+                Double.doubleToLongBits(random.nextDouble()), random.nextLong()
+        };
+    }
+
+    @Test
+    public void directStreamReadsTheSameValues() {
+        byte[] bytes = randomBytes(64);
+        StreamBackedRandom fromStream = new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES);
+        StreamBackedRandom fromArray = new StreamBackedRandom(new ArrayDirectInputStream(bytes), Long.BYTES);
+        fromStream.nextLong(); // Ignored leading bytes
+        fromArray.nextLong();
+        Assert.assertArrayEquals(draw(fromStream), draw(fromArray));
+        Assert.assertEquals(fromStream.getTotalBytesRead(), fromArray.getTotalBytesRead());
+
+        // After a reset, no bytes are ignored
+        fromStream.reset(new ByteArrayInputStream(bytes));
+        fromArray.reset(new ArrayDirectInputStream(bytes));
+        Assert.assertArrayEquals(draw(fromStream), draw(fromArray));
+        Assert.assertEquals(fromStream.getTotalBytesRead(), fromArray.getTotalBytesRead());
+    }
+
+    @Test
+    public void directStreamReportsEof() {
+        StreamBackedRandom random = new StreamBackedRandom(new ArrayDirectInputStream(randomBytes(6)));
+        random.nextInt();
+        try {
+            random.nextInt();
+            Assert.fail("Expected EOF");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+        Assert.assertEquals(6, random.getTotalBytesRead());
+    }
+}
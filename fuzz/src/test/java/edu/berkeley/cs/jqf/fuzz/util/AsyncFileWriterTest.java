@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AsyncFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linesArriveInOrderPerFile() throws IOException {
+        File a = new File(folder.getRoot(), "a.csv");
+        File b = new File(folder.getRoot(), "b.csv");
+        try (AsyncFileWriter writer = new AsyncFileWriter(16)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.append(a, "a" + i);
+                writer.append(b, "b" + i);
+            }
+            writer.flush();
+            Assert.assertEquals(1000, Files.readAllLines(a.toPath()).size());
+        }
+        List<String> linesB = Files.readAllLines(b.toPath());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("b" + i, linesB.get(i));
+        }
+    }
+
+    @Test
+    public void appendsToExistingFiles() throws IOException {
+        File a = folder.newFile("a.csv");
+        Files.write(a.toPath(), "header\n".getBytes());
+        try (AsyncFileWriter writer = new AsyncFileWriter()) {
+            writer.append(a, "row");
+        }
+        Assert.assertEquals(2, Files.readAllLines(a.toPath()).size());
+    }
+
+    @Test
+    public void runsTasksInOrderWithLines() throws IOException {
+        File a = new File(folder.getRoot(), "a.csv");
+        File b = new File(folder.getRoot(), "b.bin");
+        try (AsyncFileWriter writer = new AsyncFileWriter()) {
+            writer.append(a, "row");
+            // The task sees the line written before it
+            writer.execute(() -> Files.write(b.toPath(), Files.readAllBytes(a.toPath())));
+        }
+        Assert.assertEquals(Arrays.asList("row"), Files.readAllLines(b.toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAppendsAfterClose() throws IOException {
+        AsyncFileWriter writer = new AsyncFileWriter();
+        writer.close();
+        writer.append(new File(folder.getRoot(), "a.csv"), "row");
+    }
+
+    @Test(timeout = 10000)
+    public void reportsDeathOfTheWriterThread() throws IOException {
+        AsyncFileWriter writer = new AsyncFileWriter(1);
+        File a = new File(folder.getRoot(), "a.csv");
+        // Not a valid path, which kills the writer thread with an unchecked exception
+        writer.append(new File(folder.getRoot(), "bad\0.csv"), "row");
+        try {
+            for (int i = 0; i < 1000; i++) {
+                writer.append(a, "row");
+            }
+            Assert.fail("Appends to a dead writer should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            writer.close();
+            Assert.fail("Closing a dead writer should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -28,6 +28,11 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
@@ -177,4 +182,65 @@ public class CoverageTest {
         Assert.assertTrue(changed); // Because hob(3) and hob(1) are different
         Assert.assertEquals(c2.getNonZeroCount(), total.getNonZeroCount());
     }
+
+    @Test
+    public void testCoverageUpdateBitsCollectsNewCoverage() {
+        Coverage c1 = new Coverage();
+        Coverage c2 = new Coverage();
+        Coverage total = new Coverage();
+        for (TraceEvent e : new TraceEvent[]{ callEvent(1), branchEvent(3, 1) }) {
+            c1.handleEvent(e);
+        }
+        for (TraceEvent e : new TraceEvent[]{ callEvent(1), callEvent(1), callEvent(2), branchEvent(3, 0) }) {
+            c2.handleEvent(e);
+        }
+        total.updateBits(c1);
+
+        Collection<?> expected = c2.computeNewCoverage(total);
+        List<Integer> newCoverage = new ArrayList<>();
+        Assert.assertTrue(total.updateBits(c2, newCoverage));
+        Assert.assertEquals(new HashSet<>(expected), new HashSet<>(newCoverage));
+        Assert.assertEquals(2, newCoverage.size());
+
+        // Covering the same edges again adds nothing
+        newCoverage.clear();
+        Assert.assertFalse(total.updateBits(c2, newCoverage));
+        Assert.assertTrue(newCoverage.isEmpty());
+    }
+
+    @Test
+    public void testCoverageSnapshot() {
+        Coverage c = new Coverage();
+        for (TraceEvent e : new TraceEvent[]{ callEvent(7), callEvent(7), callEvent(7), callEvent(2), branchEvent(3, 1) }) {
+            c.handleEvent(e);
+        }
+        CoverageSnapshot snapshot = c.snapshot();
+        Assert.assertEquals(c.getNonZeroCount(), snapshot.getNonZeroCount());
+        Assert.assertEquals(new HashSet<>(c.getCovered()), new HashSet<>(snapshot.getCovered()));
+        for (int idx : c.getCovered()) {
+            Assert.assertTrue(snapshot.isCovered(idx));
+        }
+        Assert.assertTrue(snapshot.coversAll(c.getCovered()));
+
+        // Counts are kept as their highest order bit, as updateBits merges them
+        Coverage total = new Coverage();
+        total.updateBits(c);
+        for (int idx : c.getCovered()) {
+            Assert.assertEquals(total.snapshot().getHob(idx), snapshot.getHob(idx));
+        }
+        int maxHob = 0;
+        for (int idx : snapshot.getCovered()) {
+            maxHob = Math.max(maxHob, snapshot.getHob(idx));
+        }
+        Assert.assertEquals(2, maxHob); // The three calls
+
+        // The snapshot does not change with the coverage
+        c.clear();
+        c.handleEvent(callEvent(5));
+        int idx5 = c.getCovered().iterator().next();
+        Assert.assertFalse(snapshot.isCovered(idx5));
+        Assert.assertEquals(0, snapshot.getHob(idx5));
+        Assert.assertFalse(snapshot.coversAll(c.getCovered()));
+        Assert.assertEquals(3, snapshot.getNonZeroCount());
+    }
 }